@@ -0,0 +1,69 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+package fcntcp;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Checksums across payload sizes - the table-driven CRC16 every segment is checked with by default, and the
+ *  CRC32C that can be agreed on SYN */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChecksumBenchmark{
+    /** Length of the data in bytes */
+    @Param({"16", "64", "532", "1460", "8192", "65000"})
+    public int size;
+
+    /** Data to checksum */
+    private byte[] data;
+    /** Encoded segment with the same data, for CRC32C */
+    private ByteBuffer encoded;
+    /** Address of the sender */
+    private InetAddress address;
+
+    /** Makes random data and a segment that carries it */
+    @Setup
+    public void setup() throws Exception{
+        this.data = new byte[this.size];
+        new Random(42).nextBytes(this.data);
+        this.address = InetAddress.getLoopbackAddress();
+        Packet packet = new Packet(1000, 1, true, false, false, (short)2048, this.data, this.address, 5000);
+        this.encoded = ByteBuffer.allocateDirect(Packet.getDatagramLength(this.size));
+        packet.encode(this.encoded);
+    }
+
+    /** CRC16 of the data and the header
+     *  @return checksum
+     */
+    @Benchmark
+    public char calculateCRC16(){
+        return Packet.calculateCRC16(1000, 1, true, false, false, (short)2048, this.data, this.size, this.address, 5000);
+    }
+
+    /** CRC32C of the whole segment
+     *  @return checksum
+     */
+    @Benchmark
+    public int crc32c(){
+        return Packet.crc32c(this.encoded, 0, this.encoded.position());
+    }
+}
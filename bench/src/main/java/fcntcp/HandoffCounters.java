@@ -0,0 +1,19 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+package fcntcp;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/** Packets of ReceiverBenchmark that didn't go through, reported next to the throughput */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class HandoffCounters{
+    /** Offers the Receiver turned away */
+    public long rejected;
+    /** Polls that found the Receiver empty */
+    public long empty;
+}
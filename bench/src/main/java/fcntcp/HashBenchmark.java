@@ -0,0 +1,77 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+package fcntcp;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** MD5 of the transferred file - from memory the way MemorySink hashes, and from the disk the way the client and
+ *  FileSink hash. The file stays in the page cache, so the disk itself is not measured */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashBenchmark{
+    /** Size of the file in bytes */
+    @Param({"4096", "1048576", "16777216"})
+    public int size;
+
+    /** Contents of the file */
+    private byte[] data;
+    /** File with the same contents */
+    private File file;
+
+    /** Writes random data to a temporary file */
+    @Setup
+    public void setup() throws Exception{
+        this.data = new byte[this.size];
+        new Random(42).nextBytes(this.data);
+        this.file = File.createTempFile("fcntcp-bench", ".bin");
+        FileOutputStream out = new FileOutputStream(this.file);
+        try{
+            out.write(this.data);
+        }finally{
+            out.close();
+        }
+    }
+
+    /** Deletes the temporary file */
+    @TearDown
+    public void tearDown(){
+        this.file.delete();
+    }
+
+    /** Hash of the data in memory
+     *  @return hash digest
+     */
+    @Benchmark
+    public String getHash() throws Exception{
+        return Utility.getHash(this.data);
+    }
+
+    /** Hash of the file
+     *  @return hash digest
+     */
+    @Benchmark
+    public String getFileHash() throws Exception{
+        return Utility.getFileHash(this.file);
+    }
+}
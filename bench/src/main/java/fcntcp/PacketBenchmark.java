@@ -0,0 +1,108 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+package fcntcp;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Encoding and decoding of a data segment - the allocating toByteArray() and buildPacketFromByteArray() next to
+ *  the reused-buffer paths the send and receive loops take */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketBenchmark{
+    /** Length of the data in bytes */
+    @Param({"0", "64", "532", "1460", "8192"})
+    public int size;
+
+    /** Checksum of the segment */
+    @Param({"crc16", "crc32c"})
+    public String checksum;
+
+    /** Segment to encode */
+    private Packet packet;
+    /** Encoded segment */
+    private byte[] encoded;
+    /** Encoded segment wrapped once, as the receive loops do */
+    private ByteBuffer received;
+    /** Buffer the segment is encoded into */
+    private ByteBuffer buffer;
+    /** Decoder reused for every segment */
+    private PacketView view = new PacketView();
+    /** Packet reused for every decoded segment */
+    private Packet decoded = new Packet(0, 0, false, false, false, (short)0, new byte[Packet.MAX_DATA_LENGTH], null, 0);
+    /** Address of the sender */
+    private InetAddress address;
+    /** Port of the sender - part of the checksum */
+    private int port = 5000;
+
+    /** Builds the segment with random data and a timestamp, as the client sends it */
+    @Setup
+    public void setup() throws Exception{
+        byte[] data = new byte[this.size];
+        new Random(42).nextBytes(data);
+        this.address = InetAddress.getLoopbackAddress();
+        this.packet = new Packet(1000, 1, true, false, false, (short)2048, data, this.address, this.port);
+        this.packet.checksum_type = this.checksum.equals("crc32c") ? Packet.CHECKSUM_CRC32C : Packet.CHECKSUM_CRC16;
+        this.packet.timestamp = true;
+        this.packet.ts_val = 123456;
+        this.packet.ts_ecr = 654321;
+        this.encoded = this.packet.toByteArray();
+        this.received = ByteBuffer.wrap(this.encoded);
+        this.buffer = ByteBuffer.allocateDirect(Packet.getDatagramLength(this.size));
+    }
+
+    /** Encodes into a new array
+     *  @return encoded segment
+     */
+    @Benchmark
+    public byte[] toByteArray() throws Exception{
+        return this.packet.toByteArray();
+    }
+
+    /** Encodes into the reused direct buffer, as Application.transmit() does
+     *  @return number of bytes written
+     */
+    @Benchmark
+    public int encode() throws Exception{
+        this.buffer.clear();
+        return this.packet.encode(this.buffer);
+    }
+
+    /** Checks and decodes into a new Packet
+     *  @return decoded segment
+     */
+    @Benchmark
+    public Packet buildPacketFromByteArray() throws Exception{
+        return Packet.buildPacketFromByteArray(this.encoded, this.encoded.length, this.address, this.port);
+    }
+
+    /** Checks and decodes into the reused Packet, as Receiver.run() does
+     *  @return decoded segment
+     */
+    @Benchmark
+    public Packet decodeIntoPooled() throws Exception{
+        this.view.wrap(this.received, 0, this.encoded.length);
+        if(!this.view.isChecksumValid(this.port)) throw new Exception("Corrupted Packet");
+        this.decoded.set(this.view, this.address, this.port);
+        return this.decoded;
+    }
+}
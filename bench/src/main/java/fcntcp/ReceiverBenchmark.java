@@ -0,0 +1,73 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+package fcntcp;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Hand off of received packets from the Receiver to the application loop - a packet is taken from the pool,
+ *  offered to the Receiver, taken out with getPacket() and recycled. Measured on one thread, which is the cost of
+ *  the queue and the pool alone, and between a producer and a consumer thread like the Receiver thread and the
+ *  Client or Connection loop */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReceiverBenchmark{
+    /** Offers and takes one packet on the same thread
+     *  @param handoff Receiver and pool
+     *  @return packet that went through
+     */
+    @Benchmark
+    @Group("roundTrip")
+    @GroupThreads(1)
+    public Packet roundTrip(ReceiverHandoff handoff) throws Exception{
+        Packet pkt = handoff.pool.take();
+        handoff.receiver.offer(pkt);
+        Packet taken = handoff.receiver.getPacket();
+        handoff.receiver.recycle(taken);
+        return taken;
+    }
+
+    /** Producer side - the Receiver thread decodes into a pooled packet and offers it
+     *  @param handoff Receiver and pool
+     *  @param outcome Counters of the producer
+     *  @return true if the packet was queued
+     */
+    @Benchmark
+    @Group("spsc")
+    @GroupThreads(1)
+    public boolean offer(ReceiverHandoff handoff, HandoffCounters outcome){
+        Packet pkt = handoff.pool.take();
+        if(handoff.receiver.offer(pkt)) return true;
+        handoff.pool.recycle(pkt);
+        outcome.rejected++;
+        return false;
+    }
+
+    /** Consumer side - the application loop takes the packet and recycles it once it is processed
+     *  @param handoff Receiver and pool
+     *  @param outcome Counters of the consumer
+     *  @return packet taken, null if there was none
+     */
+    @Benchmark
+    @Group("spsc")
+    @GroupThreads(1)
+    public Packet getPacket(ReceiverHandoff handoff, HandoffCounters outcome) throws Exception{
+        Packet pkt = handoff.receiver.getPacket();
+        if(pkt == null) outcome.empty++;
+        else handoff.receiver.recycle(pkt);
+        return pkt;
+    }
+}
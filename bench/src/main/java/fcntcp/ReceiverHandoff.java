@@ -0,0 +1,28 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+package fcntcp;
+
+import java.util.concurrent.CountDownLatch;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Receiver and pool shared by the producer and the consumer of ReceiverBenchmark */
+@State(Scope.Group)
+public class ReceiverHandoff{
+    /** Receiver under test */
+    public Receiver receiver;
+    /** Pool the packets come from and go back to */
+    public PacketPool pool;
+
+    /** Makes a Receiver with the largest buffer so only the queue limits it */
+    @Setup(Level.Iteration)
+    public void setup(){
+        this.pool = new PacketPool(1024);
+        this.receiver = new Receiver(null, new CountDownLatch(1), true, this.pool);
+        this.receiver.setBufferSize(Receiver.MAX_BUFFER_SIZE);
+    }
+}
@@ -0,0 +1,86 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+package fcntcp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.InetAddress;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/** Client resends only what the network lost */
+public class RetransmissionTest{
+    /** Size of the file in bytes */
+    private static final int SIZE = 4 * 1024 * 1024;
+    /** Receive buffer of both sides in bytes */
+    private static final int BUFFER = 4 * 1024 * 1024;
+
+    /** Nothing is lost on a path with a 20ms delay each way, so almost nothing may be resent - duplicate ACKs of resent
+     *  segments used to set off fast retransmits of the same holes over and over */
+    @Test
+    public void losslessPathResendsLittle() throws Exception{
+        File input = File.createTempFile("fcntcp-retransmission", ".bin");
+        File output = File.createTempFile("fcntcp-retransmission", ".out");
+        input.deleteOnExit();
+        output.deleteOnExit();
+        byte[] data = new byte[SIZE];
+        new Random(42).nextBytes(data);
+        FileOutputStream out = new FileOutputStream(input);
+        try{
+            out.write(data);
+        }finally{
+            out.close();
+        }
+
+        final Server server = new Server(0, true, output, FileSink.SYNC_NEVER);
+        server.setReceiveBufferSize(BUFFER);
+        server.setTransport(delay(server.getTransport(), 1));
+        Client client = new Client(InetAddress.getLoopbackAddress(), server.getPort(), input, 1000, true);
+        client.setReceiveBufferSize(BUFFER);
+        client.setTransport(delay(client.getTransport(), 2));
+        Thread serverThread = new Thread("Server"){
+            public void run(){
+                try{
+                    server.start();
+                }catch(Exception e){
+                    e.printStackTrace();
+                }
+            }
+        };
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        try{
+            client.start();
+            long deadline = System.currentTimeMillis() + 5000;
+            while(server.getConnectionCount() != 0 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        }finally{
+            server.close();
+        }
+        serverThread.join(5000);
+        assertFalse(serverThread.isAlive(), "Server did not stop");
+        assertEquals(Utility.getFileHash(input), Utility.getFileHash(output), "File arrived damaged");
+
+        Metrics metrics = client.getMetrics();
+        double ratio = (double)metrics.getSegmentsRetransmitted() / metrics.getSegmentsSent();
+        assertTrue(ratio < 0.05, metrics.getSegmentsRetransmitted() + " of " + metrics.getSegmentsSent() + " segments were resent");
+    }
+
+    /** Puts a 20ms delay in front of the transport
+     *  @param transport Transport of one side
+     *  @param seed Seed of the emulator
+     *  @return emulator in front of the transport
+     */
+    private Transport delay(Transport transport, long seed){
+        NetworkEmulator emulator = new NetworkEmulator(transport);
+        emulator.setSeed(seed);
+        emulator.configure("delay=20ms");
+        return emulator;
+    }
+}
@@ -0,0 +1,114 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+package fcntcp;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.net.InetAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+/** Batched packets go out as they were added */
+public class SendBatchTest{
+    /** Address of the sender - part of the checksum */
+    private InetAddress address = InetAddress.getLoopbackAddress();
+    /** Port of the sender - part of the checksum */
+    private int port = 5000;
+
+    /** Pure ACK between two data segments of the same buffer reuses the slot without breaking the cached view */
+    @Test
+    public void pureAckBetweenDataSegments() throws Exception{
+        byte[] file = new byte[4096];
+        for(int i = 0; i < file.length; i++) file[i] = (byte)i;
+        ByteBuffer window = ByteBuffer.wrap(file);
+        SendBatch batch = new SendBatch(1);
+        ArrayList<byte[]> datagrams = new ArrayList<byte[]>();
+        Transport transport = recordTo(datagrams);
+
+        batch.add(data(100, window, 0, 500));
+        batch.flush(transport);
+        batch.add(new Packet(600, 1, true, false, false, (short)2048, null, this.address, this.port));
+        batch.flush(transport);
+        batch.add(data(600, window, 500, 500));
+        batch.flush(transport);
+
+        assertEquals(3, datagrams.size());
+        assertArrayEquals(Arrays.copyOfRange(file, 0, 500), decode(datagrams.get(0)).data);
+        assertEquals(0, decode(datagrams.get(1)).getDataLength());
+        assertArrayEquals(Arrays.copyOfRange(file, 500, 1000), decode(datagrams.get(2)).data);
+    }
+
+    /** Segment with its own array between two segments of the same buffer */
+    @Test
+    public void arrayDataBetweenBufferSegments() throws Exception{
+        byte[] file = new byte[4096];
+        for(int i = 0; i < file.length; i++) file[i] = (byte)(i * 7);
+        ByteBuffer window = ByteBuffer.wrap(file);
+        byte[] own = { 1, 2, 3, 4 };
+        SendBatch batch = new SendBatch(1);
+        ArrayList<byte[]> datagrams = new ArrayList<byte[]>();
+        Transport transport = recordTo(datagrams);
+
+        batch.add(data(100, window, 0, 300));
+        batch.flush(transport);
+        batch.add(new Packet(400, 1, true, false, false, (short)2048, own, this.address, this.port));
+        batch.flush(transport);
+        batch.add(data(404, window, 300, 300));
+        batch.flush(transport);
+
+        assertArrayEquals(own, decode(datagrams.get(1)).data);
+        assertArrayEquals(Arrays.copyOfRange(file, 300, 600), decode(datagrams.get(2)).data);
+    }
+
+    /** Makes a data segment viewing the buffer
+     *  @param seq Sequence number
+     *  @param payload Buffer with the data
+     *  @param offset Offset of the data in the buffer
+     *  @param length Length of the data
+     *  @return packet
+     */
+    private Packet data(int seq, ByteBuffer payload, int offset, int length){
+        Packet packet = new Packet(seq, 1, true, false, false, (short)2048, null, this.address, this.port);
+        packet.setPayload(payload, offset, length);
+        return packet;
+    }
+
+    /** Checks and decodes a datagram
+     *  @param datagram Datagram
+     *  @return packet
+     */
+    private Packet decode(byte[] datagram) throws Exception{
+        return Packet.buildPacketFromByteArray(datagram, datagram.length, this.address, this.port);
+    }
+
+    /** Makes a transport that keeps a copy of every datagram
+     *  @param datagrams List the datagrams are added to, in order
+     *  @return transport
+     */
+    private Transport recordTo(final ArrayList<byte[]> datagrams){
+        return new Transport(){
+            public void send(ByteBuffer datagram, SocketAddress target){
+                byte[] data = new byte[datagram.remaining()];
+                datagram.get(data);
+                datagrams.add(data);
+            }
+
+            public void write(ByteBuffer[] datagram){
+                int length = 0;
+                for(ByteBuffer buffer : datagram) length += buffer.remaining();
+                ByteBuffer data = ByteBuffer.allocate(length);
+                for(ByteBuffer buffer : datagram) data.put(buffer);
+                datagrams.add(data.array());
+            }
+
+            public void close(){
+            }
+        };
+    }
+}
@@ -0,0 +1,46 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+package fcntcp;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+/** Timers of the shared TimerWheel expire on time */
+public class TimerWheelTest{
+    /** Timer armed after the wheel sat empty for longer than a rotation expires on time, not rotations late */
+    @Test
+    public void timerAfterIdleExpiresOnTime() throws Exception{
+        TimerWheel.getShared();
+        Thread.sleep(1500);
+
+        CountDownLatch cdl = new CountDownLatch(1);
+        long start = System.nanoTime();
+        new Timeout(cdl, 5).start();
+        assertTrue(cdl.await(2, TimeUnit.SECONDS), "Timer did not expire");
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        assertTrue(elapsed < 200, "5ms timer expired after " + elapsed + "ms");
+    }
+
+    /** Timers spread over several rotations each expire no sooner than armed for and not much later */
+    @Test
+    public void timersExpireAfterTheirDuration() throws Exception{
+        int[] durations = { 1, 20, 511, 513, 1100 };
+        CountDownLatch[] latches = new CountDownLatch[durations.length];
+        long start = System.nanoTime();
+        for(int i = 0; i < durations.length; i++){
+            latches[i] = new CountDownLatch(1);
+            new Timeout(latches[i], durations[i]).start();
+        }
+        for(int i = 0; i < durations.length; i++){
+            assertTrue(latches[i].await(durations[i] + 1000, TimeUnit.MILLISECONDS), durations[i] + "ms timer did not expire");
+            long elapsed = (System.nanoTime() - start) / 1000000;
+            assertTrue(elapsed >= durations[i], durations[i] + "ms timer expired after " + elapsed + "ms");
+            assertTrue(elapsed < durations[i] + 200, durations[i] + "ms timer expired after " + elapsed + "ms");
+        }
+    }
+}
@@ -2,13 +2,22 @@
  * CSCI-651-03
  * Project 2
  */
+import java.io.IOException;
 import java.util.concurrent.CountDownLatch;
-import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 
 /** Convenience abstract class that shares similar features in Server and Client classes */
 public abstract class Application{
-    /** Default Timeout */
+    /** Smallest margin of the retransmission timeout over the smoothed round trip time in milliseconds (Linux's
+     *  rto_min) - on a steady path the variance drops to nothing, the margin still covers the peer's delayed ACKs
+     *  and scheduling jitter */
+    public static final int MIN_TIMEOUT = 200;
+
+    /** Default Timeout - also the largest timeout */
     protected int defaulttimeout;
     /** Timeout value */
     protected volatile int timeout;
@@ -24,29 +33,203 @@ public abstract class Application{
     protected int port;
     /** Mailbox to send or receive packets */
     protected DatagramSocket mailbox;
+    /** Channel behind the mailbox - packets are sent through it */
+    protected DatagramChannel channel;
+    /** Way out for the packets - the channel itself unless something like the NetworkEmulator is put in front */
+    protected Transport transport;
+    /** Address and port packets are sent to */
+    protected InetSocketAddress destination;
+    /** Buffer the outgoing packets are encoded into - reused for every packet */
+    protected ByteBuffer sendBuffer = ByteBuffer.allocateDirect(Packet.MAX_DATAGRAM_LENGTH);
+    /** Packets waiting to be sent with flush(), null to send every packet right away - needs a connected channel */
+    protected SendBatch batch = null;
+    /** Time the timer expires in nanoseconds, -1 if no timer is armed - used only by EventLoop */
+    protected long deadline = -1;
+    /** Counters of the Application, see Metrics */
+    protected Metrics metrics = new Metrics(this);
+    /** Id of the Application in the trace, 0 if tracing is off */
+    protected int trace_id = 0;
     /** State of the Application */
     protected FSM state = FSM.CLOSED;
 
     // TCP control
     protected int seq_num = 0;
     protected int ack_num = 0;
-    protected int last_time = 0;
+    protected long last_time = -1;
 
     //File control
     protected int file_seq_offset = -1;
 
-    // Round Trip Time
-    protected double estimatedRTT = (0.125 * this.defaulttimeout);
-    protected double devRTT = 0.25 * Math.abs(this.defaulttimeout - this.estimatedRTT);
+    // Round Trip Time in microseconds - srtt is -1 until the first sample
+    protected long srtt = -1;
+    protected long rttvar = 0;
+
+    // Timestamps - enabled when both sides send the timestamp option on SYN, ts_recent is echoed back
+    protected boolean timestamps_enabled = false;
+    protected int ts_recent = 0;
 
     // Fast retransmit
     protected int last_ack = 0;
 
+    // Selective acknowledgement - enabled when both sides permit SACK on SYN
+    protected boolean sack_enabled = false;
+
+    // Checksum type for packets other than SYN - agreed on SYN
+    protected byte checksum_type = Packet.CHECKSUM_CRC16;
+
+    // Window scaling - enabled when both sides send the window scale option on SYN
+    protected boolean window_scaled = false;
+    protected int window_shift = 0;
+    protected int peer_window_shift = 0;
+
+    // Maximum segment size - mss is the largest segment this side takes, send_mss is agreed on SYN
+    protected int mss = Packet.MAX_DATA_LENGTH;
+    protected int send_mss = Packet.MAX_DATA_LENGTH;
+
+    /** Processes the packet assuming that it passed the checksum test
+     *  @param packet Packet to be processed
+     *  @return Time out duration, 0 to time out right away, -1 when finished, -2 to wait without a timeout
+     */
+    public abstract int processPacket(Packet packet) throws Exception;
+
+    /** Process the time out call
+     *  @return Time out duration, 0 to time out right away, -1 when finished, -2 to wait without a timeout
+     */
+    public abstract int processTimeout() throws Exception;
+
+    /** Wraps up after the last packet or time out, called once */
+    public abstract void finish() throws Exception;
+
+    /** Sets the size of the receive buffer, must be called before start(). Window scale shift is picked so
+     *  the whole buffer can be advertised, the socket buffer is grown to hold it
+     *  @param size Size of the receive buffer in bytes, up to Receiver.MAX_BUFFER_SIZE
+     */
+    public void setReceiveBufferSize(int size) throws IOException{
+        receiver.setBufferSize(size);
+        this.window_shift = 0;
+        while((size >> this.window_shift) > 0xFFFF && this.window_shift < Packet.MAX_WINDOW_SCALE) this.window_shift++;
+        growSocketBuffer(size);
+    }
+
+    /** Grows the receive buffer of the socket toward the window, otherwise most of a full window from the peer is
+     *  dropped by the kernel. Warns if the kernel caps it below the window
+     *  @param size Size of the window in bytes
+     */
+    protected void growSocketBuffer(int size) throws IOException{
+        if(channel.getOption(StandardSocketOptions.SO_RCVBUF) >= size) return;
+        channel.setOption(StandardSocketOptions.SO_RCVBUF, size);
+        int socketBuffer = channel.getOption(StandardSocketOptions.SO_RCVBUF);
+        if(socketBuffer < size) System.err.println("Warning: Socket receive buffer is capped at " + socketBuffer + " bytes, below the window of " + size + " bytes - raise net.core.rmem_max");
+    }
+
+    /** Sets the maximum segment size offered on SYN, must be called before start(). Send and receive buffers
+     *  are resized to fit the largest datagram, receive buffer is grown to hold at least 4 segments
+     *  @param mss Maximum segment size, up to Packet.MAX_MSS
+     */
+    public void setMSS(int mss) throws IOException{
+        this.mss = mss;
+        this.sendBuffer = ByteBuffer.allocateDirect(Packet.getDatagramLength(mss));
+        receiver.setDatagramLength(Packet.getDatagramLength(mss));
+        if(receiver.getBufferSize() < 4 * mss) setReceiveBufferSize(4 * mss);
+
+        // Socket must hold a few of the largest datagrams
+        int socketBuffer = 4 * Packet.getDatagramLength(mss);
+        if(channel.getOption(StandardSocketOptions.SO_RCVBUF) < socketBuffer) channel.setOption(StandardSocketOptions.SO_RCVBUF, socketBuffer);
+        if(channel.getOption(StandardSocketOptions.SO_SNDBUF) < socketBuffer) channel.setOption(StandardSocketOptions.SO_SNDBUF, socketBuffer);
+    }
+
+    /** Gets the window to advertise - the free receive buffer, scaled down if window scaling is in use
+     *  @param syn_bit True if the window goes on SYN, window on SYN is never scaled
+     *  @return window for the header
+     */
+    protected short getWindow(boolean syn_bit) throws InterruptedException{
+        int window = receiver.getAvailableBuffer();
+        if(!syn_bit && this.window_scaled) window >>= this.window_shift;
+        return (short)Math.min(window, 0xFFFF);
+    }
+
+    /** Reads the peer's window from the header
+     *  @param packet Received packet
+     *  @return window in bytes
+     */
+    protected int getPeerWindow(Packet packet){
+        int window = packet.window & 0xFFFF;
+        if(!packet.syn_bit && this.window_scaled) window <<= this.peer_window_shift;
+        return window;
+    }
+
+    /** Sets how the loop waits for packets, must be called before start()
+     *  @param waitStrategy Receiver.WAIT_PARK, Receiver.WAIT_YIELD or Receiver.WAIT_SPIN
+     */
+    public void setWaitStrategy(int waitStrategy){
+        receiver.setWaitStrategy(waitStrategy);
+    }
+
+    /** Sets the transport the packets are sent through, must be called before start()
+     *  @param transport Transport in front of the channel, like the NetworkEmulator
+     */
+    public void setTransport(Transport transport){
+        this.transport = transport;
+    }
+
+    /** Gets the transport the packets are sent through
+     *  @return transport
+     */
+    public Transport getTransport(){
+        return this.transport;
+    }
+
+    /** Encodes the packet into the send buffer and sends it to the destination
+     *  @param packet Packet to be sent
+     */
+    protected void transmit(Packet packet) throws IOException{
+        metrics.segmentSent();
+        Trace.record(this.trace_id, Trace.SEND, packet, packet.window & 0xFFFF);
+
+        // Batched packets go out together once the events are processed
+        if(this.batch != null){
+            if(batch.isFull()) flush();
+            batch.add(packet);
+            return;
+        }
+
+        sendBuffer.clear();
+        packet.encode(sendBuffer);
+        sendBuffer.flip();
+
+        // Non-blocking channel drops the packet if the socket buffer is full, just like the network would
+        transport.send(sendBuffer, destination);
+    }
+
+    /** Gets the congestion window for the metrics
+     *  @return congestion window in bytes, -1 if this side doesn't send data
+     */
+    public int getCongestionWindow(){
+        return -1;
+    }
+
+    /** Gets the latest receive window advertised by the receiving side for the metrics
+     *  @return window in bytes
+     */
+    public abstract int getAdvertisedWindow();
+
+    /** Gets the counters of the Application
+     *  @return metrics
+     */
+    public Metrics getMetrics(){
+        return this.metrics;
+    }
+
+    /** Sends the batched packets, must be called once the events are processed */
+    public void flush() throws IOException{
+        if(this.batch != null && batch.size() != 0) batch.flush(transport);
+    }
+
     /** Convenience method for verbose mode - if quiet is set to false, this method will print amessage with newline appended
      *  @param Message to be printed appended with a newline
      */
     protected void println(String message){
-        print(message + "\n");
+        if(!quiet) System.out.println(message);
     }
 
     /** Convenience method for verbose mode - if quiet is set to false, this method will print a message
@@ -64,23 +247,71 @@ public abstract class Application{
         return (int)(System.nanoTime()/1000000);
     }
 
-    /** Method that recalculates Round Trip Time with a sample round trip time to find optimal timeout duration
-     *  @param sampleRTT sample round trip time time in Milliseconds
+    /** Convenience method to get System's time in Microseconds - for round trip times and timestamps
+     *  @return System's time in Microseconds
+     */
+    protected long getMicroTime(){
+        return System.nanoTime() / 1000;
+    }
+
+    /** Method that recalculates Round Trip Time with a sample round trip time to find optimal timeout duration - RFC 6298
+     *  @param sampleRTT sample round trip time in Microseconds, negative samples are ignored
      */
-    protected void recalculateRTT(int sampleRTT){
-        // Calculate RTT
-        this.estimatedRTT = (0.875 * this.estimatedRTT + (0.125 * sampleRTT));
-        this.devRTT = 0.75 * this.devRTT + 0.25 * Math.abs(sampleRTT - this.estimatedRTT);
-        int RTT = (int)Math.ceil(estimatedRTT + 4 * devRTT);
+    protected void recalculateRTT(long sampleRTT){
+        if(sampleRTT < 0) return;
 
-        // Don't want to have duration be higher than defaulttimeout
-        this.timeout = Math.min(RTT, this.defaulttimeout);
+        // Calculate RTT - first sample sets the estimate
+        if(this.srtt < 0){
+            this.srtt = sampleRTT;
+            this.rttvar = sampleRTT / 2;
+        }else{
+            this.rttvar = (3 * this.rttvar + Math.abs(this.srtt - sampleRTT)) / 4;
+            this.srtt = (7 * this.srtt + sampleRTT) / 8;
+        }
+        long RTO = this.srtt + Math.max(MIN_TIMEOUT * 1000L, 4 * this.rttvar);
+
+        // Keep the duration between MIN_TIMEOUT and defaulttimeout
+        this.timeout = clampTimeout((RTO + 999) / 1000);
+        metrics.rtt(sampleRTT, this.timeout);
 
         // Verbose message
-        println("#\n################ RTT ################\n## estimatedRTT: "
-            + this.estimatedRTT + "\n## devRTT:       "
-            + this.devRTT + "\n## sampleRTT: "
-            + sampleRTT + "ms\tresult: "
-            + RTT + "ms\n#####################################");
+        if(!quiet) println("#\n################ RTT ################\n## srtt:   "
+            + this.srtt + "us\n## rttvar: "
+            + this.rttvar + "us\n## sampleRTT: "
+            + sampleRTT + "us\tresult: "
+            + this.timeout + "ms\n#####################################");
+    }
+
+    /** Doubles the timeout after a retransmission, it stays backed off until the next round trip time sample */
+    protected void backoffTimeout(){
+        this.timeout = clampTimeout(2L * this.timeout);
+        metrics.rto(this.timeout);
+    }
+
+    /** Keeps the timeout between MIN_TIMEOUT and defaulttimeout
+     *  @param timeout Timeout in milliseconds
+     *  @return clamped timeout in milliseconds
+     */
+    protected int clampTimeout(long timeout){
+        timeout = Math.min(timeout, this.defaulttimeout);
+        return (int)Math.max(timeout, Math.min(MIN_TIMEOUT, this.defaulttimeout));
+    }
+
+    /** Stamps the packet with the time it's sent, the timestamp option goes on the wire if it was agreed on SYN
+     *  @param packet Packet to be sent
+     */
+    protected void setTimestamp(Packet packet){
+        packet.ts_val = (int)getMicroTime();
+        packet.timestamp = this.timestamps_enabled;
+        packet.ts_ecr = this.timestamps_enabled ? this.ts_recent : 0;
+    }
+
+    /** Gets the round trip time from the echoed timestamp
+     *  @param packet Received packet
+     *  @return round trip time in microseconds, -1 if the packet has no echo
+     */
+    protected long getEchoRTT(Packet packet){
+        if(!this.timestamps_enabled || !packet.timestamp || packet.ts_ecr == 0) return -1;
+        return (int)getMicroTime() - packet.ts_ecr;
     }
 }
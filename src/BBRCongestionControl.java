@@ -0,0 +1,232 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+
+/** BBR-style congestion control - models the path instead of reacting to losses. The bottleneck bandwidth is the
+ *  highest delivery rate seen in the last rounds, the propagation delay is the lowest round trip time seen in
+ *  the last 10 seconds, and the window is kept at twice their product. Starts by doubling the rate every round
+ *  until the bandwidth stops growing, drains the queue it built, then cycles the rate around the bandwidth to
+ *  probe for more */
+public class BBRCongestionControl implements CongestionControl{
+    /** Gain that doubles the delivery rate every round - 2/ln(2) */
+    private static final double STARTUP_GAIN = 2.885;
+    /** Gain of the window while probing the bandwidth */
+    private static final double CWND_GAIN = 2.0;
+    /** Pacing gains cycled through while probing the bandwidth, one per round */
+    private static final double[] PROBE_GAINS = {1.25, 0.75, 1, 1, 1, 1, 1, 1};
+    /** Number of rounds the bandwidth samples are kept */
+    private static final int BW_WINDOW = 10;
+    /** Time the lowest round trip time is trusted for in nanoseconds */
+    private static final long MIN_RTT_EXPIRY = 10000000000L;
+    /** Time spent with a small window to measure the round trip time in nanoseconds */
+    private static final long PROBE_RTT_TIME = 200000000L;
+
+    /** Filling the pipe */
+    private static final int STARTUP = 0;
+    /** Emptying the queue built during startup */
+    private static final int DRAIN = 1;
+    /** Cycling the rate around the bandwidth */
+    private static final int PROBE_BW = 2;
+    /** Shrinking the window to see the propagation delay */
+    private static final int PROBE_RTT = 3;
+
+    /** Maximum segment size */
+    private int mss = Packet.MAX_DATA_LENGTH;
+    /** Congestion window in bytes */
+    private int cwnd = 4 * Packet.MAX_DATA_LENGTH;
+    /** Current state */
+    private int state = STARTUP;
+    /** Current pacing gain */
+    private double pacing_gain = STARTUP_GAIN;
+    /** Current window gain */
+    private double cwnd_gain = STARTUP_GAIN;
+    /** Position in PROBE_GAINS */
+    private int cycle = 0;
+
+    /** Delivery rate of each of the last rounds in bytes per second */
+    private double[] bw_samples = new double[BW_WINDOW];
+    /** Number of completed rounds */
+    private long rounds = 0;
+    /** Bytes delivered since the start */
+    private long delivered = 0;
+    /** Round ends when this many bytes are delivered */
+    private long round_end = 0;
+    /** Bytes delivered when the round started */
+    private long round_delivered = 0;
+    /** Time the round started in nanoseconds */
+    private long round_time = 0;
+
+    /** Lowest round trip time in microseconds, -1 if there's no sample yet */
+    private long min_rtt = -1;
+    /** Time the lowest round trip time was seen in nanoseconds */
+    private long min_rtt_time = 0;
+    /** Time PROBE_RTT ends in nanoseconds */
+    private long probe_rtt_end = 0;
+
+    /** Duplicate ACKs below this sequence number belong to a loss already seen */
+    private int recover = 0;
+
+    /** Bandwidth that the next rounds of startup must beat by 25% */
+    private double full_bw = 0;
+    /** Rounds of startup without 25% more bandwidth - the pipe is full after 3 */
+    private int full_bw_rounds = 0;
+
+    /** Sets the segment size
+     *  @param mss Maximum segment size
+     */
+    public void setMSS(int mss){
+        this.cwnd = (int)Math.max(4L * mss, (long)this.cwnd * mss / this.mss);
+        this.mss = mss;
+    }
+
+    /** Gets the congestion window
+     *  @return number of bytes that may be unacknowledged
+     */
+    public int getWindow(){
+        return this.cwnd;
+    }
+
+    /** Gets the bottleneck bandwidth estimate
+     *  @return highest delivery rate of the last rounds in bytes per second
+     */
+    public double getBandwidth(){
+        double bw = 0;
+        for(int i = 0; i < BW_WINDOW; i++) bw = Math.max(bw, bw_samples[i]);
+        return bw;
+    }
+
+    /** Gets the pacing rate - the bandwidth times the gain of the state, the window over the round trip until
+     *  there's a bandwidth sample
+     *  @param rtt Smoothed round trip time in microseconds
+     *  @return bytes per second the segments should be sent at, 0 if there's no estimate yet
+     */
+    public double getPacingRate(long rtt){
+        double bw = getBandwidth();
+        if(bw > 0) return this.pacing_gain * bw;
+        if(rtt <= 0) return 0;
+        return this.pacing_gain * this.cwnd * 1e6 / rtt;
+    }
+
+    /** Gets the bandwidth-delay product
+     *  @return bytes the path holds, 0 if there's no estimate yet
+     */
+    private long getBDP(){
+        if(this.min_rtt < 0) return 0;
+        return (long)(getBandwidth() * this.min_rtt / 1e6);
+    }
+
+    /** Updates the path model and the window
+     *  @param ack_num Acknowledgement number
+     *  @param acked Number of newly acknowledged bytes
+     *  @param rtt Round trip time sample in microseconds, -1 if there's no sample
+     *  @param in_flight Number of bytes still unacknowledged
+     */
+    public void onAck(int ack_num, int acked, long rtt, int in_flight){
+        long now = System.nanoTime();
+        this.delivered += acked;
+
+        // Propagation delay
+        if(rtt >= 0 && (this.min_rtt < 0 || rtt <= this.min_rtt || now - this.min_rtt_time > MIN_RTT_EXPIRY)){
+            if(this.min_rtt >= 0 && now - this.min_rtt_time > MIN_RTT_EXPIRY && this.state == PROBE_BW){
+                // Estimate is stale, shrink the window for a while to see the path without our queue
+                this.state = PROBE_RTT;
+                this.probe_rtt_end = now + PROBE_RTT_TIME;
+                this.pacing_gain = 1;
+            }
+            this.min_rtt = rtt;
+            this.min_rtt_time = now;
+        }
+
+        // Delivery rate is sampled once per round - a round ends when what was in flight at its start is delivered
+        if(this.round_time == 0){
+            this.round_time = now;
+            this.round_delivered = this.delivered - acked;
+            this.round_end = this.delivered + in_flight;
+        }else if(this.delivered >= this.round_end && now > this.round_time){
+            double rate = (this.delivered - this.round_delivered) * 1e9 / (now - this.round_time);
+            bw_samples[(int)(this.rounds % BW_WINDOW)] = rate;
+            this.rounds++;
+            this.round_time = now;
+            this.round_delivered = this.delivered;
+            this.round_end = this.delivered + in_flight;
+            onRound(in_flight);
+        }
+
+        // Drain ends when the queue is gone
+        if(this.state == DRAIN && in_flight <= getBDP()) enterProbeBW();
+
+        // PROBE_RTT ends after a while
+        if(this.state == PROBE_RTT && now >= this.probe_rtt_end){
+            this.min_rtt_time = now;
+            enterProbeBW();
+        }
+
+        // Window follows the model, grows like slow start until the pipe is full or after a time out
+        long target = Math.max((long)(this.cwnd_gain * getBDP()), 4L * this.mss);
+        if(this.state == PROBE_RTT) this.cwnd = (int)Math.min(this.cwnd, 4L * this.mss);
+        else if(this.state == STARTUP || getBDP() == 0) this.cwnd = (int)Math.min(this.cwnd + (long)acked, Integer.MAX_VALUE);
+        else this.cwnd = (int)Math.min(this.cwnd + (long)acked, target);
+    }
+
+    /** Moves the state machine at the end of a round
+     *  @param in_flight Number of bytes still unacknowledged
+     */
+    private void onRound(int in_flight){
+        if(this.state == STARTUP){
+            // Pipe is full when the bandwidth stops growing
+            double bw = getBandwidth();
+            if(bw >= this.full_bw * 1.25){
+                this.full_bw = bw;
+                this.full_bw_rounds = 0;
+            }else if(++this.full_bw_rounds >= 3){
+                this.state = DRAIN;
+                this.pacing_gain = 1 / STARTUP_GAIN;
+                this.cwnd_gain = STARTUP_GAIN;
+            }
+        }else if(this.state == PROBE_BW){
+            this.cycle = (this.cycle + 1) % PROBE_GAINS.length;
+            this.pacing_gain = PROBE_GAINS[this.cycle];
+        }
+    }
+
+    /** Starts cycling the rate around the bandwidth */
+    private void enterProbeBW(){
+        this.state = PROBE_BW;
+        this.cycle = 0;
+        this.pacing_gain = PROBE_GAINS[0];
+        this.cwnd_gain = CWND_GAIN;
+    }
+
+    /** Losses don't change the model, the window stays as it is - only the recovery point moves
+     *  @param ack_num Acknowledgement number that was duplicated
+     *  @param next_seq Sequence number of the next new segment
+     *  @param in_flight Number of bytes unacknowledged
+     */
+    public void onFastRetransmit(int ack_num, int next_seq, int in_flight){
+        this.recover = next_seq;
+    }
+
+    /** Drops the window to one segment, it grows back to the model with the next ACKs
+     *  @param next_seq Sequence number of the next new segment
+     *  @param in_flight Number of bytes unacknowledged
+     */
+    public void onTimeout(int next_seq, int in_flight){
+        this.cwnd = this.mss;
+        this.recover = next_seq;
+    }
+
+    /** Gets the recovery point
+     *  @return sequence number of the next new segment at the latest loss
+     */
+    public int getRecoveryPoint(){
+        return this.recover;
+    }
+
+    /** Gets the name of the algorithm
+     *  @return name of the algorithm
+     */
+    public String getName(){
+        return "bbr";
+    }
+}
@@ -0,0 +1,104 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/** Table driven CRC16 that gives the same result as the bit by bit CRC16 the packets always used. The CRC is
+ *  linear, so a step splits into the register's part and the byte's part and both come from tables. Eight bytes
+ *  are done at once with ten lookups (slicing-by-8) */
+public class CRC16{
+    /** Polynomial */
+    private static final int POLYNOMIAL = 0x8005;
+    /** DATA[k][b] - contribution of byte b followed by k more bytes */
+    private static final char[][] DATA = new char[8][256];
+    /** SHIFT[h] - register with high byte h after one byte */
+    private static final char[] SHIFT = new char[256];
+    /** SHIFT8_HIGH[h] - register with high byte h after eight bytes */
+    private static final char[] SHIFT8_HIGH = new char[256];
+    /** SHIFT8_LOW[l] - register with low byte l after eight bytes */
+    private static final char[] SHIFT8_LOW = new char[256];
+
+    static{
+        for(int b = 0; b < 256; b++){
+            DATA[0][b] = (char)updateBitwise(0, (byte)b);
+            SHIFT[b] = (char)updateBitwise(b << 8, (byte)0);
+        }
+        for(int k = 1; k < 8; k++) for(int b = 0; b < 256; b++) DATA[k][b] = (char)shift(DATA[k - 1][b], 1);
+        for(int b = 0; b < 256; b++){
+            SHIFT8_HIGH[b] = (char)shift(b << 8, 8);
+            SHIFT8_LOW[b] = (char)shift(b, 8);
+        }
+    }
+
+    /** Runs the register through zero bytes
+     *  @param crc CRC value
+     *  @param bytes number of zero bytes
+     *  @return CRC value
+     */
+    private static int shift(int crc, int bytes){
+        for(int i = 0; i < bytes; i++) crc = updateBitwise(crc, (byte)0);
+        return crc;
+    }
+
+    /** Runs the original bit by bit CRC16 over one byte - used to build the tables
+     *  @param crc CRC value to continue from
+     *  @param b byte to checksum
+     *  @return CRC value
+     */
+    public static int updateBitwise(int crc, byte b){
+        for(int j = 0x80; j != 0; j >>= 1){
+            if((crc & 0x8000) != 0)  crc = (char)((crc << 1) ^ POLYNOMIAL);
+            else crc = (char)(crc << 1);
+            if((b & j) != 0) crc ^= POLYNOMIAL;
+        }
+        return crc;
+    }
+
+    /** Runs CRC16 over the bytes
+     *  @param crc CRC value to continue from
+     *  @param bytes bytes to checksum
+     *  @param offset index of the first byte
+     *  @param length number of bytes to checksum
+     *  @return CRC value
+     */
+    public static int update(int crc, byte[] bytes, int offset, int length){
+        int i = offset;
+        int end = offset + length;
+        for(; i + 8 <= end; i += 8){
+            crc = SHIFT8_HIGH[crc >>> 8] ^ SHIFT8_LOW[crc & 0xFF]
+                ^ DATA[7][bytes[i] & 0xFF] ^ DATA[6][bytes[i + 1] & 0xFF]
+                ^ DATA[5][bytes[i + 2] & 0xFF] ^ DATA[4][bytes[i + 3] & 0xFF]
+                ^ DATA[3][bytes[i + 4] & 0xFF] ^ DATA[2][bytes[i + 5] & 0xFF]
+                ^ DATA[1][bytes[i + 6] & 0xFF] ^ DATA[0][bytes[i + 7] & 0xFF];
+        }
+        for(; i < end; i++) crc = ((crc & 0xFF) << 8) ^ SHIFT[crc >>> 8] ^ DATA[0][bytes[i] & 0xFF];
+        return crc;
+    }
+
+    /** Runs CRC16 over the bytes in the buffer, buffer's position is not changed
+     *  @param crc CRC value to continue from
+     *  @param buffer buffer with the bytes to checksum
+     *  @param offset index of the first byte in the buffer
+     *  @param length number of bytes to checksum
+     *  @return CRC value
+     */
+    public static int update(int crc, ByteBuffer buffer, int offset, int length){
+        if(buffer.hasArray()) return update(crc, buffer.array(), buffer.arrayOffset() + offset, length);
+        int i = offset;
+        int end = offset + length;
+        if(buffer.order() == ByteOrder.BIG_ENDIAN){
+            for(; i + 8 <= end; i += 8){
+                long l = buffer.getLong(i);
+                crc = SHIFT8_HIGH[crc >>> 8] ^ SHIFT8_LOW[crc & 0xFF]
+                    ^ DATA[7][(int)(l >>> 56)] ^ DATA[6][(int)(l >>> 48) & 0xFF]
+                    ^ DATA[5][(int)(l >>> 40) & 0xFF] ^ DATA[4][(int)(l >>> 32) & 0xFF]
+                    ^ DATA[3][(int)(l >>> 24) & 0xFF] ^ DATA[2][(int)(l >>> 16) & 0xFF]
+                    ^ DATA[1][(int)(l >>> 8) & 0xFF] ^ DATA[0][(int)l & 0xFF];
+            }
+        }
+        for(; i < end; i++) crc = ((crc & 0xFF) << 8) ^ SHIFT[crc >>> 8] ^ DATA[0][buffer.get(i) & 0xFF];
+        return crc;
+    }
+}
@@ -0,0 +1,40 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/** Transport that sends every datagram right away through the channel */
+public class ChannelTransport implements Transport{
+    /** Channel the datagrams are sent through */
+    private DatagramChannel channel;
+
+    /** Constructor for ChannelTransport
+     *  @param channel Channel the datagrams are sent through
+     */
+    public ChannelTransport(DatagramChannel channel){
+        this.channel = channel;
+    }
+
+    /** Sends a datagram
+     *  @param datagram Buffer with the datagram between its position and limit, the position is advanced past it
+     *  @param target Address and port the datagram is sent to
+     */
+    public void send(ByteBuffer datagram, SocketAddress target) throws IOException{
+        channel.send(datagram, target);
+    }
+
+    /** Sends a datagram gathered from several buffers to the address the channel is connected to
+     *  @param datagram Buffers with the parts of the datagram, in order
+     */
+    public void write(ByteBuffer[] datagram) throws IOException{
+        channel.write(datagram);
+    }
+
+    /** Nothing is held, the channel is closed by its owner */
+    public void close(){
+    }
+}
@@ -3,23 +3,26 @@
  * Project 2
  */
 import java.io.File;
-import java.io.RandomAccessFile;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.util.concurrent.CountDownLatch;
 import java.util.ArrayList;
+import java.util.HashSet;
 
 /** The Client aspect for File Transfer Application */
 public class Client extends Application{
     private InetAddress address;
     private File file;
-    private RandomAccessFile ra;
+    private FileSource source;
+    private String fileHash = null;
+    private byte[] fileDigest = null;
 
     // Congestation control
-    private int cwnd = 1;
+    private CongestionControl congestion = new RenoCongestionControl();
 
     // Used if timeout forgets if sender needs to ACK server's SYN bit
     private int server_pre_syn = 0;
@@ -31,12 +34,59 @@ public class Client extends Application{
     private int lengthWrite = 0;
 
     // Congestation control
-    private short server_available_buffer = (short)1000;
-    private int bytes_in_flight = 0;
+    private int server_available_buffer = 1000;
 
     // Fast retransmit
     private int number_of_acks = 0;
 
+    // Alternate checksum to ask the server for
+    private byte checksum_option = Packet.CHECKSUM_CRC16;
+
+    // Path MTU probing - segments between send_mss and probe_high are tried one at a time
+    private static final int MAX_PROBES = 3;
+    private static final int PROBE_GRANULARITY = 64;
+    private boolean mtu_probing = false;
+    private int probe_high = 0;
+    private int probe_seq = -1;
+    private int probe_failures = 0;
+
+    // Pacing - segments of the window are spread over the round trip, the timer wakes the sender up for the next ones
+    private Pacer pacer = new Pacer();
+    private boolean pacing = true;
+    private boolean pacing_blocked = false;
+    private boolean paced = false;
+
+    // Timestamps are offered on SYN, without them Karn's rule skips the round trip time of everything sent before retransmit_end
+    private boolean timestamps_permitted = true;
+    private int retransmit_end = 0;
+
+    // Byte range of the file when it's sent over several connections, stream_count is 0 if the whole file is sent
+    private int stream_id = 0;
+    private int stream_index = 0;
+    private int stream_count = 0;
+    private long stream_offset = 0;
+
+    // End of the highest segment sent (snd_max), segments below it are retransmissions and ACKs above it are bogus
+    private int sent_high = 0;
+
+    // Congestion window last written to the trace
+    private int traced_cwnd = -1;
+
+    // Selective acknowledgement
+    private boolean sack_permitted = true;
+    private HashSet<Integer> sacked = new HashSet<Integer>();
+
+    // Loss recovery - packets below lost_end that were not SACKed are lost, the ones below high_rxt were already resent (RFC 6675 HighRxt)
+    private int lost_end = 0;
+    private int high_rxt = 0;
+
+    // Time of the latest ACK of new data, the retransmission timer restarts with it
+    private int ack_time = 0;
+
+    // Time of the latest time out in microseconds until the next ACK of new data, -1 if there's none - an ACK that
+    // echoes an earlier time shows the time out was spurious (Eifel, RFC 3522)
+    private long rto_time = -1;
+
     /** Constructor for Client
      *  @param address  Destination address
      *  @param port     Destination port
@@ -47,37 +97,131 @@ public class Client extends Application{
     public Client(InetAddress address, int port, File file, int timeout, boolean quiet) throws IOException{
         this.address = address;
         this.port = port;
+        this.destination = new InetSocketAddress(address, port);
         this.file = file;
         this.defaulttimeout = timeout;
         this.quiet = quiet;
-        this.ra = new RandomAccessFile(file, "r");
-        this.mailbox = new DatagramSocket();
+        this.source = new FileSource(file);
+        this.channel = DatagramChannel.open();
+        this.channel.bind(null);
+        this.channel.connect(this.destination);
+        this.transport = new ChannelTransport(this.channel);
+        this.batch = new SendBatch(SendBatch.DEFAULT_SIZE);
+        this.mailbox = channel.socket();
         this.cdl = new CountDownLatch(1);
         this.receiver = new Receiver(mailbox, cdl, quiet);
     }
 
+    /** Permits or forbids selective acknowledgement, must be called before start()
+     *  @param sack_permitted True to offer SACK to the server on SYN, otherwise false
+     */
+    public void setSACKPermitted(boolean sack_permitted){
+        this.sack_permitted = sack_permitted;
+    }
+
+    /** Permits or forbids the timestamp option, must be called before start()
+     *  @param timestamps_permitted True to offer timestamps to the server on SYN, otherwise false
+     */
+    public void setTimestampsPermitted(boolean timestamps_permitted){
+        this.timestamps_permitted = timestamps_permitted;
+    }
+
+    /** Sets the checksum type to ask the server for on SYN, must be called before start()
+     *  @param checksum_option Packet.CHECKSUM_CRC16 or Packet.CHECKSUM_CRC32C
+     */
+    public void setChecksumType(byte checksum_option){
+        this.checksum_option = checksum_option;
+    }
+
+    /** Enables path MTU probing, must be called before start(). Transfer starts with the default segment size and
+     *  tries bigger segments up to the agreed maximum segment size, sizes that get lost are given up on
+     *  @param mtu_probing True to probe, otherwise false to send with the agreed maximum segment size right away
+     */
+    public void setMTUProbing(boolean mtu_probing){
+        this.mtu_probing = mtu_probing;
+    }
+
+    /** Sets the congestion control algorithm, must be called before start()
+     *  @param congestion Congestion control that decides how many bytes may be unacknowledged
+     */
+    public void setCongestionControl(CongestionControl congestion){
+        this.congestion = congestion;
+    }
+
+    /** Sets if the segments are spread over the round trip at the rate the congestion control gives, must be called before start()
+     *  @param pacing True to pace, otherwise false to send the window back to back
+     */
+    public void setPacing(boolean pacing){
+        this.pacing = pacing;
+    }
+
+    /** Sets the hard cap of the sending rate, must be called before start()
+     *  @param max_rate Most bytes per second that are ever sent, 0 for no cap
+     */
+    public void setMaxRate(long max_rate){
+        pacer.setMaxRate(max_rate);
+    }
+
+    /** Sends only one byte range of the file, must be called before start(). The server puts the ranges of all
+     *  connections with the same id back together
+     *  @param id Identifies the file among the transfers of this client
+     *  @param index Index of this connection
+     *  @param count Number of connections the file is sent over
+     *  @param offset Position of the range in the file
+     *  @param length Length of the range
+     */
+    public void setStream(int id, int index, int count, long offset, long length) throws Exception{
+        this.source.close();
+        this.source = new FileSource(this.file, offset, length);
+        this.stream_id = id;
+        this.stream_index = index;
+        this.stream_count = count;
+        this.stream_offset = offset;
+    }
+
+    /** Sets if the packets produced by a batch of events are sent together, must be called before start()
+     *  @param batching True to send them together with gather writes, otherwise false to send each packet right away
+     */
+    public void setBatching(boolean batching){
+        this.batch = batching ? new SendBatch(SendBatch.DEFAULT_SIZE) : null;
+    }
+
+    /** Gets the congestion window for the metrics
+     *  @return congestion window in bytes
+     */
+    public int getCongestionWindow(){
+        return congestion.getWindow();
+    }
+
+    /** Writes the congestion window to the trace if it changed since the last time */
+    private void traceWindow(){
+        if(!Trace.isEnabled() || congestion.getWindow() == this.traced_cwnd) return;
+        this.traced_cwnd = congestion.getWindow();
+        Trace.record(this.trace_id, Trace.CWND, this.seq_num, this.ack_num, lengthWrite, this.traced_cwnd);
+    }
+
+    /** Gets the latest receive window advertised by the server for the metrics
+     *  @return window in bytes
+     */
+    public int getAdvertisedWindow(){
+        return this.server_available_buffer;
+    }
+
     /** Main loop for the Client */
     public void start() throws SocketException, Exception{
-        // Publish the file's hash - if debugging is not enabled. If debugging is enabled, this line may get lost in many prints
-        if(quiet) System.out.println("MD5 hash of the file: " + Utility.getFileHash(this.file));
-
         // Start the receiver
         receiver.start();
 
-        println("\n################### Synchronization #########################\n");
-        this.timeout = this.defaulttimeout;
-
         // Send the SYN
-        timeoutthread = new Timeout(this.cdl, startSYN());
+        timeoutthread = new Timeout(this.cdl, open());
+        metrics.timerArmed();
+        flush();
         timeoutthread.start();
-        this.state = FSM.SYN;
-
-        //if(quiet) System.out.print("Transfer in progress...");
 
         // Process packets queue
         while(true){
             // Wait for anything from receiver or timeout
-            if(!receiver.hasPacket()) cdl.await();
+            receiver.awaitPacket();
 
             //println("$\n$ seq_num: " + seq_num + "\t ack_num: " + ack_num + "\n$");
 
@@ -85,7 +229,7 @@ public class Client extends Application{
             cdl = new CountDownLatch(1);
             receiver.setCountDownLatch(cdl);
 
-            // Clean up the timeout thread
+            // Cancel the timeout
             if(timeoutthread != null){
                 timeoutthread.interruptTime();
                 timeoutthread = null;
@@ -93,11 +237,22 @@ public class Client extends Application{
 
             // Check event
             int duration;
-            if(receiver.hasPacket()) duration = processPacket(receiver.getPacket()); // Received a packet
-            else duration = processTimeout(); // Timed out
+            if(receiver.hasPacket()){
+                // Received packets - every packet in the buffer is processed before the timer is set again, packets go back to the pool once they're processed
+                Packet pkt = receiver.getPacket();
+                do{
+                    duration = processPacket(pkt);
+                    receiver.recycle(pkt);
+                    if(duration == 0) duration = processTimeout();
+                }while(duration != -1 && (pkt = receiver.getPacket()) != null);
+            }else{
+                // Timed out
+                metrics.timerExpired();
+                duration = processTimeout();
+            }
 
             // Verbose message
-            if(duration != -1) println("Timeout set to: " + duration + "ms");
+            if(!quiet && duration != -1) println("Timeout set to: " + duration + "ms");
             else println("");
 
             // Set timeout
@@ -105,23 +260,91 @@ public class Client extends Application{
                 duration = processTimeout();
 
                 // Verbose message
-                println("Timeout set to: " + duration + "ms");
-            }else if(duration == -1L) break;
+                if(!quiet) println("Timeout set to: " + duration + "ms");
+            }
+
+            // Send the packets of every processed event together
+            flush();
+            if(duration == -1L) break;
 
             // Start the timeout
             timeoutthread = new Timeout(this.cdl, duration);
+            metrics.timerArmed();
             timeoutthread.start();
         }
+
+        finish();
+    }
+
+    /** Event loop for the Client - packets are received, processed and replied on this thread, no Receiver */
+    public void startEventLoop() throws Exception{
+        channel.configureBlocking(false);
+        EventLoop loop = new EventLoop(this.channel, null, quiet);
+        loop.setDatagramLength(Packet.getDatagramLength(this.mss));
+        loop.register(this.destination, this, open());
+        loop.run();
+    }
+
+    /** Opens the connection with SYN
+     *  @return Time out duration
+     */
+    public int open() throws Exception{
+        // Hash goes to the server on FIN - publish it if debugging is not enabled. If debugging is enabled, this line may get lost in many prints
+        String hash = getFileHash();
+        if(quiet && this.stream_count == 0) System.out.println("MD5 hash of the file: " + hash);
+
+        println("\n################### Synchronization #########################\n");
+        this.timeout = this.defaulttimeout;
+        metrics.register("Client", String.valueOf(channel.getLocalAddress()));
+        this.trace_id = Trace.register("Client " + channel.getLocalAddress());
+        receiver.setTraceId(this.trace_id);
+
+        // Send the SYN - timestamps are used until the server turns them down
+        this.timestamps_enabled = this.timestamps_permitted;
+        this.last_time = getMicroTime();
+        int duration = startSYN();
+        this.state = FSM.SYN;
+
+        //if(quiet) System.out.print("Transfer in progress...");
+        return duration;
+    }
+
+    /** Wraps up after the transfer */
+    public void finish() throws Exception{
         // Clean up
         this.cleanUp();
 
         println("\nStopping the client");
 
-        println("\nInput MD5 Hash: " + Utility.getFileHash(this.file));
+        if(!quiet && this.stream_count == 0) println("\nInput MD5 Hash: " + getFileHash());
         //if(quiet) System.out.print("\r                                  ");
         //if(quiet) System.out.print("\r");
     }
 
+    /** Gets the hash of the file, the file is hashed only once
+     *  @return hash digest
+     */
+    public String getFileHash() throws Exception{
+        if(this.fileHash == null) this.fileHash = Utility.getFileHash(this.file);
+        return this.fileHash;
+    }
+
+    /** Sets the hash of the whole file, must be called before start(). Streams of one file share the hash
+     *  instead of each hashing the file
+     *  @param fileHash MD5 hash of the file
+     */
+    public void setFileHash(String fileHash){
+        this.fileHash = fileHash;
+    }
+
+    /** Gets the MD5 of the whole file for the digest option
+     *  @return MD5 of the file
+     */
+    private byte[] getFileDigest() throws Exception{
+        if(this.fileDigest == null) this.fileDigest = Utility.hexToByteArray(getFileHash());
+        return this.fileDigest;
+    }
+
     /** Sends SYN message
      *  @return Time out duration
      */
@@ -133,10 +356,7 @@ public class Client extends Application{
         sendPacket(false, true, false, null);
 
         // Verbose message
-        println("# Time Out Duration: " + this.timeout);
-
-        // For RTT
-        this.last_time = getTime();
+        if(!quiet) println("# Time Out Duration: " + this.timeout);
 
         // Begin the timeout
         return this.timeout;
@@ -148,17 +368,23 @@ public class Client extends Application{
      */
     public int processGBNFileTransfer(boolean ack) throws Exception{
         // Find the remaining bytes in the file
-        long remaining = ra.length() - ra.getFilePointer();
+        long remaining = source.remaining();
 
-        //if(quiet) System.out.print("\rProgress: " + (int)(((ra.getFilePointer()*1.0)/ra.length())*100) + "%");
+        //if(quiet) System.out.print("\rProgress: " + (int)(((source.getFilePointer()*1.0)/source.length())*100) + "%");
 
-        println("# File Length remaining: " + remaining
+        if(!quiet) println("# File Length remaining: " + remaining
             + "\t unacked sent packets: " + packets.size()
-            + "  cwnd: " + cwnd
-            + "  packets to be sent: " + (cwnd - packets.size())
-            + "\n# bytes in flight: " + this.bytes_in_flight
+            + "  cwnd: " + congestion.getWindow() + " (" + congestion.getName() + ")"
+            + "\n# bytes in flight: " + lengthWrite
             + "\twindow: " + this.server_available_buffer
-            + "\tbytes_can_send: " + (this.server_available_buffer - lengthWrite - this.bytes_in_flight));
+            + "\tbytes_can_send: " + (this.server_available_buffer - lengthWrite));
+
+        // Rate follows the window and the round trip time
+        pacer.setRate(this.pacing ? congestion.getPacingRate(this.srtt) : 0, this.send_mss);
+        this.pacing_blocked = false;
+
+        // Lost packets go before new data, within the same window and pacing
+        resendLost(false);
 
         if(remaining == 0){
             print("#\n## GBN Finished reading! - ");
@@ -167,11 +393,7 @@ public class Client extends Application{
                 return -1;
             }else{
                 print("Not all packets are ACKED yet, wait for more ACKs - ");
-                int time = (int)(System.nanoTime()/1000000);
-                int comp = timeOfSend.get(0);
-                int result = (time - comp);
-                int timeoutdur = this.timeout - result;
-                return timeoutdur < 0 ? 0 : timeoutdur;
+                return getRemainingTimeout();
             }
         }
 
@@ -179,44 +401,54 @@ public class Client extends Application{
             //if(quiet) System.out.print("\r                                                       ");
             println("## Starting file transfer ##\n#");
             file_seq_offset = seq_num;
+            sent_high = seq_num;
         }
 
-        // Make and send packet for remaining CWND window
-        int packets_to_be_sent = cwnd - packets.size();
+        // Make and send packet for remaining CWND window - at least one segment when nothing is in flight
+        int pipe = getPipe();
+        int packets_to_be_sent = (congestion.getWindow() - pipe) / this.send_mss;
+        if(pipe == 0) packets_to_be_sent = Math.max(packets_to_be_sent, 1);
+        if(this.pacing_blocked) packets_to_be_sent = 0;
         for(int i = 0; i < packets_to_be_sent; i++){
-            // Congestation control
-            if(0 >= (this.server_available_buffer - lengthWrite - this.bytes_in_flight)){
+            // Flow control - unacked bytes must fit in the server's window
+            if(0 >= (this.server_available_buffer - lengthWrite)){
                 // Verbose message
                 println("# Server is too congested, stop sending packets and wait");
 
-                // Reduce the window
-                cwnd /= 2;
-                cwnd += cwnd == 0 ? 1 : 0;
-
                 // Double the timeout
-                this.timeout += this.timeout + ((this.timeout == 0) ? 2 : 0);
-                this.timeout = Math.min(this.timeout, this.defaulttimeout);
+                backoffTimeout();
                 break;
             }
 
-            // Build a buffer to hold data from file
-            int len = Math.min(Packet.MAX_DATA_LENGTH, (int)remaining);
+            // Cut the next segment from the mapped file - one segment at a time may probe a bigger size
+            int size = this.send_mss;
+            if(this.mtu_probing && this.probe_seq == -1 && this.probe_high - this.send_mss >= PROBE_GRANULARITY) size = (this.send_mss + this.probe_high + 1) / 2;
+            int len = (int)Math.min(size, remaining);
             len = Math.min(len, server_available_buffer - lengthWrite);
-            byte[] buffer = new byte[len];
+
+            // Pacing - the rest of the window waits for the pacing timer
+            if(!pacer.trySend(len)){
+                if(!quiet) println("# Pacing at " + (long)pacer.getRate() + " bytes/s, wait " + pacer.getDelay() + "ms for the next packet");
+                this.pacing_blocked = true;
+                break;
+            }
+            if(len > this.send_mss) this.probe_seq = this.seq_num + lengthWrite;
+            int offset = source.next(len);
 
             // Update the bytes read status
             int new_seq = this.seq_num + lengthWrite;
-            lengthWrite += ra.read(buffer);
-            remaining = ra.length() - ra.getFilePointer();
-            this.bytes_in_flight += lengthWrite;
+            lengthWrite += len;
+            remaining = source.remaining();
 
             // Send the packet
-            Packet packet = sendPacket(new_seq, this.ack_num, ack, false, false, buffer);
+            Packet packet = sendPacket(new_seq, this.ack_num, ack, source.getWindow(), offset, len);
 
             // Verbose message
-            print("# packet " + (i+1) + " out of " + packets_to_be_sent);
-            println("  ## SENDING PACKET ## seq: " + new_seq + "\tlength: " + packet.length + " fp: " + ra.getFilePointer()
-                + (remaining == 0 ? " Finished!" : ""));
+            if(!quiet){
+                print("# packet " + (i+1) + " out of " + packets_to_be_sent);
+                println("  ## SENDING PACKET ## seq: " + new_seq + "\tlength: " + packet.length + " fp: " + source.getFilePointer()
+                    + (remaining == 0 ? " Finished!" : ""));
+            }
 
             // Add to the unacked buffer
             packets.add(packet);
@@ -235,59 +467,124 @@ public class Client extends Application{
 
         // No packets may be sent due to congested server. Just wait then try again.
         // Next ACK packets or timeout will start the sending again
-        if(timeOfSend.size() == 0) return this.timeout;
+        return getRemainingTimeout();
+    }
 
-        // Return the timeout relative to the first unacked packet
-        int time = (int)(System.nanoTime()/1000000);
-        int comp = timeOfSend.get(0);
-        int result = (time - comp);
-        int timeoutdur = this.timeout - result;
-        timeoutdur = timeoutdur < 0 ? 0 : timeoutdur;
-        return timeoutdur;
+    /** Wakes the sender up earlier if the pacer held back segments that may go before the retransmission timeout
+     *  @param timeoutdur Retransmission timeout duration
+     *  @return timeout duration
+     */
+    private int getPacedTimeout(int timeoutdur){
+        this.paced = false;
+        if(!this.pacing_blocked || timeoutdur == 0) return timeoutdur;
+        int delay = pacer.getDelay();
+        if(delay >= timeoutdur) return timeoutdur;
+        this.paced = true;
+        return delay;
     }
 
     /** Method to handle acknowledgements in file transfer in Go-N-Back protocol style
      *  @param ack Recent packet acknowledgement number
+     *  @param echo_rtt Round trip time from the echoed timestamp in microseconds, -1 if there's no echo
      *  @return timeout duration
      */
-    public int acknowledgeGBNFileTransfer(int ack) throws Exception{
+    public int acknowledgeGBNFileTransfer(int ack, long echo_rtt) throws Exception{
         // Check if there's any packet to ack for
         if(packets.size() > 0){
             // Verbose message
-            println("# Unacked Packets: " + packets.size() + " top packet seq: " + packets.get(0).seq_num);
+            if(!quiet) println("# Unacked Packets: " + packets.size() + " top packet seq: " + packets.get(0).seq_num);
 
             // Check if this packet is anticipated
             int anticipated_seq = packets.get(0).length + this.seq_num;
 
-            print("#\n# Anticipated Ack Num: " + anticipated_seq + "\t");
+            if(!quiet) print("#\n# Anticipated Ack Num: " + anticipated_seq + "\t");
 
-            // Check if is anticipated
-            if(anticipated_seq == ack){
+            // Check if is anticipated - ACKs are cumulative, one ACK may cover several packets
+            if(ack >= anticipated_seq){
                 // Verbose message
                 println("In-order packet\n#");
 
-                //Increase window
-                cwnd++;
+                // End of the bytes in flight
+                int sent_end = this.seq_num + lengthWrite;
+
+                // Dequeue the window - every packet covered by the ACK
+                Packet last_acked = null;
+                while(packets.size() > 0 && packets.get(0).seq_num + packets.get(0).length <= ack){
+                    Packet acked = packets.remove(0);
+                    timeOfSend.remove(0);
+                    last_acked = acked;
+                    sacked.remove(acked.seq_num);
+
+                    // Probe got through, segments of its size are safe
+                    if(acked.seq_num == this.probe_seq){
+                        if(!quiet) println("# MTU probe of " + acked.length + " bytes got through");
+                        this.send_mss = Math.max(this.send_mss, acked.length);
+                        congestion.setMSS(this.send_mss);
+                        this.probe_seq = -1;
+                        this.probe_failures = 0;
+                    }
+
+                    // Adjust the length of unacked bytes
+                    lengthWrite -= acked.length;
+                }
 
-                // Recalculate RTT
-                recalculateRTT(getTime() - timeOfSend.get(0));
+                // Segment boundaries may change after a rewind, so the ACK can end in the middle of a segment - trim it
+                if(packets.size() > 0 && packets.get(0).seq_num < ack){
+                    Packet partial = packets.get(0);
+                    int acked = ack - partial.seq_num;
+                    sacked.remove(partial.seq_num);
+                    if(partial.seq_num == this.probe_seq) this.probe_seq = -1;
+                    partial.seq_num = ack;
+                    partial.payload_offset += acked;
+                    partial.length -= acked;
+                    lengthWrite -= acked;
+                }
 
-                // Adjust the length of unacked bytes
-                lengthWrite -= packets.get(0).length;
-                this.bytes_in_flight -= packets.get(0).length;
+                // Recalculate RTT - the echo times retransmitted segments too, without it Karn's rule skips them
+                long rtt = echo_rtt;
+                if(rtt < 0 && last_acked.seq_num + last_acked.length - this.retransmit_end > 0) rtt = (int)getMicroTime() - last_acked.ts_val;
+                recalculateRTT(rtt);
+
+                // Let the congestion control grow the window
+                congestion.onAck(ack, Math.min(ack, sent_end) - this.seq_num, rtt, lengthWrite);
+                Trace.record(this.trace_id, Trace.ACK, this.seq_num, ack, ack - this.seq_num, (int)rtt);
+                traceWindow();
+
+                // Server already has more than what was sent since the last rewind, skip ahead in the file - never past
+                // sent_high, ACKs beyond it are dropped before they get here
+                if(ack > sent_end){
+                    if(!quiet) println("# Server is ahead, skipping to " + ack);
+                    source.seek(ack - file_seq_offset);
+                    lengthWrite = 0;
+                }
 
                 // Advance the sequence number
+                metrics.delivered(ack - this.seq_num);
                 this.seq_num = ack;
+                this.ack_time = getTime();
+
+                // First ACK after a time out echoes a packet sent before it - the packets were only late, stop resending them
+                if(this.rto_time != -1 && echo_rtt >= 0){
+                    if((int)(getMicroTime() - echo_rtt) - (int)this.rto_time < 0){
+                        if(!quiet) println("# Time out was spurious, " + (this.lost_end - this.high_rxt) + " bytes are not resent");
+                        this.lost_end = this.high_rxt;
+                    }
+                    this.rto_time = -1;
+                }
 
-                // Dequeue the window
-                packets.remove(0);
-                timeOfSend.remove(0);
+                // Partial ACK during the recovery - the next hole is lost too if the server has something after it, resend it
+                // right away unless it was already
+                if(this.sack_enabled && ack - congestion.getRecoveryPoint() < 0){
+                    if(!quiet) println("# Partial ACK, recovering until " + congestion.getRecoveryPoint());
+                    markLost(false);
+                    resendLost(true);
+                }
 
                 // If this is the last acked packet then send FIN
-                if(this.state == FSM.ESTABLISHED_FIN && packets.size() == 0){
+                if(packets.size() == 0 && (this.state == FSM.ESTABLISHED_FIN || source.remaining() == 0)){
                     sendPacket(this.seq_num, this.ack_num, false, false, true, null);
                     this.state = FSM.FIN;
-                    print("## Finished with everything! FIN Sent! Seq: " + this.seq_num + " ack: " + this.ack_num + " ");
+                    if(!quiet) print("## Finished with everything! FIN Sent! Seq: " + this.seq_num + " ack: " + this.ack_num + " ");
                     return this.timeout;
                 }
 
@@ -298,7 +595,20 @@ public class Client extends Application{
                 print("Out of order packet - drop this packet because ");
                 if(ack <= this.seq_num) println("packet is already acked");
                 else println("packet is beyond the order");
-                if(ack == this.seq_num){
+                if(ack == this.seq_num && ack - congestion.getRecoveryPoint() < 0){
+                    // Loss is already being recovered, one fast retransmit per window of data
+                    metrics.duplicateAck();
+                    number_of_acks = 0;
+                    if(!quiet) println("# Recovering until " + congestion.getRecoveryPoint() + ", no fast retransmit");
+
+                    // New SACK blocks may show more holes, each is resent once as the window allows
+                    if(this.sack_enabled){
+                        markLost(false);
+                        return processGBNFileTransfer(false);
+                    }
+                }else if(ack == this.seq_num){
+                    metrics.duplicateAck();
+
                     // Check if counts as fast retransmit
                     if(ack == last_ack) number_of_acks++;
                     else{
@@ -306,45 +616,78 @@ public class Client extends Application{
                         number_of_acks = 1;
                     }
                     // Verbose message
-                    println("# Attempt Fast Retransmit: " + number_of_acks + " seq: " + this.seq_num);
+                    if(!quiet) println("# Attempt Fast Retransmit: " + number_of_acks + " seq: " + this.seq_num);
 
                     // Fire fast retransmit if more than 1 acks
                     if(number_of_acks >= 2){
                         // Server was calling for a fast retransmit
                         println("# Fast retransmit!");
+                        metrics.fastRetransmit();
                         number_of_acks = 0;
-                        return timeoutGBNFileTransfer();
+                        congestion.onFastRetransmit(ack, this.seq_num + lengthWrite, lengthWrite);
+                        traceWindow();
+                        if(this.sack_enabled) return retransmitGBNHoles(false);
+                        return rewindGBNFileTransfer();
                     }
                 }
 
                 print("$\n## ");
 
                 // if that ack was intended for next ack, let next timeout take care of that
-                if(timeOfSend.size() == 0) return this.timeout;
-                int time = (int)(System.nanoTime()/1000000);
-                int comp = timeOfSend.get(0);
-                int timeoutdur = this.timeout - (time - comp);
-                timeoutdur = timeoutdur < 0 ? 0 : timeoutdur;
-                return timeoutdur;
+                return getRemainingTimeout();
             }
         }
         print("## Congested traffic, wait until it clears - ");
-        // Try reduce bytes in flight - I'm making this up
-        this.bytes_in_flight *= 3;
-        this.bytes_in_flight /= 4;
-        this.bytes_in_flight = this.bytes_in_flight < 0 ? 1 : this.bytes_in_flight;
         // Double the timeout
-        this.timeout += this.timeout + ((this.timeout == 0) ? 2 : 0);
-        this.timeout = Math.min(this.timeout, this.defaulttimeout);
-        return this.timeout;
+        backoffTimeout();
+        return getPacedTimeout(this.timeout);
+    }
+
+    /** Gets the time left until the first unacked packet times out
+     *  @return timeout duration
+     */
+    private int getRemainingTimeout(){
+        if(timeOfSend.size() == 0) return getPacedTimeout(this.timeout);
+        int time = (int)(System.nanoTime()/1000000);
+
+        // Timer restarts with every ACK of new data (RFC 6298 5.3), lost packets waiting for the window keep their old send time
+        int comp = timeOfSend.get(0);
+        if(this.ack_time - comp > 0) comp = this.ack_time;
+        int timeoutdur = this.timeout - (time - comp);
+        timeoutdur = timeoutdur < 0 ? 0 : timeoutdur;
+        return getPacedTimeout(timeoutdur);
     }
 
     /** Timeout method for Go-N-Back protocol
      *  @return timeout duration
      */
     public int timeoutGBNFileTransfer() throws Exception{
+        metrics.timeout();
+
+        // Let the congestion control shrink the window
+        congestion.onTimeout(this.seq_num + lengthWrite, lengthWrite);
+        traceWindow();
+
+        // Server tells what it has, only resend what it doesn't have
+        if(this.sack_enabled && packets.size() != 0){
+            if(this.timestamps_enabled) this.rto_time = getMicroTime();
+            return retransmitGBNHoles(true);
+        }
+        return rewindGBNFileTransfer();
+    }
+
+    /** Rewinds the file to the first unacked byte and sends the window again
+     *  @return timeout duration
+     */
+    private int rewindGBNFileTransfer() throws Exception{
+        // Everything sent so far is ambiguous to time
+        markRetransmitted();
+
+        // Probe is among the rewound packets
+        if(this.probe_seq != -1) probeLost();
+
         // Reset the file pointer
-        ra.seek(ra.getFilePointer() - lengthWrite);
+        source.seek(source.getFilePointer() - lengthWrite);
         lengthWrite = 0;
 
         // Clear the window
@@ -352,11 +695,9 @@ public class Client extends Application{
         if(packets.size() != 0) ack = packets.get(0).ack_bit;
         packets.clear();
         timeOfSend.clear();
-
-        // Try reduce bytes in flight - I'm making this up
-        this.bytes_in_flight *= 3;
-        this.bytes_in_flight /= 4;
-        this.bytes_in_flight = this.bytes_in_flight < 0 ? 1 : this.bytes_in_flight;
+        sacked.clear();
+        this.lost_end = this.seq_num;
+        this.high_rxt = this.seq_num;
 
         // Try bump up and see - this too
         if(this.server_available_buffer == 0) this.server_available_buffer += 20;
@@ -367,14 +708,143 @@ public class Client extends Application{
         // If ESTABLISHED_FIN was sent, undo it
         if(this.state == FSM.ESTABLISHED_FIN) this.state = FSM.ESTABLISHED;
 
-        // Change the cwnd
-        cwnd /= 2;
-        cwnd += cwnd == 0 ? 1 : 0;
-
         // Send packets again
         return processGBNFileTransfer(ack);
     }
 
+    /** Records that everything sent so far may be sent twice, ACKs up to there give no round trip time without the echo */
+    private void markRetransmitted(){
+        int sent_end = this.seq_num + lengthWrite;
+        if(sent_end - this.retransmit_end > 0) this.retransmit_end = sent_end;
+    }
+
+    /** Records the loss of the MTU probe, the probed size is given up on after MAX_PROBES losses */
+    private void probeLost(){
+        int size = (this.send_mss + this.probe_high + 1) / 2;
+        this.probe_seq = -1;
+        this.probe_failures++;
+        if(!quiet) println("# MTU probe of " + size + " bytes was lost " + this.probe_failures + " times");
+        if(this.probe_failures >= MAX_PROBES){
+            this.probe_high = size - 1;
+            this.probe_failures = 0;
+        }
+    }
+
+    /** Marks the unacked packets that the server reported in SACK blocks
+     *  @param sack_blocks pairs of start and end sequence numbers of the blocks the server has
+     */
+    private void markSACKed(int[] sack_blocks){
+        for(Packet packet : packets){
+            for(int i = 0; i < sack_blocks.length; i += 2){
+                if(packet.seq_num >= sack_blocks[i] && packet.seq_num + packet.length <= sack_blocks[i + 1]){
+                    sacked.add(packet.seq_num);
+                    break;
+                }
+            }
+        }
+    }
+
+    /** Starts resending the unacked packets that were not SACKed by the server, file pointer stays where it is. Each
+     *  lost packet is resent once until the next time out
+     *  @param all True to resend every hole (timeout), false to resend only the holes below the highest SACKed packet (fast retransmit)
+     *  @return timeout duration
+     */
+    public int retransmitGBNHoles(boolean all) throws Exception{
+        // New loss event, everything lost may be resent again - duplicate ACKs say the first packet is lost even without SACK blocks
+        this.high_rxt = this.seq_num;
+        this.lost_end = packets.get(0).seq_num + 1;
+        markLost(all);
+
+        // Fast retransmit resends the first hole right away, the window and the pacer hold back the rest - after a
+        // time out the window is one segment
+        if(!all) resendLost(true);
+
+        // Send packets again
+        return processGBNFileTransfer(false);
+    }
+
+    /** Marks the unacked packets that were not SACKed by the server as lost
+     *  @param all True to mark every hole (timeout), false to mark only the holes below the highest SACKed packet
+     */
+    private void markLost(boolean all){
+        // Holes below the highest SACKed packet are surely lost
+        int limit = this.lost_end;
+        if(all) limit = this.seq_num + lengthWrite;
+        else for(Packet packet : packets) if(sacked.contains(packet.seq_num) && packet.seq_num - limit > 0) limit = packet.seq_num;
+        this.lost_end = limit;
+    }
+
+    /** Resends the lost packets that were not resent yet, as many as the congestion window and the pacer allow
+     *  @param first True to resend the first unacked packet right away if it's lost, even if the window is full
+     */
+    private void resendLost(boolean first) throws Exception{
+        if(this.lost_end - this.high_rxt <= 0) return;
+        int pipe = getPipe();
+        int resent = 0;
+        for(int i = 0; i < packets.size() && packets.get(i).seq_num - this.lost_end < 0; i++){
+            Packet packet = packets.get(i);
+            if(packet.seq_num - this.high_rxt < 0 || sacked.contains(packet.seq_num)) continue;
+            if(!first || i != 0){
+                // Window - at least one packet when nothing is in flight
+                if(pipe != 0 && pipe + packet.length > congestion.getWindow()) break;
+
+                // Pacing - the rest waits for the pacing timer
+                if(!pacer.trySend(packet.length)){
+                    this.pacing_blocked = true;
+                    break;
+                }
+            }
+
+            // Everything sent so far is ambiguous to time
+            if(resent == 0) markRetransmitted();
+            this.high_rxt = packet.seq_num + packet.length;
+            pipe += packet.length;
+            i = resendPacket(i);
+            resent++;
+        }
+
+        // Verbose message
+        if(!quiet && resent != 0) println("# Retransmitted " + resent + " lost packets, resent up to " + this.high_rxt + " of " + this.lost_end);
+    }
+
+    /** Gets the bytes still in the network - unacked bytes without the SACKed ones and the lost ones that were not
+     *  resent yet (RFC 6675 pipe)
+     *  @return bytes in flight
+     */
+    private int getPipe(){
+        if(sacked.isEmpty() && this.lost_end - this.high_rxt <= 0) return lengthWrite;
+        int pipe = lengthWrite;
+        for(Packet packet : packets){
+            if(sacked.contains(packet.seq_num)) pipe -= packet.length;
+            else if(packet.seq_num - this.high_rxt >= 0 && packet.seq_num - this.lost_end < 0) pipe -= packet.length;
+        }
+        return pipe;
+    }
+
+    /** Resends one unacked packet, a segment bigger than what is known to get through is resent in pieces
+     *  @param i Index of the packet in the unacked buffer
+     *  @return index of the last piece
+     */
+    private int resendPacket(int i) throws Exception{
+        Packet packet = packets.get(i);
+        if(packet.seq_num == this.probe_seq) probeLost();
+        int offset = 0;
+        do{
+            int len = Math.min(packet.length - offset, this.send_mss);
+            Packet piece = sendPacket(packet.seq_num + offset, this.ack_num, packet.ack_bit, packet.payload, packet.payload_offset + offset, len);
+            if(offset != 0){
+                i++;
+                packets.add(i, piece);
+                timeOfSend.add(i, getTime());
+            }else{
+                packets.set(i, piece);
+                timeOfSend.set(i, getTime());
+            }
+            offset += len;
+        }while(offset < packet.length);
+        return i;
+    }
+
     /** Convenience method to fire away TCP packet
      *  @param ack_bit Acknowledgement Bit in packet. True if enabled, otherwise false
      *  @param syn_bit Synchronization Bit in packet. True if enabled, otherwise false
@@ -397,46 +867,87 @@ public class Client extends Application{
       */
     public Packet sendPacket(int seq_num, int ack_num, boolean ack_bit, boolean syn_bit, boolean fin_bit, byte[] data) throws Exception{
         // Build the packet
-        Packet packet = new Packet(seq_num, ack_num, ack_bit, fin_bit, syn_bit, receiver.getAvailableBuffer(), data, mailbox.getLocalAddress(), mailbox.getLocalPort());
-
-        // Convert the packet to byte array
-        byte[] tcp_packet = packet.toByteArray();
+        Packet packet = new Packet(seq_num, ack_num, ack_bit, fin_bit, syn_bit, getWindow(syn_bit), data, mailbox.getLocalAddress(), mailbox.getLocalPort());
+        packet.sack_permitted = syn_bit && this.sack_permitted;
+        if(syn_bit) packet.window_scale = (byte)this.window_shift;
+        if(syn_bit) packet.mss = this.mss;
+        if(syn_bit) packet.checksum_option = this.checksum_option;
+        if(syn_bit && this.stream_count != 0){
+            packet.stream_id = this.stream_id;
+            packet.stream_index = this.stream_index;
+            packet.stream_count = this.stream_count;
+            packet.stream_offset = this.stream_offset;
+        }
+        else packet.checksum_type = this.checksum_type;
 
+        // Server checks what it received against the hash of the whole file
+        if(fin_bit) packet.digest = getFileDigest();
 
         /*
         // Packet dropper test
         int chance = (int)(Math.random() * 4);
-        if(chance != 1) mailbox.send(new DatagramPacket(tcp_packet, tcp_packet.length, address, port));
+        if(chance != 1) transmit(packet);
         //else System.out.println("&&&&& FAILURE &&&&&");
         */
 
         // Send the packet
-        mailbox.send(new DatagramPacket(tcp_packet, tcp_packet.length, address, port));
+        setTimestamp(packet);
+        transmit(packet);
 
         // Verbose message
         //print("## SENDING PACKET ##\n" + packet);
         return packet;
     }
 
+    /** Fires away a data segment, the data is copied straight from the buffer into the datagram
+     *  @param seq_num Sequence Number
+     *  @param ack_num Acknowledgement Number
+     *  @param ack_bit Acknowledgement Bit in packet. True if enabled, otherwise false
+     *  @param payload Buffer that holds the data - usually a mapped window of the file
+     *  @param offset Offset of the data in the buffer
+     *  @param length Length of the data
+     *  @return Packet
+     */
+    public Packet sendPacket(int seq_num, int ack_num, boolean ack_bit, ByteBuffer payload, int offset, int length) throws Exception{
+        Packet packet = new Packet(seq_num, ack_num, ack_bit, false, false, getWindow(false), null, mailbox.getLocalAddress(), mailbox.getLocalPort());
+        packet.setPayload(payload, offset, length);
+        packet.checksum_type = this.checksum_type;
+        if(seq_num - this.sent_high < 0) metrics.segmentRetransmitted();
+        if(seq_num + length - this.sent_high > 0) this.sent_high = seq_num + length;
+        setTimestamp(packet);
+        transmit(packet);
+        return packet;
+    }
+
     /** Processes the packet assuming that it passed the checksum test
      *  @param packet Packet to be processed
      *  @return Time out duration
      */
     public int processPacket(Packet packet) throws Exception{
+        // Pending timer was cancelled, only the paths that send segments set up the pacing timer again
+        this.paced = false;
+
         //TCP control bits
         boolean ack_bit = false;
         boolean syn_bit = false;
         boolean fin_bit = false;
 
         // Congestation control
-        this.server_available_buffer = packet.window;
+        this.server_available_buffer = getPeerWindow(packet);
+
+        // Latest timestamp of the server is echoed back
+        if(packet.timestamp) this.ts_recent = packet.ts_val;
+
+        Trace.record(this.trace_id, Trace.RECEIVE, packet, this.server_available_buffer);
 
         // Verbose message
-        print("\n### RECEIVING PACKET ## Seq: " + packet.seq_num + " Ack_num: " + packet.ack_num + " Window: " + this.server_available_buffer + " ");
-        if(packet.ack_bit) print("ACK ");
-        if(packet.syn_bit) print("SYN ");
-        if(packet.fin_bit) print("FIN ");
-        println("\n#");
+        if(!quiet){
+            print("\n### RECEIVING PACKET ## Seq: " + packet.seq_num + " Ack_num: " + packet.ack_num + " Window: " + this.server_available_buffer + " ");
+            if(packet.ack_bit) print("ACK ");
+            if(packet.syn_bit) print("SYN ");
+            if(packet.fin_bit) print("FIN ");
+            println("\n#");
+        }
 
 
         // Check if SYN message
@@ -444,12 +955,36 @@ public class Client extends Application{
             // Verbose message
             println("# ACK to Server's SYN");
 
-            // Add time to RTT
-            recalculateRTT(getTime() - this.last_time);
+            // Timestamps are used only if server sent them back
+            this.timestamps_enabled = this.timestamps_enabled && packet.timestamp;
+
+            // Add time to RTT - retransmitted SYN can't be timed without the echo
+            long rtt = getEchoRTT(packet);
+            if(rtt < 0 && this.last_time >= 0) rtt = getMicroTime() - this.last_time;
+            recalculateRTT(rtt);
 
             // Received the SYN bit, increment the ack bit
             this.ack_num = packet.seq_num + 1;
 
+            // SACK is used only if both sides permit it
+            this.sack_enabled = this.sack_permitted && packet.sack_permitted;
+
+            // Alternate checksum is used only if server agrees to it
+            if(packet.checksum_option == this.checksum_option) this.checksum_type = this.checksum_option;
+
+            // Segments are no bigger than what both sides take, server without the option takes the default
+            this.send_mss = packet.mss > 0 ? Math.min(this.mss, packet.mss) : Math.min(this.mss, Packet.MAX_DATA_LENGTH);
+            if(this.mtu_probing){
+                this.probe_high = this.send_mss;
+                this.send_mss = Math.min(this.send_mss, Packet.MAX_DATA_LENGTH);
+            }
+            congestion.setMSS(this.send_mss);
+            traceWindow();
+
+            // Windows are scaled only if server sent the window scale back
+            this.window_scaled = packet.window_scale >= 0;
+            if(this.window_scaled) this.peer_window_shift = packet.window_scale;
+
             // Required to ACK the SYN bit
             ack_bit = true;
         }
@@ -467,7 +1002,13 @@ public class Client extends Application{
         }
 
         if(packet.ack_bit && !packet.fin_bit && !packet.syn_bit && (this.state == FSM.ESTABLISHED || this.state == FSM.ESTABLISHED_FIN)){
-            return acknowledgeGBNFileTransfer(packet.ack_num);
+            // ACK for data that was never sent is bogus - a damaged header the checksum missed, drop it like TCP does
+            if(packet.ack_num - this.sent_high > 0){
+                if(!quiet) println("# ACK " + packet.ack_num + " is beyond everything sent (" + this.sent_high + "), drop it");
+                return getRemainingTimeout();
+            }
+            if(this.sack_enabled && packet.sack_blocks != null) markSACKed(packet.sack_blocks);
+            return acknowledgeGBNFileTransfer(packet.ack_num, getEchoRTT(packet));
         }
 
         // Check if ACK message
@@ -488,9 +1029,6 @@ public class Client extends Application{
             return processGBNFileTransfer(true);
         }
 
-        // Store last time for RTT
-        this.last_time = getTime();
-
         // Send packet when appropriate
         if(ack_bit || syn_bit || fin_bit) sendPacket(ack_bit, syn_bit, fin_bit, null);
 
@@ -511,15 +1049,25 @@ public class Client extends Application{
         // Verbose message
         println("\n## Timed out ##");
 
+        // Pacing timer is not a loss, send what the pacer lets through now
+        if(this.paced && (this.state == FSM.ESTABLISHED || this.state == FSM.ESTABLISHED_FIN)){
+            this.paced = false;
+            println("# Pacing timer, sending the rest of the window");
+            return processGBNFileTransfer(false);
+        }
+
         // Double the timeout
-        this.timeout += this.timeout + ((this.timeout == 0) ? 2 : 0);
-        this.timeout = Math.min(this.timeout, this.defaulttimeout);
+        backoffTimeout();
+        Trace.record(this.trace_id, Trace.TIMEOUT, this.seq_num, this.ack_num, lengthWrite, this.timeout);
 
         // Check if timeout was from server not responding to SYN message
         if(this.state == FSM.SYN){
             // Verbose message
             println("# SYN packet sent by client timed out. Resending SYN");
 
+            // Karn's rule - the SYN-ACK can't tell which SYN it answers
+            this.last_time = -1;
+
             //Send the SYN again
             return startSYN();
         }
@@ -532,9 +1080,6 @@ public class Client extends Application{
             // Verbose message
             print("## FIN packet sent by client timed out. Resending FIN ");
 
-            // Store last time for RTT
-            this.last_time = getTime();
-
             // Send the packet and set timeout
             sendPacket(this.seq_num, this.ack_num, false, false, true, null);
 
@@ -551,12 +1096,19 @@ public class Client extends Application{
 
     /** Clean up method - cleans up everything */
     public void cleanUp() throws Exception{
-        ra.close();
+        metrics.close();
+        source.close();
+
+        // Ring goes to the trace file, the id may be given to the next client
+        receiver.setTraceId(0);
+        Trace.close(this.trace_id);
+        this.trace_id = 0;
         receiver.close();
         receiver.interrupt();
         receiver = null;
         timeoutthread = null;
         cdl = null;
+        transport.close();
         mailbox.close();
     }
 }
@@ -0,0 +1,67 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+
+/** Congestion controller for the Client - decides how many bytes may be unacknowledged at once. The Client tells
+ *  it about every ACK, every loss and every round trip time sample, the controller only keeps the window */
+public interface CongestionControl{
+    /** Sets the segment size the window is counted in, called when the segment size is agreed or probed
+     *  @param mss Maximum segment size
+     */
+    public void setMSS(int mss);
+
+    /** Gets the congestion window
+     *  @return number of bytes that may be unacknowledged
+     */
+    public int getWindow();
+
+    /** Gets the rate the window should be spread over the round trip at
+     *  @param rtt Smoothed round trip time in microseconds
+     *  @return bytes per second, 0 if the segments should not be paced
+     */
+    public double getPacingRate(long rtt);
+
+    /** New data was acknowledged
+     *  @param ack_num Acknowledgement number
+     *  @param acked Number of newly acknowledged bytes
+     *  @param rtt Round trip time sample in microseconds, -1 if there's no sample
+     *  @param in_flight Number of bytes still unacknowledged
+     */
+    public void onAck(int ack_num, int acked, long rtt, int in_flight);
+
+    /** Loss was detected by duplicate ACKs
+     *  @param ack_num Acknowledgement number that was duplicated
+     *  @param next_seq Sequence number of the next new segment
+     *  @param in_flight Number of bytes unacknowledged
+     */
+    public void onFastRetransmit(int ack_num, int next_seq, int in_flight);
+
+    /** Retransmission timer expired
+     *  @param next_seq Sequence number of the next new segment
+     *  @param in_flight Number of bytes unacknowledged
+     */
+    public void onTimeout(int next_seq, int in_flight);
+
+    /** Gets the recovery point (NewReno's recover) - duplicate ACKs below it belong to a loss that is already being
+     *  recovered and must not start another fast retransmit
+     *  @return sequence number of the next new segment at the latest loss
+     */
+    public int getRecoveryPoint();
+
+    /** Gets the name of the algorithm
+     *  @return name of the algorithm
+     */
+    public String getName();
+
+    /** Makes the controller from the command line
+     *  @param name "reno", "cubic" or "bbr"
+     *  @return new controller
+     */
+    public static CongestionControl forName(String name) throws IllegalArgumentException{
+        if(name.equals("reno")) return new RenoCongestionControl();
+        if(name.equals("cubic")) return new CubicCongestionControl();
+        if(name.equals("bbr")) return new BBRCongestionControl();
+        throw new IllegalArgumentException("Unknown congestion control: " + name);
+    }
+}
@@ -0,0 +1,617 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/** The Server aspect for File Transfer Application - one Connection per client, the Server feeds it the
+ *  client's packets and the Connection runs the protocol in its own thread */
+public class Connection extends Application implements Runnable{
+    /** Min number of bytes held past the hole, grows with the receive buffer */
+    private static final int REASSEMBLY_BUFFER_SIZE = 64 * 1024;
+    /** Default number of in-order segments acknowledged together - RFC 1122 */
+    public static final int DEFAULT_ACK_EVERY = 2;
+    /** Default delayed ACK timer in milliseconds - well below the client's smallest retransmission timeout */
+    public static final int DEFAULT_ACK_DELAY = 5;
+    /** Number of in-order segments acknowledged one by one at the start and after a hole, so the client's window grows and recovers quickly */
+    private static final int QUICK_ACKS = 16;
+    /** Server that owns this connection */
+    private Server server;
+    /** Client's ip address */
+    private InetAddress clientAddress;
+    /** Client's port */
+    private int clientPort;
+    /** Output of the received file */
+    private OutputSink sink;
+    /** Fast retransmit */
+    private int retransmitcount = 0;
+    /** Packet to send replies with */
+    private Packet reply;
+    /** Hash of the whole file the client sent on FIN, null until then */
+    private String clientHash = null;
+    /** Out-of-order segments waiting for the hole to be filled */
+    private ReassemblyBuffer reassembly = new ReassemblyBuffer(REASSEMBLY_BUFFER_SIZE);
+
+    // ACK policy - in-order segments are acknowledged every ack_every segments or when the delayed ACK timer fires
+    private int ack_every = DEFAULT_ACK_EVERY;
+    private int ack_delay = DEFAULT_ACK_DELAY;
+    private int unacked_segments = 0;
+    private int ack_deadline = -1;
+    private int ack_sent = 0;
+    private int window_sent = 0;
+    private int quick_acks = QUICK_ACKS;
+
+    // ACK counters
+    private long segments_received = 0;
+    private long acks_sent = 0;
+    private long delayed_acks_sent = 0;
+
+    /** Constructor for Connection
+     *  @param server Server that owns this connection
+     *  @param channel Server's channel, shared by all connections to send packets
+     *  @param clientAddress Client's ip address
+     *  @param clientPort Client's port
+     *  @param sink Output of the received file
+     *  @param quiet True to quiet the verbose messages otherwise false to quiet the verbose messages
+     */
+    public Connection(Server server, DatagramChannel channel, InetAddress clientAddress, int clientPort, OutputSink sink, boolean quiet){
+        this.server = server;
+        this.channel = channel;
+        this.transport = server.getTransport();
+        this.mailbox = channel.socket();
+        this.port = mailbox.getLocalPort();
+        this.clientAddress = clientAddress;
+        this.clientPort = clientPort;
+        this.destination = new InetSocketAddress(clientAddress, clientPort);
+        this.reply = new Packet(0, 0, false, false, false, (short)0, null, mailbox.getLocalAddress(), mailbox.getLocalPort());
+        this.sink = sink;
+        this.quiet = quiet;
+        this.cdl = new CountDownLatch(1);
+        // Receiver is not started - Server delivers the packets into it, processed packets go back to the Server's pool
+        this.receiver = new Receiver(null, cdl, quiet, server.getPacketPool());
+        this.defaulttimeout = 5000;
+        this.timeout = this.defaulttimeout;
+        metrics.register("Connection", this.destination.toString());
+        this.trace_id = Trace.register("Connection " + this.destination);
+        receiver.setTraceId(this.trace_id);
+    }
+
+    /** Sets the size of the receive buffer, must be called before the first packet. Out-of-order segments
+     *  can take up to the same size
+     *  @param size Size of the receive buffer in bytes
+     */
+    public void setReceiveBufferSize(int size) throws IOException{
+        super.setReceiveBufferSize(size);
+        this.reassembly = new ReassemblyBuffer(Math.max(REASSEMBLY_BUFFER_SIZE, size));
+    }
+
+    /** Socket is shared by every connection, the Server grows it for all of them
+     *  @param size Size of the window in bytes
+     */
+    protected void growSocketBuffer(int size){
+    }
+
+    /** Sets the ACK policy, must be called before the first packet
+     *  @param ack_every Number of in-order segments acknowledged together, 1 to acknowledge every segment
+     *  @param ack_delay Longest time an in-order segment waits for its ACK in milliseconds
+     */
+    public void setAckPolicy(int ack_every, int ack_delay){
+        this.ack_every = ack_every;
+        this.ack_delay = ack_delay;
+    }
+
+    /** Gets the number of data segments received
+     *  @return number of data segments
+     */
+    public long getSegmentsReceived(){
+        return this.segments_received;
+    }
+
+    /** Gets the number of ACKs sent for data segments
+     *  @return number of ACKs, including the ones sent by the delayed ACK timer
+     */
+    public long getAcksSent(){
+        return this.acks_sent;
+    }
+
+    /** Gets the number of ACKs saved by the ACK policy
+     *  @return data segments that did not get an ACK of their own
+     */
+    public long getAcksSaved(){
+        return Math.max(0, this.segments_received - this.acks_sent);
+    }
+
+    /** Gets the window advertised in the latest ACK for the metrics
+     *  @return window in bytes
+     */
+    public int getAdvertisedWindow(){
+        return this.window_sent;
+    }
+
+    /** Thread's run method */
+    public void run(){
+        try{
+            start();
+        }catch(Exception e){
+            System.err.println("Error: " + getClientAddress() + " " + e.getMessage());
+            if(!quiet) e.printStackTrace();
+            try{
+                this.cleanUp();
+            }catch(Exception ce){} //Nothing else can be done
+        }finally{
+            server.removeConnection(this);
+        }
+    }
+
+    /** Gets the client's address and port which identifies this connection
+     *  @return Client's address and port
+     */
+    public InetSocketAddress getClientAddress(){
+        return this.destination;
+    }
+
+    /** Delivers a packet from the client to this connection
+     *  @param packet Packet from the client
+     */
+    public void deliver(Packet packet){
+        if(!receiver.offer(packet)) receiver.recycle(packet);
+    }
+
+    /** Main loop for the Connection */
+    public void start() throws Exception{
+        println("\n################### Connection from " + getClientAddress() + " #########################\n");
+
+        // Process packets queue
+        while(true){
+            // Wait for anything from receiver or timeout
+            receiver.awaitPacket();
+
+            // Reset the CDL
+            cdl = new CountDownLatch(1);
+            receiver.setCountDownLatch(cdl);
+
+            // Cancel the timeout
+            if(timeoutthread != null){
+                timeoutthread.interruptTime();
+                timeoutthread = null;
+            }
+
+            // Check event
+            int duration;
+            if(receiver.hasPacket()){
+                // Received packets - every packet in the buffer is processed before the timer is set again, packets go back to the pool once they're processed
+                Packet pkt = receiver.getPacket();
+                do{
+                    duration = processPacket(pkt);
+                    receiver.recycle(pkt);
+                    if(duration == 0) duration = processTimeout();
+                }while(duration != -1 && (pkt = receiver.getPacket()) != null);
+            }else{
+                // Timed out
+                metrics.timerExpired();
+                duration = processTimeout();
+            }
+
+            // Verbose message
+            if(!quiet && duration != -1) println("Timeout set to: " + duration + "ms");
+            else println("");
+
+            // Set timeout
+            if(duration == 0){
+                duration = processTimeout();
+                // Verbose message
+                if(!quiet) println("Timeout set to: " + duration + "ms");
+            }else if(duration == -1L) break;
+
+            if(duration != -2L){
+                timeoutthread = new Timeout(this.cdl, duration);
+                metrics.timerArmed();
+                timeoutthread.start();
+            }else{
+                println("Still waiting...");
+            }
+        }
+
+        finish();
+    }
+
+    /** Wraps up after the transfer - publishes the hash of the received file */
+    public void finish() throws Exception{
+        println("Closing the connection\n");
+        println("# ACKs: " + this.acks_sent + " sent for " + this.segments_received + " data segments, "
+            + this.delayed_acks_sent + " by the delayed ACK timer, " + getAcksSaved() + " saved");
+        // Connection that carries only a range of the file leaves the hash and its check to the Transfer
+        if(sink instanceof RangeSink) ((RangeSink)sink).setClientHash(this.clientHash);
+        sink.close();
+        String hash = sink.getHash();
+        if(hash != null && !quiet) System.out.println("\rOutput MD5 hash from " + getClientAddress() + ": " + hash);
+        else if(hash != null) System.out.println("MD5 hash of the file from " + getClientAddress() + ": " + hash);
+        if(hash != null) Transfer.checkHash(getClientAddress().toString(), hash, this.clientHash);
+
+        // Clean up
+        this.cleanUp();
+        server.removeConnection(this);
+    }
+
+    /** Convenience method to fire away TCP packet
+     *  @param ack_bit Acknowledgement Bit in packet. True if enabled, otherwise false
+     *  @param syn_bit Synchronization Bit in packet. True if enabled, otherwise false
+     *  @param fin_bit Finish Bit in packet. True if enabled, otherwise false
+     */
+    public void sendPacket(boolean ack_bit, boolean syn_bit, boolean fin_bit) throws Exception{
+        sendPacket(this.seq_num, this.ack_num, ack_bit, syn_bit, fin_bit);
+    }
+
+    /** Convenience method to fire away TCP packet
+     *  @param seq_num Sequence Number
+     *  @param ack_num Acknowledgement Number
+     *  @param ack_bit Acknowledgement Bit in packet. True if enabled, otherwise false
+     *  @param syn_bit Synchronization Bit in packet. True if enabled, otherwise false
+     *  @param fin_bit Finish Bit in packet. True if enabled, otherwise false
+     */
+    public void sendPacket(int seq_num, int ack_num, boolean ack_bit, boolean syn_bit, boolean fin_bit) throws Exception{
+        // Build the packet - the reply packet is reused since it's encoded right away
+        Packet packet = this.reply;
+        packet.seq_num = seq_num;
+        packet.ack_num = ack_num;
+        packet.ack_bit = ack_bit;
+        packet.fin_bit = fin_bit;
+        packet.syn_bit = syn_bit;
+        packet.window = getWindow(syn_bit);
+
+        // Every ACK acknowledges the pending segments
+        if(ack_bit){
+            if(this.state == FSM.ESTABLISHED && this.segments_received != 0) this.acks_sent++;
+            this.ack_sent = ack_num;
+            this.window_sent = receiver.getAvailableBuffer();
+            this.unacked_segments = 0;
+            this.ack_deadline = -1;
+        }
+
+        // SYN always goes with CRC16, alternate checksum is offered back on it
+        packet.checksum_type = syn_bit ? Packet.CHECKSUM_CRC16 : this.checksum_type;
+        packet.checksum_option = syn_bit ? this.checksum_type : Packet.CHECKSUM_CRC16;
+
+        // Window scale is sent back on SYN only if the client sent it
+        packet.window_scale = syn_bit && this.window_scaled ? (byte)this.window_shift : -1;
+
+        // Largest segment we take goes on SYN
+        packet.mss = syn_bit ? this.mss : 0;
+
+        // Selective acknowledgement
+        packet.sack_permitted = syn_bit && this.sack_enabled;
+        packet.sack_blocks = null;
+        if(!syn_bit && ack_bit && this.sack_enabled) packet.sack_blocks = reassembly.getRanges(Packet.MAX_SACK_BLOCKS);
+
+        /*
+        // Packet dropper
+        int chance = (int)(Math.random() * 5);
+        if(chance != 1) transmit(packet);
+        //else System.out.println("&&&&& FAILURE &&&&&");
+        */
+
+        // Send the packet
+        setTimestamp(packet);
+        transmit(packet);
+
+        // Verbose message
+        //print("## SENDING PACKET ##\n" + packet);
+    }
+
+    /** Processes the packet assuming that it passed the checksum test
+     *  @param packet Packet to be processed
+     *  @return Time out duration
+     */
+    public int processPacket(Packet packet) throws Exception{
+        //TCP control bits
+        boolean ack_bit = false;
+        boolean syn_bit = false;
+        boolean fin_bit = false;
+        boolean syn_again = this.state == FSM.SYN;
+        Trace.record(this.trace_id, Trace.RECEIVE, packet, getPeerWindow(packet));
+
+        // Verbose message
+        if(!quiet){
+            System.out.print("\n## RECEIVING PACKET ## Seq: " + packet.seq_num + " ack: " + packet.ack_num + " length: " + packet.length + " ");
+            if(packet.ack_bit) System.out.print("A ");
+            if(packet.syn_bit) System.out.print("S ");
+            if(packet.fin_bit) System.out.print("F ");
+            System.out.println("\n#");
+        }
+
+        // Timestamp of the client is echoed back unless the packet is past the last ACK - a delayed ACK echoes the oldest segment it covers
+        if(packet.timestamp && packet.seq_num - this.ack_sent <= 0) this.ts_recent = packet.ts_val;
+
+        // Check if SYN message
+        if(packet.syn_bit){
+            // Verbose message
+            println("################### Synchronization #########################\n#");
+            println("# SYN message received. Responding to ACK and sending SYN");
+
+            //if(quiet) System.out.print("Transfer in progress...");
+
+            // Respond to client's SYN
+            ack_bit = true;
+
+            //Increment ack number - 1 SYN = 1 number
+            this.ack_num = this.seq_num + 1;
+
+            // Client permits SACK, so do we
+            this.sack_enabled = packet.sack_permitted;
+
+            // Agree to the alternate checksum if we know it
+            if(packet.checksum_option == Packet.CHECKSUM_CRC32C) this.checksum_type = packet.checksum_option;
+
+            // Client takes segments no bigger than this
+            this.send_mss = packet.mss > 0 ? Math.min(this.mss, packet.mss) : Math.min(this.mss, Packet.MAX_DATA_LENGTH);
+
+            // Echo the timestamps if client sent them
+            this.timestamps_enabled = packet.timestamp;
+            this.ts_recent = packet.ts_val;
+
+            // Scale the windows if client can
+            this.window_scaled = packet.window_scale >= 0;
+            if(this.window_scaled) this.peer_window_shift = packet.window_scale;
+
+            // Handshake client with sending SYN
+            syn_bit = true;
+            this.state = FSM.SYN;
+        }
+
+        // Check if ACK message
+        if(packet.ack_bit){
+            // Verbose message
+            println("# ACK received");
+
+            // Recalculate RTT - only the handshake ACK and the ACK of our FIN answer something we sent, data segments echo
+            // the latest ACK the client saw and the gap between them is not a round trip. SYN-ACK sent twice can't be
+            // timed without the echo
+            if(this.state == FSM.SYN){
+                long rtt = getEchoRTT(packet);
+                if(rtt < 0 && this.last_time >= 0) rtt = getMicroTime() - this.last_time;
+                recalculateRTT(rtt);
+            }else if(this.state == FSM.FIN && !packet.fin_bit) recalculateRTT(getEchoRTT(packet));
+
+            // Check for acceptable states
+            if(this.state == FSM.SYN || this.state == FSM.ESTABLISHED || this.state == FSM.FIN){
+                // Client received N bytes so sender may advance
+                this.seq_num = packet.ack_num;
+
+                // Change states if applicable
+                if(this.state == FSM.SYN){
+                    // Verbose message
+                    println("# \n################### Established! #########################\n#");
+
+                    // Mark the state as established
+                    this.state = FSM.ESTABLISHED;
+
+                    // Helper value for file pointer
+                    file_seq_offset = this.seq_num;
+                }
+                // Finish state
+                if(this.state == FSM.FIN){
+                    if(packet.ack_num == this.seq_num){
+                        // Verbose message
+                        println("# \n################### Finished! #########################\n");
+
+                        // Mark the state as finished
+                        this.state = FSM.FIN_ACK;
+                    }
+                }
+            }
+        }
+
+        // Check if file message
+        if(packet.length != 0){
+            if(this.state == FSM.ESTABLISHED){
+                // Verbose message
+                if(!quiet) print("# Data received! ack_num: " + this.ack_num + " last ack: " + last_ack);
+                this.segments_received++;
+
+                // Check if packet is not advanced
+                int delivered_from = this.ack_num;
+                if(packet.seq_num == this.ack_num){
+                    // Verbose message
+                    println("\n# Packet is in order\n#");
+
+                    // Save old ack
+                    this.last_ack = this.ack_num;
+
+                    // Write to output
+                    sink.write(packet.seq_num - file_seq_offset, packet.data, 0, packet.length);
+
+                    // Reset flag
+                    this.retransmitcount = 0;
+
+                    // Modify numbers
+                    this.ack_num = packet.seq_num + packet.length;
+                    this.seq_num = packet.ack_num;
+
+                    // Hole may be filled, drain the segments that were held
+                    int end = this.ack_num;
+                    drainReassemblyBuffer();
+
+                    // ACK policy - a filled hole, segments still held past a hole or a client about to run out of window are acknowledged right away
+                    this.unacked_segments++;
+                    if(this.ack_num != end || reassembly.size() != 0) this.quick_acks = QUICK_ACKS;
+                    if(this.quick_acks > 0){
+                        this.quick_acks--;
+                        ack_bit = true;
+                    }else if(this.unacked_segments >= this.ack_every) ack_bit = true;
+                    else if(this.ack_num - this.ack_sent + this.send_mss > this.window_sent) ack_bit = true;
+                    else if(this.ack_deadline == -1) this.ack_deadline = getTime() + this.ack_delay;
+                }else if(packet.seq_num < this.ack_num){
+                    // Verbose message
+                    println("\n# Packet is older, acknowledge again\n#");
+
+                    // Reset flag
+                    this.retransmitcount = 0;
+
+                    // Packet may still carry some new bytes past the ack number
+                    if(packet.seq_num + packet.length > this.ack_num){
+                        int skip = this.ack_num - packet.seq_num;
+                        sink.write(this.ack_num - file_seq_offset, packet.data, skip, packet.length - skip);
+                        this.ack_num = packet.seq_num + packet.length;
+                        drainReassemblyBuffer();
+                    }
+                    this.seq_num = packet.ack_num;
+
+                    // Set the bit
+                    ack_bit = true;
+                }else{
+                    // Verbose message
+                    println("\n# Packet is beyond the order - missing packet in between");
+
+                    // Hold the packet until the hole is filled
+                    if(reassembly.add(this.ack_num, packet.seq_num, packet.data, packet.length)){
+                        if(!quiet) println("# Packet is held, " + reassembly.size() + " bytes held");
+                    }else{
+                        Trace.drop(this.trace_id, Trace.DROP_NO_ROOM, packet, 0);
+                        println("# Packet is dropped, no room to hold it");
+                    }
+
+                    // ACK right away - the duplicate ACK and its SACK blocks tell the client where the hole is
+                    this.last_ack = this.ack_num;
+                    this.quick_acks = QUICK_ACKS;
+                    metrics.duplicateAck();
+                    ack_bit = true;
+                }
+                metrics.delivered(this.ack_num - delivered_from);
+            }
+        }
+
+        // Check if FIN message
+        if(packet.fin_bit){
+            // Verbose message
+            if(!quiet){
+                System.out.println("# FIN message received. Responding to ACK and sending FIN");
+                System.out.println("## SENDING PACKET ## ack_num: " + this.ack_num + 1 + " A F");
+            }
+
+            // Client tells what the whole file hashes to
+            if(packet.digest != null) this.clientHash = Utility.byteArrayToHex(packet.digest);
+
+            // End connection
+            fin_bit = true;
+            this.state = FSM.FIN;
+
+            // Respond to client's FIN
+            ack_bit = true;
+
+            //Increment ack number - 1 FIN = 1 number
+            this.ack_num = this.ack_num + 1;
+        }
+
+        // Send packet where appropriate
+        if(syn_bit || ack_bit || fin_bit) sendPacket(ack_bit, syn_bit, fin_bit);
+
+        // Store RTT time - Karn's rule, SYN-ACK sent again for a repeated SYN can't be timed
+        if(syn_bit) this.last_time = syn_again ? -1 : getMicroTime();
+
+        // Exit if FIN is already acked
+        if(this.state == FSM.FIN_ACK) return -1;
+
+        // Delayed ACK timer runs from the oldest unacknowledged segment
+        if(this.ack_deadline != -1) return Math.max(0, Math.min(this.timeout, this.ack_deadline - getTime()));
+
+        return this.timeout;
+    }
+
+    /** Writes the held segments that continue from the acknowledgement number and advances the acknowledgement number */
+    private void drainReassemblyBuffer() throws Exception{
+        Map.Entry<Integer, byte[]> segment;
+        while((segment = reassembly.poll(this.ack_num)) != null){
+            int skip = this.ack_num - segment.getKey();
+            byte[] data = segment.getValue();
+            sink.write(this.ack_num - file_seq_offset, data, skip, data.length - skip);
+            this.ack_num = segment.getKey() + data.length;
+            if(!quiet) println("# Held packet is drained, ack_num: " + this.ack_num);
+        }
+    }
+
+    /** Process the time out call
+     *  @return time out duration
+     */
+    public int processTimeout() throws Exception{
+        // Verbose message
+        println("\n##Timed out##");
+
+        // Delayed ACK timer is not a loss, acknowledge the segments that waited
+        if(this.ack_deadline != -1 && this.state == FSM.ESTABLISHED){
+            if(!quiet) println("# Delayed ACK timer, acknowledging " + this.unacked_segments + " segments");
+            this.delayed_acks_sent++;
+            sendPacket(true, false, false);
+            return this.timeout;
+        }
+
+        // Double the timeout
+        metrics.timeout();
+        backoffTimeout();
+        Trace.record(this.trace_id, Trace.TIMEOUT, this.seq_num, this.ack_num, 0, this.timeout);
+
+        // No ACK from the client for SYN
+        if(this.state == FSM.SYN){
+            // Verbose message
+            println("# SYN packet sent by server timed out. Resending SYN");
+
+            // Karn's rule - the ACK can't tell which SYN-ACK it answers
+            this.last_time = -1;
+
+            // Send packet with SYN and ACK
+            sendPacket(true, true, false);
+
+            // Timeout
+            return this.timeout;
+        }
+
+        // Established state
+        if(this.state == FSM.ESTABLISHED){
+            // retransmitcount is used to reduce the spam from retransmit
+            this.retransmitcount++;
+            // Verbose message
+            if(!quiet) print("## retransmit: " + this.retransmitcount);
+            if((retransmitcount % 5 == 0) && this.ack_num != this.last_ack){
+                // Verbose message
+                print("#  NO PACKETS FAST RETRANSMIT!\n#");
+                if(!quiet) print("## SENDING X2 PACKETS ## ack_num: " + this.ack_num + " - ");
+
+                // Send 2 same packets
+                sendPacket(this.seq_num, this.ack_num, true, false, false);
+                sendPacket(this.seq_num, this.ack_num, true, false, false);
+            }
+            return this.timeout;
+        }
+
+        // Finish state
+        if(this.state == FSM.FIN){
+            // Verbose message
+            println("FIN packet sent by server timed out. Assuming they got the packet. Closing the connection");
+
+            // Close the connection
+            return -1;
+        }
+
+        println("processTimeout method ends");
+        return -1;
+    }
+
+    /** Clean up method - cleans up everything */
+    public void cleanUp() throws Exception{
+        metrics.close();
+        sink.close();
+        reassembly.clear();
+        if(timeoutthread != null) timeoutthread.interruptTime();
+        timeoutthread = null;
+        cdl = null;
+
+        // Ring goes to the trace file, the id may be given to the next connection
+        receiver.setTraceId(0);
+        Trace.close(this.trace_id);
+        this.trace_id = 0;
+    }
+}
@@ -0,0 +1,94 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+
+/** CUBIC congestion control (RFC 8312) - the window grows as a cubic function of the time since the last loss,
+ *  so it climbs back to the window where the loss happened quickly, levels off around it and then probes further.
+ *  Growth depends on time rather than round trips, which suits long fat links. Slow start and fast recovery are
+ *  the same as NewReno */
+public class CubicCongestionControl extends RenoCongestionControl{
+    /** Scaling constant of the cubic function */
+    private static final double C = 0.4;
+    /** Multiplicative decrease factor */
+    private static final double BETA = 0.7;
+
+    /** Window before the last loss in segments */
+    private double w_max = 0;
+    /** Window before the loss before that, for fast convergence */
+    private double w_last_max = 0;
+    /** Time to grow back to w_max in seconds */
+    private double k = 0;
+    /** Start of the current growth period in nanoseconds, 0 if it hasn't started */
+    private long epoch_start = 0;
+    /** Window NewReno would have in segments - CUBIC is never slower than that */
+    private double w_est = 0;
+    /** Latest round trip time sample in microseconds */
+    private long rtt = 0;
+
+    /** Grows the window along the cubic function
+     *  @param acked Number of newly acknowledged bytes
+     *  @param rtt Round trip time sample in microseconds, -1 if there's no sample
+     */
+    protected void increaseWindow(int acked, long rtt){
+        if(rtt > 0) this.rtt = rtt;
+        double window = (double)this.cwnd / this.mss;
+        long now = System.nanoTime();
+
+        // Start of the growth period
+        if(this.epoch_start == 0){
+            this.epoch_start = now;
+            if(window < this.w_max) this.k = Math.cbrt((this.w_max - window) / C);
+            else{
+                this.k = 0;
+                this.w_max = window;
+            }
+            this.w_est = window;
+        }
+
+        // Target window one round trip from now, growth is limited to half a window per round trip
+        double t = (now - this.epoch_start) / 1e9 + this.rtt / 1e6;
+        double target = C * Math.pow(t - this.k, 3) + this.w_max;
+        target = Math.min(target, 1.5 * window);
+
+        // NewReno's window for the same time
+        double segments = (double)Math.min(acked, this.cwnd) / this.mss;
+        this.w_est += 3 * (1 - BETA) / (1 + BETA) * segments / window;
+
+        double increase = 0;
+        if(target > window) increase = (target - window) / window * segments;
+        if(this.w_est > window + increase) increase = this.w_est - window;
+        this.cwnd += Math.max(1, (int)(increase * this.mss));
+    }
+
+    /** Remembers where the loss happened and cuts the window to 70%
+     *  @param in_flight Number of bytes unacknowledged
+     *  @return new slow start threshold in bytes
+     */
+    protected int reduceWindow(int in_flight){
+        double window = (double)this.cwnd / this.mss;
+
+        // Fast convergence - give up some room if the window keeps getting smaller
+        if(window < this.w_last_max) this.w_max = window * (1 + BETA) / 2;
+        else this.w_max = window;
+        this.w_last_max = window;
+        this.epoch_start = 0;
+        return Math.max((int)(this.cwnd * BETA), 2 * this.mss);
+    }
+
+    /** Drops the window to one segment, growth period starts over
+     *  @param next_seq Sequence number of the next new segment
+     *  @param in_flight Number of bytes unacknowledged
+     */
+    public void onTimeout(int next_seq, int in_flight){
+        super.onTimeout(next_seq, in_flight);
+        this.epoch_start = 0;
+    }
+
+    /** Gets the name of the algorithm
+     *  @return name of the algorithm
+     */
+    public String getName(){
+        return "cubic";
+    }
+}
@@ -0,0 +1,50 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+import java.net.SocketAddress;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/** Datagram held by the NetworkEmulator until it's due - datagrams due at the same time keep the order they were sent in */
+public class DelayedDatagram implements Delayed{
+    /** Contents of the datagram */
+    byte[] data;
+    /** Address the datagram is sent to, null for the address the channel is connected to */
+    SocketAddress target;
+    /** Time the datagram is sent in nanoseconds */
+    private long due;
+    /** Order the datagram was sent in */
+    private long order;
+
+    /** Constructor for DelayedDatagram
+     *  @param data Contents of the datagram
+     *  @param target Address the datagram is sent to, null for the address the channel is connected to
+     *  @param due Time the datagram is sent in nanoseconds
+     *  @param order Order the datagram was sent in
+     */
+    public DelayedDatagram(byte[] data, SocketAddress target, long due, long order){
+        this.data = data;
+        this.target = target;
+        this.due = due;
+        this.order = order;
+    }
+
+    /** Gets the time left until the datagram is due
+     *  @param unit Unit of the result
+     *  @return time left, zero or negative if it's due
+     */
+    public long getDelay(TimeUnit unit){
+        return unit.convert(this.due - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    /** Compares the due times, then the order the datagrams were sent in
+     *  @param other Another DelayedDatagram
+     *  @return negative if this datagram goes first, otherwise positive
+     */
+    public int compareTo(Delayed other){
+        DelayedDatagram datagram = (DelayedDatagram)other;
+        if(this.due != datagram.due) return this.due - datagram.due < 0 ? -1 : 1;
+        return Long.compare(this.order, datagram.order);
+    }
+}
@@ -0,0 +1,213 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Single threaded engine that receives, processes and replies to packets with a non-blocking channel. Timers are
+ *  kept as deadlines on each Application and folded into the select timeout, so there's no Receiver thread,
+ *  no Timeout and no CountDownLatch */
+public class EventLoop{
+    /** Channel to receive and send packets, must be non-blocking */
+    private DatagramChannel channel;
+    /** Selector to wait on the channel */
+    private Selector selector;
+    /** Server to create connections for new clients, null if no new clients are accepted */
+    private Server server;
+    /** Quiet flag */
+    private boolean quiet;
+    /** Applications indexed by the address and port they talk to */
+    private HashMap<SocketAddress, Application> endpoints = new HashMap<SocketAddress, Application>();
+    /** Applications with expired timers - reused every round */
+    private ArrayList<Map.Entry<SocketAddress, Application>> expired = new ArrayList<Map.Entry<SocketAddress, Application>>();
+    /** Decoder for the received packets - reused for every packet */
+    private PacketView view = new PacketView();
+    /** Received packet - reused for every packet since Applications don't keep it */
+    private Packet received = new Packet(0, 0, false, false, false, (short)0, null, null, 0);
+    /** Length of the largest datagram that can be received */
+    private int datagramLength = Packet.MAX_DATAGRAM_LENGTH;
+    /** Control bit to shut down the EventLoop */
+    private volatile boolean stop = false;
+
+    /** Constructor for EventLoop
+     *  @param channel Non-blocking channel to receive and send packets
+     *  @param server Server to create connections for new clients, null if no new clients are accepted
+     *  @param quiet Quiet flag
+     */
+    public EventLoop(DatagramChannel channel, Server server, boolean quiet) throws Exception{
+        this.channel = channel;
+        this.server = server;
+        this.quiet = quiet;
+        this.selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+    }
+
+    /** Adds an Application to the loop
+     *  @param remote Address and port the Application talks to
+     *  @param app Application
+     *  @param duration First time out duration
+     */
+    public void register(SocketAddress remote, Application app, int duration) throws Exception{
+        endpoints.put(remote, app);
+        schedule(remote, app, duration);
+    }
+
+    /** Sets the length of the largest datagram that can be received, must be called before run()
+     *  @param datagramLength Datagram length with header, options and data
+     */
+    public void setDatagramLength(int datagramLength){
+        this.datagramLength = datagramLength;
+    }
+
+    /** Runs until every Application is finished, or until closed if it accepts new clients */
+    public void run() throws Exception{
+        ByteBuffer buffer = ByteBuffer.allocateDirect(this.datagramLength);
+        while(!this.stop && (this.server != null || !endpoints.isEmpty())){
+            // Find the nearest deadline
+            long nearest = Long.MAX_VALUE;
+            for(Application app : endpoints.values()) if(app.deadline != -1) nearest = Math.min(nearest, app.deadline);
+
+            // Wait for packets until the nearest deadline
+            long wait = nearest - System.nanoTime();
+            if(nearest == Long.MAX_VALUE) selector.select();
+            else if(wait <= 0) selector.selectNow();
+            else selector.select(Math.max(1, (wait + 999999) / 1000000));
+            selector.selectedKeys().clear();
+            if(this.stop) break;
+
+            // Drain every packet in the channel
+            SocketAddress sender;
+            while((sender = receive(buffer)) != null) process(sender, buffer);
+
+            // Time out the expired timers
+            long now = System.nanoTime();
+            for(Map.Entry<SocketAddress, Application> entry : endpoints.entrySet()){
+                if(entry.getValue().deadline != -1 && entry.getValue().deadline <= now) expired.add(entry);
+            }
+            for(int i = 0; i < expired.size(); i++){
+                Application app = expired.get(i).getValue();
+                app.deadline = -1;
+                app.metrics.timerExpired();
+                try{
+                    schedule(expired.get(i).getKey(), app, app.processTimeout());
+                }catch(Exception e){
+                    fail(expired.get(i).getKey(), app, e);
+                }
+            }
+            expired.clear();
+        }
+        selector.close();
+    }
+
+    /** Receives a packet from the channel
+     *  @param buffer Buffer to receive into
+     *  @return address of the sender, null if nothing to receive
+     */
+    private SocketAddress receive(ByteBuffer buffer) throws Exception{
+        // Last Application may close the channel when it finishes
+        if(!channel.isOpen()) return null;
+        buffer.clear();
+        try{
+            return channel.receive(buffer);
+        }catch(PortUnreachableException e){
+            // Connected client heard that the server isn't listening yet, the SYN is sent again on time out
+            return null;
+        }catch(Exception e){
+            if(this.stop) return null;
+            throw e;
+        }
+    }
+
+    /** Processes the received packet in the buffer with the Application that talks to the sender
+     *  @param sender Sender's address and port
+     *  @param buffer Buffer with the received packet
+     */
+    private void process(SocketAddress sender, ByteBuffer buffer) throws Exception{
+        InetSocketAddress address = (InetSocketAddress)sender;
+        try{
+            view.wrap(buffer, 0, buffer.position());
+            if(!view.isChecksumValid(address.getPort())) throw new Exception("Corrupted Packet");
+        }catch(Exception e){
+            ProcessMetrics.getShared().checksumDrop();
+            if(Trace.isEnabled()){
+                Application app = endpoints.get(sender);
+                Trace.drop(app == null ? 0 : app.trace_id, Trace.DROP_CHECKSUM, null, address.getPort());
+            }
+            if(!quiet) System.out.println("!! Packet is corrupted! !! - Dropped automatically");
+            return;
+        }
+        Packet pkt = this.received;
+        pkt.set(view, address.getAddress(), address.getPort());
+
+        // Find the Application, new client must start with SYN
+        Application app = endpoints.get(sender);
+        if(app == null){
+            if(this.server == null) return;
+            app = this.server.createConnection(pkt);
+            if(app == null) return;
+            endpoints.put(sender, app);
+        }
+
+        app.deadline = -1;
+        try{
+            schedule(sender, app, app.processPacket(pkt));
+        }catch(Exception e){
+            fail(sender, app, e);
+        }
+    }
+
+    /** Sends the packets the Application produced, arms its timer for the duration, finishes the Application if it's done
+     *  @param remote Address and port the Application talks to
+     *  @param app Application
+     *  @param duration Time out duration from processPacket or processTimeout
+     */
+    private void schedule(SocketAddress remote, Application app, int duration) throws Exception{
+        if(duration == 0) duration = app.processTimeout();
+        app.flush();
+        if(duration == -1){
+            endpoints.remove(remote);
+            app.deadline = -1;
+            app.finish();
+            return;
+        }
+        if(duration == -2) app.deadline = -1;
+        else{
+            app.deadline = System.nanoTime() + duration * 1000000L;
+            app.metrics.timerArmed();
+        }
+    }
+
+    /** Drops the Application that threw, the other Applications keep running. Loop without a server has only the
+     *  one Application, so the error goes up to it
+     *  @param remote Address and port the Application talks to
+     *  @param app Application that threw
+     *  @param e Exception it threw
+     */
+    private void fail(SocketAddress remote, Application app, Exception e) throws Exception{
+        if(this.server == null) throw e;
+        endpoints.remove(remote, app);
+        app.deadline = -1;
+        System.err.println("Error: " + remote + " " + e.getMessage());
+        if(!quiet) e.printStackTrace();
+        if(!(app instanceof Connection)) return;
+        try{
+            ((Connection)app).cleanUp();
+        }catch(Exception ce){} //Nothing else can be done
+        this.server.removeConnection((Connection)app);
+    }
+
+    /** Closes the EventLoop */
+    public void close(){
+        this.stop = true;
+        selector.wakeup();
+    }
+}
@@ -0,0 +1,115 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/** OutputSink that writes the received file straight to the disk with positional writes so the memory usage
+ *  stays the same no matter how big the file is */
+public class FileSink implements OutputSink{
+    /** Sync policy - never force the data to the disk, leave it to the operating system */
+    public static final long SYNC_NEVER = -1;
+    /** Sync policy - force the data to the disk only when the file is closed */
+    public static final long SYNC_ON_CLOSE = 0;
+
+    /** Destination file */
+    private File file;
+    /** Channel to the destination file */
+    private FileChannel channel;
+    /** Number of written bytes before the data is forced to the disk, or one of SYNC_NEVER, SYNC_ON_CLOSE */
+    private long syncInterval;
+    /** Bytes written since the last sync */
+    private long unsynced = 0;
+    /** Size of the output - rewinds will shrink it */
+    private long size = 0;
+
+    /** Constructor for FileSink, existing file will be truncated
+     *  @param file Destination file
+     *  @param syncInterval Number of written bytes before the data is forced to the disk, or one of SYNC_NEVER, SYNC_ON_CLOSE
+     */
+    public FileSink(File file, long syncInterval) throws Exception{
+        this.file = file;
+        this.syncInterval = syncInterval;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /** Writes data to the file at the given position, anything past position + length is discarded
+     *  @param position Position in the file
+     *  @param data Data to be written
+     *  @param offset Offset in the data array
+     *  @param length Number of bytes to write
+     */
+    public void write(long position, byte[] data, int offset, int length) throws Exception{
+        if(position < 0 || position > this.size) throw new Exception("Cannot write at " + position + ", output is " + this.size + " bytes long");
+        put(position, data, offset, length);
+        this.size = position + length;
+    }
+
+    /** Writes data to the file at any position, the end is never moved back
+     *  @param position Position in the file
+     *  @param data Data to be written
+     *  @param offset Offset in the data array
+     *  @param length Number of bytes to write
+     */
+    public void writeAt(long position, byte[] data, int offset, int length) throws Exception{
+        if(position < 0) throw new Exception("Cannot write at " + position);
+        put(position, data, offset, length);
+        this.size = Math.max(this.size, position + length);
+    }
+
+    /** Writes data to the channel and syncs if the policy says so
+     *  @param position Position in the file
+     *  @param data Data to be written
+     *  @param offset Offset in the data array
+     *  @param length Number of bytes to write
+     */
+    private void put(long position, byte[] data, int offset, int length) throws Exception{
+        ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+        long pos = position;
+        while(buffer.hasRemaining()) pos += channel.write(buffer, pos);
+
+        // Force the data to the disk if policy says so
+        this.unsynced += length;
+        if(this.syncInterval > 0 && this.unsynced >= this.syncInterval){
+            channel.force(false);
+            this.unsynced = 0;
+        }
+    }
+
+    /** Gets the size of the output
+     *  @return size of the output in bytes
+     */
+    public long size(){
+        return this.size;
+    }
+
+    /** Closes the file - stale bytes from rewinds past the end of output are cut off */
+    public void close() throws Exception{
+        if(!channel.isOpen()) return;
+        channel.truncate(this.size);
+        if(this.syncInterval != SYNC_NEVER) channel.force(true);
+        channel.close();
+    }
+
+    /** Gets MD5 hash of the file
+     *  @return hash digest
+     */
+    public String getHash() throws Exception{
+        return Utility.getFileHash(this.file);
+    }
+
+    /** Parses the sync policy from the command line
+     *  @param value "never", "close" or number of bytes between syncs
+     *  @return sync interval
+     */
+    public static long parseSyncInterval(String value) throws NumberFormatException{
+        if(value.equals("never")) return SYNC_NEVER;
+        if(value.equals("close")) return SYNC_ON_CLOSE;
+        long interval = Long.parseLong(value);
+        if(interval < 1) throw new NumberFormatException("Sync interval must be positive");
+        return interval;
+    }
+}
@@ -0,0 +1,108 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/** Input file for the Client, mapped into memory one window at a time. Segments are handed out as offsets in the
+ *  current window so making a segment needs no system call and no copy. Packets keep a reference to the window
+ *  they were cut from, so old windows stay valid for retransmits after the source moves on */
+public class FileSource{
+    /** Size of the file region mapped at once */
+    public static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+    /** Channel to the input file */
+    private FileChannel channel;
+    /** Position of the range in the file, positions are relative to it */
+    private long start = 0;
+    /** Length of the range - the file must not change during the transfer */
+    private long length;
+    /** Position of the next segment in the file */
+    private long position = 0;
+    /** Currently mapped window, null if nothing is mapped yet */
+    private MappedByteBuffer window = null;
+    /** Position of the window in the file */
+    private long window_start = 0;
+
+    /** Constructor for FileSource
+     *  @param file Input file
+     */
+    public FileSource(File file) throws IOException{
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.length = channel.size();
+    }
+
+    /** Constructor for FileSource that reads one byte range of the file, positions are relative to the range
+     *  @param file Input file
+     *  @param start Position of the range in the file
+     *  @param length Length of the range, cut at the end of the file
+     */
+    public FileSource(File file, long start, long length) throws IOException{
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.start = Math.min(start, channel.size());
+        this.length = Math.min(length, channel.size() - this.start);
+    }
+
+    /** Gets the length of the file
+     *  @return length in bytes
+     */
+    public long length(){
+        return this.length;
+    }
+
+    /** Gets the position of the next segment
+     *  @return position in the file
+     */
+    public long getFilePointer(){
+        return this.position;
+    }
+
+    /** Gets the number of bytes left after the position
+     *  @return remaining bytes
+     */
+    public long remaining(){
+        return this.length - this.position;
+    }
+
+    /** Moves the position, used to rewind for retransmits or to skip ahead
+     *  @param position New position in the file
+     */
+    public void seek(long position){
+        this.position = Math.max(0, Math.min(position, this.length));
+    }
+
+    /** Cuts the next segment and advances the position. The segment lives in getWindow() until the next call
+     *  @param len Maximum length of the segment
+     *  @return offset of the segment in the window
+     */
+    public int next(int len) throws Exception{
+        len = (int)Math.min(len, remaining());
+
+        // Map a new window if the segment is outside the current one
+        if(this.window == null || this.position < this.window_start || this.position + len > this.window_start + this.window.capacity()){
+            this.window_start = this.position;
+            this.window = channel.map(FileChannel.MapMode.READ_ONLY, this.start + this.window_start, Math.min(WINDOW_SIZE, this.length - this.window_start));
+        }
+
+        int offset = (int)(this.position - this.window_start);
+        this.position += len;
+        return offset;
+    }
+
+    /** Gets the window the last segment was cut from
+     *  @return mapped window of the file
+     */
+    public ByteBuffer getWindow(){
+        return this.window;
+    }
+
+    /** Closes the file, mapped windows stay readable until they are garbage collected */
+    public void close() throws Exception{
+        channel.close();
+    }
+}
@@ -0,0 +1,66 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+import java.util.Arrays;
+
+/** OutputSink that keeps the received file in the heap - only suitable for small files */
+public class MemorySink implements OutputSink{
+    /** "Output" buffer */
+    private byte[] buffer = new byte[4096];
+    /** Size of the output */
+    private int size = 0;
+
+    /** Writes data to the buffer at the given position, anything past position + length is discarded
+     *  @param position Position in the output relative to the start of the file
+     *  @param data Data to be written
+     *  @param offset Offset in the data array
+     *  @param length Number of bytes to write
+     */
+    public void write(long position, byte[] data, int offset, int length) throws Exception{
+        if(position < 0 || position > this.size) throw new Exception("Cannot write at " + position + ", output is " + this.size + " bytes long");
+        put(position, data, offset, length);
+        this.size = (int)position + length;
+    }
+
+    /** Writes data to the buffer at any position, the end is never moved back
+     *  @param position Position in the output relative to the start of the file
+     *  @param data Data to be written
+     *  @param offset Offset in the data array
+     *  @param length Number of bytes to write
+     */
+    public void writeAt(long position, byte[] data, int offset, int length) throws Exception{
+        if(position < 0 || position + length > Integer.MAX_VALUE) throw new Exception("Cannot write at " + position + ", out of range");
+        put(position, data, offset, length);
+        this.size = Math.max(this.size, (int)position + length);
+    }
+
+    /** Copies data into the buffer, the buffer grows if needed
+     *  @param position Position in the output relative to the start of the file
+     *  @param data Data to be written
+     *  @param offset Offset in the data array
+     *  @param length Number of bytes to write
+     */
+    private void put(long position, byte[] data, int offset, int length){
+        int end = (int)position + length;
+        if(end > buffer.length) buffer = Arrays.copyOf(buffer, Math.max(end, buffer.length * 2));
+        System.arraycopy(data, offset, buffer, (int)position, length);
+    }
+
+    /** Gets the size of the output
+     *  @return size of the output in bytes
+     */
+    public long size(){
+        return this.size;
+    }
+
+    /** Closes the output - nothing to release */
+    public void close(){}
+
+    /** Gets MD5 hash of the output
+     *  @return hash digest
+     */
+    public String getHash() throws Exception{
+        return Utility.getHash(Arrays.copyOf(buffer, size));
+    }
+}
@@ -0,0 +1,265 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+import java.lang.management.ManagementFactory;
+import javax.management.ObjectName;
+
+/** Counters of one Client or Connection. The counters are plain fields written only by the thread that runs the
+ *  Application, so counting costs no more than an increment - JMX reads them without locking and may see values
+ *  that lag a little. The totals of the process are kept by ProcessMetrics */
+public class Metrics implements MetricsMBean{
+    /** Number of buckets of the histograms - powers of two */
+    public static final int HISTOGRAM_BUCKETS = 32;
+
+    /** Application the metrics belong to - gauges are read from it */
+    private Application app;
+    /** Name in JMX, null if not registered */
+    private ObjectName name = null;
+    /** Time the Application started in nanoseconds */
+    private long start = System.nanoTime();
+    /** True once the counters are added to the totals of the process */
+    private boolean closed = false;
+
+    // Counters - written only by the Application's thread
+    long segments_sent = 0;
+    long segments_retransmitted = 0;
+    long bytes_delivered = 0;
+    long duplicate_acks = 0;
+    long fast_retransmits = 0;
+    long timeouts = 0;
+    long timers_armed = 0;
+    long timers_expired = 0;
+    long[] rtt_histogram = new long[HISTOGRAM_BUCKETS];
+    long[] rto_histogram = new long[HISTOGRAM_BUCKETS];
+
+    /** Constructor for Metrics, the metrics count towards the totals of the process
+     *  @param app Application the metrics belong to
+     */
+    public Metrics(Application app){
+        this.app = app;
+        ProcessMetrics.getShared().add(this);
+    }
+
+    /** Registers the metrics with JMX if the process has JMX enabled
+     *  @param type Type in the object name - Client or Connection
+     *  @param label Name in the object name
+     */
+    public void register(String type, String label){
+        if(!ProcessMetrics.getShared().isJMXEnabled() || this.name != null) return;
+        try{
+            this.name = new ObjectName("fcntcp:type=" + type + ",name=" + ObjectName.quote(label));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, this.name);
+        }catch(Exception e){
+            this.name = null;
+        }
+    }
+
+    /** Adds the counters to the totals of the process and unregisters from JMX, called once the Application is done */
+    public void close(){
+        if(this.closed) return;
+        this.closed = true;
+        ProcessMetrics.getShared().retire(this);
+        if(this.name == null) return;
+        try{
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.name);
+        }catch(Exception e){} //Nothing else can be done
+        this.name = null;
+    }
+
+    /** Counts a sent packet */
+    public void segmentSent(){
+        this.segments_sent++;
+    }
+
+    /** Counts a data segment that is sent again */
+    public void segmentRetransmitted(){
+        this.segments_retransmitted++;
+    }
+
+    /** Counts the bytes of the file delivered
+     *  @param bytes Number of bytes
+     */
+    public void delivered(long bytes){
+        if(bytes > 0) this.bytes_delivered += bytes;
+    }
+
+    /** Counts a duplicate ACK */
+    public void duplicateAck(){
+        this.duplicate_acks++;
+    }
+
+    /** Counts a fast retransmit */
+    public void fastRetransmit(){
+        this.fast_retransmits++;
+    }
+
+    /** Counts a retransmission time out */
+    public void timeout(){
+        this.timeouts++;
+    }
+
+    /** Counts a timer that is set */
+    public void timerArmed(){
+        this.timers_armed++;
+    }
+
+    /** Counts a timer that ran out */
+    public void timerExpired(){
+        this.timers_expired++;
+    }
+
+    /** Records a round trip time sample and the retransmission timeout that came out of it
+     *  @param rtt Round trip time in microseconds
+     *  @param rto Retransmission timeout in milliseconds
+     */
+    public void rtt(long rtt, int rto){
+        this.rtt_histogram[getBucket(rtt)]++;
+        this.rto_histogram[getBucket(rto)]++;
+    }
+
+    /** Records a retransmission timeout that was backed off
+     *  @param rto Retransmission timeout in milliseconds
+     */
+    public void rto(int rto){
+        this.rto_histogram[getBucket(rto)]++;
+    }
+
+    /** Gets the histogram bucket of the value
+     *  @param value Value to be counted
+     *  @return bucket - floor of log2 of the value
+     */
+    public static int getBucket(long value){
+        return Math.min(HISTOGRAM_BUCKETS - 1, 63 - Long.numberOfLeadingZeros(Math.max(1, value)));
+    }
+
+    /** Gets the number of bytes delivered
+     *  @return bytes of the file acknowledged by the server (Client) or written in order (Connection)
+     */
+    public long getBytesDelivered(){
+        return this.bytes_delivered;
+    }
+
+    /** Gets the goodput
+     *  @return bytes delivered per second since the Application started
+     */
+    public double getGoodput(){
+        long elapsed = System.nanoTime() - this.start;
+        return elapsed <= 0 ? 0 : this.bytes_delivered * 1e9 / elapsed;
+    }
+
+    /** Gets the number of packets sent
+     *  @return packets sent, including ACKs and retransmissions
+     */
+    public long getSegmentsSent(){
+        return this.segments_sent;
+    }
+
+    /** Gets the number of retransmitted segments
+     *  @return data segments sent again
+     */
+    public long getSegmentsRetransmitted(){
+        return this.segments_retransmitted;
+    }
+
+    /** Gets the number of duplicate ACKs
+     *  @return duplicate ACKs received (Client) or sent for out-of-order segments (Connection)
+     */
+    public long getDuplicateAcks(){
+        return this.duplicate_acks;
+    }
+
+    /** Gets the number of fast retransmits
+     *  @return fast retransmits
+     */
+    public long getFastRetransmits(){
+        return this.fast_retransmits;
+    }
+
+    /** Gets the number of retransmission time outs
+     *  @return retransmission time outs
+     */
+    public long getTimeouts(){
+        return this.timeouts;
+    }
+
+    /** Gets the congestion window
+     *  @return congestion window in bytes, -1 if this side doesn't send data
+     */
+    public int getCongestionWindow(){
+        return app.getCongestionWindow();
+    }
+
+    /** Gets the advertised window
+     *  @return latest receive window advertised by the server in bytes
+     */
+    public int getAdvertisedWindow(){
+        return app.getAdvertisedWindow();
+    }
+
+    /** Gets the smoothed round trip time
+     *  @return smoothed round trip time in microseconds, -1 if there's no sample yet
+     */
+    public long getSmoothedRtt(){
+        return app.srtt;
+    }
+
+    /** Gets the retransmission timeout
+     *  @return retransmission timeout in milliseconds
+     */
+    public int getRto(){
+        return app.timeout;
+    }
+
+    /** Gets the histogram of the round trip times
+     *  @return round trip time samples, bucket i counts samples from 2^i to 2^(i+1) microseconds
+     */
+    public long[] getRttHistogram(){
+        return this.rtt_histogram.clone();
+    }
+
+    /** Gets the histogram of the retransmission timeouts
+     *  @return retransmission timeouts, bucket i counts timeouts from 2^i to 2^(i+1) milliseconds
+     */
+    public long[] getRtoHistogram(){
+        return this.rto_histogram.clone();
+    }
+
+    /** Gets the number of packets dropped for a bad checksum
+     *  @return received packets dropped for a bad checksum
+     */
+    public long getChecksumDrops(){
+        Receiver receiver = app.receiver;
+        return receiver == null ? 0 : receiver.getChecksumDrops();
+    }
+
+    /** Gets the number of packets dropped for a full queue
+     *  @return received packets dropped because the packet queue was full
+     */
+    public long getQueueFullDrops(){
+        Receiver receiver = app.receiver;
+        return receiver == null ? 0 : receiver.getQueueFullDrops();
+    }
+
+    /** Gets the number of packets dropped for a full receive buffer
+     *  @return received packets dropped because the receive buffer was full
+     */
+    public long getZeroWindowDrops(){
+        Receiver receiver = app.receiver;
+        return receiver == null ? 0 : receiver.getZeroWindowDrops();
+    }
+
+    /** Gets the number of timers set
+     *  @return timers set
+     */
+    public long getTimersArmed(){
+        return this.timers_armed;
+    }
+
+    /** Gets the number of timers that ran out
+     *  @return timers that ran out before a packet arrived
+     */
+    public long getTimersExpired(){
+        return this.timers_expired;
+    }
+}
@@ -0,0 +1,97 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+
+/** Management interface of the metrics of one Client or Connection */
+public interface MetricsMBean{
+    /** Gets the number of bytes delivered
+     *  @return bytes of the file acknowledged by the server (Client) or written in order (Connection)
+     */
+    public long getBytesDelivered();
+
+    /** Gets the goodput
+     *  @return bytes delivered per second since the Application started
+     */
+    public double getGoodput();
+
+    /** Gets the number of packets sent
+     *  @return packets sent, including ACKs and retransmissions
+     */
+    public long getSegmentsSent();
+
+    /** Gets the number of retransmitted segments
+     *  @return data segments sent again
+     */
+    public long getSegmentsRetransmitted();
+
+    /** Gets the number of duplicate ACKs
+     *  @return duplicate ACKs received (Client) or sent for out-of-order segments (Connection)
+     */
+    public long getDuplicateAcks();
+
+    /** Gets the number of fast retransmits
+     *  @return fast retransmits
+     */
+    public long getFastRetransmits();
+
+    /** Gets the number of retransmission time outs
+     *  @return retransmission time outs
+     */
+    public long getTimeouts();
+
+    /** Gets the congestion window
+     *  @return congestion window in bytes, -1 if this side doesn't send data
+     */
+    public int getCongestionWindow();
+
+    /** Gets the advertised window
+     *  @return latest receive window advertised by the server in bytes
+     */
+    public int getAdvertisedWindow();
+
+    /** Gets the smoothed round trip time
+     *  @return smoothed round trip time in microseconds, -1 if there's no sample yet
+     */
+    public long getSmoothedRtt();
+
+    /** Gets the retransmission timeout
+     *  @return retransmission timeout in milliseconds
+     */
+    public int getRto();
+
+    /** Gets the histogram of the round trip times
+     *  @return round trip time samples, bucket i counts samples from 2^i to 2^(i+1) microseconds
+     */
+    public long[] getRttHistogram();
+
+    /** Gets the histogram of the retransmission timeouts
+     *  @return retransmission timeouts, bucket i counts timeouts from 2^i to 2^(i+1) milliseconds
+     */
+    public long[] getRtoHistogram();
+
+    /** Gets the number of packets dropped for a bad checksum
+     *  @return received packets dropped for a bad checksum
+     */
+    public long getChecksumDrops();
+
+    /** Gets the number of packets dropped for a full queue
+     *  @return received packets dropped because the packet queue was full
+     */
+    public long getQueueFullDrops();
+
+    /** Gets the number of packets dropped for a full receive buffer
+     *  @return received packets dropped because the receive buffer was full
+     */
+    public long getZeroWindowDrops();
+
+    /** Gets the number of timers set
+     *  @return timers set
+     */
+    public long getTimersArmed();
+
+    /** Gets the number of timers that ran out
+     *  @return timers that ran out before a packet arrived
+     */
+    public long getTimersExpired();
+}
@@ -0,0 +1,383 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.TimeUnit;
+
+/** Transport that puts a bad network in front of another transport - loss with optional bursts, corruption,
+ *  duplication, a bottleneck with a rate and a queue, delay with jitter and reordering. Every datagram is copied,
+ *  so the sender may reuse its buffers right away. Datagrams that have to wait are sent by a thread of the
+ *  emulator when they're due; without rate, delay, jitter and reordering they are sent right away on the calling
+ *  thread. Emulating both the Client and the Server side gives a lossy path in both directions */
+public class NetworkEmulator implements Transport{
+    /** Default queue of the bottleneck in bytes */
+    public static final int DEFAULT_QUEUE = 64 * 1024;
+    /** Longest extra time a reordered datagram is held back in milliseconds */
+    private static final int REORDER_HOLD = 5;
+
+    /** Transport the datagrams go out through */
+    private Transport transport;
+    /** Random numbers of the emulator - seeded for repeatable runs */
+    private Random random = new Random();
+    /** Datagrams waiting to be sent, in the order they're due */
+    private DelayQueue<DelayedDatagram> pending = new DelayQueue<DelayedDatagram>();
+    /** Thread that sends the waiting datagrams, null until the first one waits */
+    private Thread sender = null;
+    /** True once the emulator is closed */
+    private volatile boolean closed = false;
+
+    // Conditions
+    private double loss = 0;
+    private double burst = 1;
+    private int delay = 0;
+    private int jitter = 0;
+    private double reorder = 0;
+    private double duplicate = 0;
+    private double corrupt = 0;
+    private long rate = 0;
+    private int queue = DEFAULT_QUEUE;
+
+    // Loss bursts - true while datagrams are lost in a row
+    private boolean bad = false;
+
+    // Bottleneck - time in nanoseconds the datagrams already queued are through it
+    private long link_free = 0;
+
+    // Counters
+    private long order = 0;
+    private long datagrams = 0;
+    private long lost = 0;
+    private long queue_drops = 0;
+    private long corrupted = 0;
+    private long duplicated = 0;
+    private long reordered = 0;
+
+    /** Constructor for NetworkEmulator, the network is perfect until it's configured
+     *  @param transport Transport the datagrams go out through
+     */
+    public NetworkEmulator(Transport transport){
+        this.transport = transport;
+    }
+
+    /** Sets the conditions from a list like "loss=1%,burst=3,delay=20,jitter=5,rate=1m". Keys are loss,
+     *  burst, delay, jitter, reorder, duplicate, corrupt, rate, queue and seed, see the setters. Must be called
+     *  before the first datagram
+     *  @param spec Comma separated key=value pairs, fractions may end with '%', times are in milliseconds and may
+     *  end with 'ms', rate and queue may end with 'k', 'm' or 'g'
+     */
+    public void configure(String spec) throws IllegalArgumentException{
+        for(String pair : spec.split(",")){
+            if(pair.trim().isEmpty()) continue;
+            int split = pair.indexOf('=');
+            if(split == -1) throw new IllegalArgumentException("Condition must be key=value: " + pair);
+            String key = pair.substring(0, split).trim().toLowerCase();
+            String value = pair.substring(split + 1).trim().toLowerCase();
+            if(key.equals("loss")) setLoss(parseFraction(value));
+            else if(key.equals("burst")) setBurst(Double.parseDouble(value));
+            else if(key.equals("delay")) setDelay(parseTime(value));
+            else if(key.equals("jitter")) setJitter(parseTime(value));
+            else if(key.equals("reorder")) setReorder(parseFraction(value));
+            else if(key.equals("duplicate")) setDuplicate(parseFraction(value));
+            else if(key.equals("corrupt")) setCorrupt(parseFraction(value));
+            else if(key.equals("rate")) setRate(Pacer.parseRate(value));
+            else if(key.equals("queue")) setQueue((int)Math.min(Pacer.parseRate(value), Integer.MAX_VALUE));
+            else if(key.equals("seed")) setSeed(Long.parseLong(value));
+            else throw new IllegalArgumentException("Unknown condition: " + key);
+        }
+    }
+
+    /** Sets the share of datagrams that are lost
+     *  @param loss Fraction from 0 to 1
+     */
+    public void setLoss(double loss){
+        if(loss < 0 || loss > 1) throw new IllegalArgumentException("Loss out of range");
+        this.loss = loss;
+    }
+
+    /** Sets how many datagrams are lost in a row on average - losses follow the Gilbert model, the share of lost
+     *  datagrams stays the same
+     *  @param burst Average length of a loss burst, 1 for independent losses
+     */
+    public void setBurst(double burst){
+        if(burst < 1) throw new IllegalArgumentException("Burst must be at least 1");
+        this.burst = burst;
+    }
+
+    /** Sets the one way delay
+     *  @param delay Delay in milliseconds
+     */
+    public void setDelay(int delay){
+        if(delay < 0) throw new IllegalArgumentException("Delay out of range");
+        this.delay = delay;
+    }
+
+    /** Sets the jitter - the delay of each datagram is off by up to this much either way
+     *  @param jitter Jitter in milliseconds
+     */
+    public void setJitter(int jitter){
+        if(jitter < 0) throw new IllegalArgumentException("Jitter out of range");
+        this.jitter = jitter;
+    }
+
+    /** Sets the share of datagrams that are held back so the ones sent after them overtake them
+     *  @param reorder Fraction from 0 to 1
+     */
+    public void setReorder(double reorder){
+        if(reorder < 0 || reorder > 1) throw new IllegalArgumentException("Reorder out of range");
+        this.reorder = reorder;
+    }
+
+    /** Sets the share of datagrams that are sent twice
+     *  @param duplicate Fraction from 0 to 1
+     */
+    public void setDuplicate(double duplicate){
+        if(duplicate < 0 || duplicate > 1) throw new IllegalArgumentException("Duplicate out of range");
+        this.duplicate = duplicate;
+    }
+
+    /** Sets the share of datagrams that get a bit flipped
+     *  @param corrupt Fraction from 0 to 1
+     */
+    public void setCorrupt(double corrupt){
+        if(corrupt < 0 || corrupt > 1) throw new IllegalArgumentException("Corrupt out of range");
+        this.corrupt = corrupt;
+    }
+
+    /** Sets the rate of the bottleneck
+     *  @param rate Bytes per second, 0 for no bottleneck
+     */
+    public void setRate(long rate){
+        if(rate < 0) throw new IllegalArgumentException("Rate out of range");
+        this.rate = rate;
+    }
+
+    /** Sets the queue of the bottleneck - datagrams that don't fit are dropped
+     *  @param queue Queue in bytes
+     */
+    public void setQueue(int queue){
+        if(queue <= 0) throw new IllegalArgumentException("Queue out of range");
+        this.queue = queue;
+    }
+
+    /** Seeds the random numbers so a run can be repeated
+     *  @param seed Seed
+     */
+    public void setSeed(long seed){
+        this.random = new Random(seed);
+    }
+
+    /** Sends a datagram through the emulated network
+     *  @param datagram Buffer with the datagram between its position and limit, the position is advanced past it
+     *  @param target Address and port the datagram is sent to
+     */
+    public void send(ByteBuffer datagram, SocketAddress target) throws IOException{
+        byte[] data = new byte[datagram.remaining()];
+        datagram.get(data);
+        emulate(data, target);
+    }
+
+    /** Sends a datagram gathered from several buffers through the emulated network
+     *  @param datagram Buffers with the parts of the datagram, in order
+     */
+    public void write(ByteBuffer[] datagram) throws IOException{
+        int length = 0;
+        for(ByteBuffer buffer : datagram) length += buffer.remaining();
+        byte[] data = new byte[length];
+        int offset = 0;
+        for(ByteBuffer buffer : datagram){
+            int n = buffer.remaining();
+            buffer.get(data, offset, n);
+            offset += n;
+        }
+        emulate(data, null);
+    }
+
+    /** Runs the datagram through the conditions - synchronized since the connections of a Server share it
+     *  @param data Contents of the datagram
+     *  @param target Address the datagram is sent to, null for the address the channel is connected to
+     */
+    private synchronized void emulate(byte[] data, SocketAddress target) throws IOException{
+        if(this.closed) return;
+        this.datagrams++;
+        if(isLost()){
+            this.lost++;
+            return;
+        }
+
+        // Bit flip - the checksum of the receiving side should catch it
+        if(this.corrupt > 0 && data.length > 0 && random.nextDouble() < this.corrupt){
+            this.corrupted++;
+            data[random.nextInt(data.length)] ^= (byte)(1 << random.nextInt(8));
+        }
+
+        forward(data, target);
+        if(this.duplicate > 0 && random.nextDouble() < this.duplicate){
+            this.duplicated++;
+            forward(data, target);
+        }
+    }
+
+    /** Checks if the next datagram is lost - independent losses, or the Gilbert model if losses come in bursts
+     *  @return true if the datagram is lost, otherwise false
+     */
+    private boolean isLost(){
+        if(this.loss <= 0) return false;
+        if(this.burst <= 1) return random.nextDouble() < this.loss;
+
+        // Bursts end with probability 1/burst, they start often enough that loss is the share of lost datagrams
+        double leave = 1 / this.burst;
+        double enter = this.loss * leave / (1 - this.loss);
+        if(this.bad) this.bad = random.nextDouble() >= leave;
+        else this.bad = random.nextDouble() < enter;
+        return this.bad;
+    }
+
+    /** Sends the datagram now or when it's due - after the bottleneck, the delay and the jitter
+     *  @param data Contents of the datagram
+     *  @param target Address the datagram is sent to, null for the address the channel is connected to
+     */
+    private void forward(byte[] data, SocketAddress target) throws IOException{
+        if(this.rate == 0 && this.delay == 0 && this.jitter == 0 && this.reorder == 0){
+            deliver(data, target);
+            return;
+        }
+        long now = System.nanoTime();
+        long due = now;
+
+        // Bottleneck - the datagram waits for the ones ahead of it, tail drop if the queue is full
+        if(this.rate > 0){
+            long start = this.link_free - now > 0 ? this.link_free : now;
+            long backlog = (long)((start - now) * (double)this.rate / 1e9);
+            if(backlog + data.length > this.queue){
+                this.queue_drops++;
+                return;
+            }
+            this.link_free = start + (long)(data.length * 1e9 / this.rate);
+            due = this.link_free;
+        }
+
+        // Delay with jitter, reordered datagrams are held back a little longer
+        long wait = this.delay * 1000000L;
+        if(this.jitter > 0) wait += (long)((random.nextDouble() * 2 - 1) * this.jitter * 1000000L);
+        if(this.reorder > 0 && random.nextDouble() < this.reorder){
+            this.reordered++;
+            wait += (1 + random.nextInt(REORDER_HOLD)) * 1000000L;
+        }
+        due += Math.max(0, wait);
+
+        pending.add(new DelayedDatagram(data, target, due, this.order++));
+        if(this.sender == null) startSender();
+    }
+
+    /** Starts the thread that sends the datagrams when they're due, it stops once the emulator is closed and
+     *  nothing is waiting */
+    private void startSender(){
+        this.sender = new Thread("NetworkEmulator"){
+            public void run(){
+                try{
+                    while(!closed || !pending.isEmpty()){
+                        DelayedDatagram datagram = pending.poll(10, TimeUnit.MILLISECONDS);
+                        if(datagram == null) continue;
+                        try{
+                            deliver(datagram.data, datagram.target);
+                        }catch(IOException e){} //Lost, like on a real network
+                    }
+                }catch(InterruptedException e){} //Nothing else can be done
+            }
+        };
+        this.sender.setDaemon(true);
+        this.sender.start();
+    }
+
+    /** Sends the datagram through the transport
+     *  @param data Contents of the datagram
+     *  @param target Address the datagram is sent to, null for the address the channel is connected to
+     */
+    private void deliver(byte[] data, SocketAddress target) throws IOException{
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if(target == null) transport.write(new ByteBuffer[]{ buffer });
+        else transport.send(buffer, target);
+    }
+
+    /** Stops taking datagrams and waits until the waiting ones are sent */
+    public void close(){
+        Thread sender;
+        synchronized(this){
+            this.closed = true;
+            sender = this.sender;
+        }
+        if(sender != null){
+            try{
+                sender.join();
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+        }
+        transport.close();
+    }
+
+    /** Gets the number of datagrams sent into the emulator
+     *  @return number of datagrams, not counting duplicates
+     */
+    public synchronized long getDatagrams(){
+        return this.datagrams;
+    }
+
+    /** Gets the number of datagrams dropped - lost or turned away by the full queue
+     *  @return number of datagrams
+     */
+    public synchronized long getDropped(){
+        return this.lost + this.queue_drops;
+    }
+
+    /** Gets the number of datagrams turned away by the full queue of the bottleneck
+     *  @return number of datagrams
+     */
+    public synchronized long getQueueDrops(){
+        return this.queue_drops;
+    }
+
+    /** Gets the number of datagrams that got a bit flipped
+     *  @return number of datagrams
+     */
+    public synchronized long getCorrupted(){
+        return this.corrupted;
+    }
+
+    /** Gets the number of datagrams sent twice
+     *  @return number of datagrams
+     */
+    public synchronized long getDuplicated(){
+        return this.duplicated;
+    }
+
+    /** Gets the number of datagrams held back to be overtaken
+     *  @return number of datagrams
+     */
+    public synchronized long getReordered(){
+        return this.reordered;
+    }
+
+    /** Parses a fraction - "0.01" or "1%"
+     *  @param value Fraction, may end with '%'
+     *  @return fraction from 0 to 1
+     */
+    private static double parseFraction(String value) throws NumberFormatException{
+        if(value.endsWith("%")) return Double.parseDouble(value.substring(0, value.length() - 1)) / 100;
+        return Double.parseDouble(value);
+    }
+
+    /** Parses a time in milliseconds - "20" or "20ms"
+     *  @param value Time, may end with 'ms'
+     *  @return time in milliseconds
+     */
+    private static int parseTime(String value) throws NumberFormatException{
+        if(value.endsWith("ms")) value = value.substring(0, value.length() - 2);
+        return Integer.parseInt(value);
+    }
+}
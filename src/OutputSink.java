@@ -0,0 +1,38 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+
+/** Destination for the bytes the Server receives. Writes are positional (relative to the start of the file) and
+ *  a write always marks the end of the output - a write behind the current end behaves like a rewind */
+public interface OutputSink{
+    /** Writes data to the output at the given position, anything past position + length is discarded
+     *  @param position Position in the output relative to the start of the file
+     *  @param data Data to be written
+     *  @param offset Offset in the data array
+     *  @param length Number of bytes to write
+     */
+    public void write(long position, byte[] data, int offset, int length) throws Exception;
+
+    /** Writes data to the output at any position, the end is never moved back - used when the ranges of the file
+     *  come in over several connections and the gaps between them are filled later
+     *  @param position Position in the output relative to the start of the file
+     *  @param data Data to be written
+     *  @param offset Offset in the data array
+     *  @param length Number of bytes to write
+     */
+    public void writeAt(long position, byte[] data, int offset, int length) throws Exception;
+
+    /** Gets the size of the output
+     *  @return size of the output in bytes
+     */
+    public long size();
+
+    /** Closes the output, nothing can be written afterwards */
+    public void close() throws Exception;
+
+    /** Gets MD5 hash of the output, should be called after close()
+     *  @return hash digest, null if the output is only a part of the file
+     */
+    public String getHash() throws Exception;
+}
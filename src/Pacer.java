@@ -0,0 +1,94 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+
+/** Token bucket that spreads the segments of a window over the round trip instead of sending them back to back.
+ *  Tokens are bytes and come in at the pacing rate, a segment goes out only if the bucket isn't in debt. The
+ *  bucket holds at least what comes in during one timer tick, since the timers can't wait any less than that */
+public class Pacer{
+    /** Shortest wait of the timers in nanoseconds */
+    private static final long GRANULARITY = 1000000L;
+
+    /** Pacing rate in bytes per second, 0 if not paced */
+    private double rate = 0;
+    /** Hard cap of the rate in bytes per second, 0 if there's no cap */
+    private long max_rate = 0;
+    /** Bytes that may be sent right now, negative if the last segment went over */
+    private double tokens = 0;
+    /** Most bytes the bucket holds */
+    private double burst = 0;
+    /** Time the bucket was last filled in nanoseconds */
+    private long last = System.nanoTime();
+
+    /** Sets the hard cap of the rate
+     *  @param max_rate Most bytes per second that are ever sent, 0 for no cap
+     */
+    public void setMaxRate(long max_rate){
+        this.max_rate = max_rate;
+    }
+
+    /** Sets the pacing rate, the cap is applied on top of it
+     *  @param rate Bytes per second, 0 to not pace
+     *  @param mss Maximum segment size - the bucket holds at least two segments
+     */
+    public void setRate(double rate, int mss){
+        refill();
+        if(this.max_rate > 0 && (rate <= 0 || rate > this.max_rate)) rate = this.max_rate;
+        this.rate = rate;
+        this.burst = Math.max(2.0 * mss, rate * GRANULARITY / 1e9);
+        this.tokens = Math.min(this.tokens, this.burst);
+    }
+
+    /** Gets the rate the segments are sent at
+     *  @return bytes per second, 0 if not paced
+     */
+    public double getRate(){
+        return this.rate;
+    }
+
+    /** Fills the bucket with the tokens that came in since the last time */
+    private void refill(){
+        long now = System.nanoTime();
+        this.tokens = Math.min(this.burst, this.tokens + (now - this.last) * this.rate / 1e9);
+        this.last = now;
+    }
+
+    /** Takes the tokens for a segment
+     *  @param length Length of the segment
+     *  @return true if the segment may be sent now, false if it has to wait
+     */
+    public boolean trySend(int length){
+        if(this.rate <= 0) return true;
+        refill();
+        if(this.tokens < 0) return false;
+        this.tokens -= length;
+        return true;
+    }
+
+    /** Gets the wait until the next segment may be sent
+     *  @return time in milliseconds, at least 1
+     */
+    public int getDelay(){
+        if(this.rate <= 0) return 1;
+        refill();
+        if(this.tokens >= 0) return 1;
+        return (int)Math.max(1, Math.ceil(-this.tokens * 1000 / this.rate));
+    }
+
+    /** Parses the rate cap from the command line
+     *  @param value Number of bytes per second, 'k', 'm' or 'g' suffix allowed
+     *  @return rate in bytes per second
+     */
+    public static long parseRate(String value) throws NumberFormatException{
+        long multiplier = 1;
+        String lower = value.toLowerCase();
+        if(lower.endsWith("k")) multiplier = 1024;
+        else if(lower.endsWith("m")) multiplier = 1024 * 1024;
+        else if(lower.endsWith("g")) multiplier = 1024 * 1024 * 1024;
+        if(multiplier != 1) lower = lower.substring(0, lower.length() - 1);
+        long rate = Long.parseLong(lower) * multiplier;
+        if(rate <= 0) throw new NumberFormatException("Rate out of range");
+        return rate;
+    }
+}
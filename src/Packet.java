@@ -4,13 +4,9 @@
  */
 
 import java.io.IOException;
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
 import java.net.InetAddress;
-import java.net.SocketAddress;
-import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
 
 /* Convenience Class to handle UDP datagrams
 
@@ -30,10 +26,15 @@ TCP Datagram - 576 bytes - IP header = 556 - 8 bytes UDP header = 548 bytes and
 1 bit ACK bit
 1 bit SYN bit
 1 bit FIN bit
-13 bits of nothing
+8 bit options length
+8 bit checksum type
+16 bit checksum high bits - only for 32 bit checksum
+9 bits of nothing
 16 bit length
 16 bit window size
-16 bit checksum
+16 bit checksum - low bits for 32 bit checksum
+options - kind, length, value like TCP options
+data
 */
 
 public class Packet{
@@ -43,6 +44,67 @@ public class Packet{
     /** Max length for data to fit in UDP packet */
     public static final int MAX_PACKET_LENGTH = 556;
 
+    /** Length of the header without options */
+    public static final int HEADER_LENGTH = 30;
+
+    /** Max length of the options */
+    public static final int MAX_OPTIONS_LENGTH = 40;
+
+    /** Max length of the datagram with header, options and data */
+    public static final int MAX_DATAGRAM_LENGTH = HEADER_LENGTH + MAX_OPTIONS_LENGTH + MAX_DATA_LENGTH;
+
+    /** Largest data length that can be negotiated - biggest UDP payload minus header and options */
+    public static final int MAX_MSS = 65507 - HEADER_LENGTH - MAX_OPTIONS_LENGTH;
+
+    /** Option kind - maximum segment size the sender can receive, only on SYN */
+    public static final byte OPTION_MSS = 2;
+
+    /** Max number of SACK blocks in a packet */
+    public static final int MAX_SACK_BLOCKS = 4;
+
+    /** Option kind - window scale shift, only on SYN */
+    public static final byte OPTION_WINDOW_SCALE = 3;
+
+    /** Max window scale shift - 65535 << 14 is about 1GB */
+    public static final int MAX_WINDOW_SCALE = 14;
+
+    /** Option kind - SACK is permitted, only on SYN */
+    public static final byte OPTION_SACK_PERMITTED = 4;
+
+    /** Option kind - SACK blocks */
+    public static final byte OPTION_SACK = 5;
+
+    /** Option kind - timestamp of the sender and echo of the peer's, on every packet once both sides sent it on SYN */
+    public static final byte OPTION_TIMESTAMP = 8;
+
+    /** Option kind - alternate checksum request, only on SYN */
+    public static final byte OPTION_CHECKSUM = 14;
+
+    /** Option kind - the connection carries one byte range of a file sent over several connections, only on SYN */
+    public static final byte OPTION_STREAM = 15;
+
+    /** Option kind - MD5 of the whole file, only on the client's FIN so the server can check what it received */
+    public static final byte OPTION_DIGEST = 16;
+
+    /** Length of the MD5 in the digest option */
+    public static final int DIGEST_LENGTH = 16;
+
+    /** Max number of connections one file can be sent over */
+    public static final int MAX_STREAMS = 255;
+
+    /** Checksum type - CRC16 mixed with the header, always used for SYN */
+    public static final byte CHECKSUM_CRC16 = 0;
+
+    /** Checksum type - CRC32C over the whole packet */
+    public static final byte CHECKSUM_CRC32C = 1;
+
+    /** CRC32C for each thread - intrinsified by the JVM */
+    private static final ThreadLocal<CRC32C> crc32c = new ThreadLocal<CRC32C>(){
+        protected CRC32C initialValue(){
+            return new CRC32C();
+        }
+    };
+
 
     /** Sequence number on TCP header */
     public int seq_num;
@@ -58,12 +120,44 @@ public class Packet{
     public short window;
     /** Data on TCP packet */
     public byte[] data;
+    /** Data on TCP packet as a region of a shared buffer, used when data is null */
+    public ByteBuffer payload = null;
+    /** Offset of the data in the payload buffer */
+    public int payload_offset = 0;
     /** Data length value on TCP header */
     public int length;
     /** Sender address on UDP header */
     public InetAddress senderAddress;
     /** Sender port on UDP header */
     public int senderPort;
+    /** SACK permitted option, only on SYN */
+    public boolean sack_permitted = false;
+    /** SACK option - pairs of start and end sequence numbers of the received blocks, null if none */
+    public int[] sack_blocks = null;
+    /** Checksum type of this packet */
+    public byte checksum_type = CHECKSUM_CRC16;
+    /** Alternate checksum option, only on SYN - CHECKSUM_CRC16 if none */
+    public byte checksum_option = CHECKSUM_CRC16;
+    /** Window scale option, only on SYN - -1 if none */
+    public byte window_scale = -1;
+    /** Maximum segment size option, only on SYN - 0 if none */
+    public int mss = 0;
+    /** Timestamp option - true if the packet carries ts_val and ts_ecr */
+    public boolean timestamp = false;
+    /** Time the packet was sent in microseconds - kept by the sender even if the option is not sent */
+    public int ts_val = 0;
+    /** Latest timestamp of the peer echoed back, 0 if none */
+    public int ts_ecr = 0;
+    /** Stream option, only on SYN - number of connections the file is sent over, 0 if none */
+    public int stream_count = 0;
+    /** Stream option - identifies the file among the client's transfers */
+    public int stream_id = 0;
+    /** Stream option - index of this connection */
+    public int stream_index = 0;
+    /** Stream option - position of this connection's byte range in the file */
+    public long stream_offset = 0;
+    /** Digest option, only on FIN - MD5 of the whole file, null if none */
+    public byte[] digest = null;
 
     /** Constructor with data
      *  @param seq_num Sequence number
@@ -141,49 +235,278 @@ public class Packet{
         sb.append(this.syn_bit);
         sb.append("\n");
         sb.append("Data Length: ");
-        if(this.data != null) sb.append(this.data.length);
-        else sb.append(0);
+        sb.append(getDataLength());
         sb.append("\n");
         sb.append("Window size: ");
         sb.append(this.window);
         sb.append("\n");
+        if(this.checksum_type != CHECKSUM_CRC16) sb.append("Checksum type: " + this.checksum_type + "\n");
+        if(this.checksum_option != CHECKSUM_CRC16) sb.append("Alternate checksum: " + this.checksum_option + "\n");
+        if(this.sack_permitted) sb.append("SACK permitted\n");
+        if(this.timestamp) sb.append("Timestamp: " + this.ts_val + " echo: " + this.ts_ecr + "\n");
+        if(this.digest != null) sb.append("Digest: " + Utility.byteArrayToHex(this.digest) + "\n");
+        if(this.stream_count != 0) sb.append("Stream: " + this.stream_index + " of " + this.stream_count + " at " + this.stream_offset + " id: " + this.stream_id + "\n");
+        if(this.sack_blocks != null){
+            sb.append("SACK blocks:");
+            for(int i = 0; i < this.sack_blocks.length; i += 2){
+                sb.append(" ");
+                sb.append(this.sack_blocks[i]);
+                sb.append("-");
+                sb.append(this.sack_blocks[i + 1]);
+            }
+            sb.append("\n");
+        }
 
         return sb.toString();
     }
 
+    /** Gets the length of the data that goes on the wire
+     *  @return data length, 0 if there's no data
+     */
+    public int getDataLength(){
+        return this.data == null && this.payload == null ? 0 : this.length;
+    }
+
+    /** Points the data at a region of a shared buffer, nothing is copied until the packet is encoded
+     *  @param payload Buffer that holds the data
+     *  @param offset Offset of the data in the buffer
+     *  @param length Length of the data
+     */
+    public void setPayload(ByteBuffer payload, int offset, int length){
+        this.data = null;
+        this.payload = payload;
+        this.payload_offset = offset;
+        this.length = length;
+    }
+
+    /** Gets the length of the options
+     *  @return options length in bytes
+     */
+    public int getOptionsLength(){
+        int options_length = 0;
+        if(this.checksum_option != CHECKSUM_CRC16) options_length += 3;
+        if(this.window_scale >= 0) options_length += 3;
+        if(this.mss != 0) options_length += 4;
+        if(this.sack_permitted) options_length += 2;
+        if(this.timestamp) options_length += 10;
+        if(this.stream_count != 0) options_length += 16;
+        if(this.digest != null) options_length += 2 + DIGEST_LENGTH;
+        if(this.sack_blocks != null && this.sack_blocks.length != 0) options_length += 2 + getSACKBlockCount() * 8;
+        return options_length;
+    }
+
+    /** Gets the number of SACK blocks that go on the wire - one less if the timestamp takes room
+     *  @return number of SACK blocks
+     */
+    private int getSACKBlockCount(){
+        return Math.min(this.sack_blocks.length / 2, this.timestamp ? MAX_SACK_BLOCKS - 1 : MAX_SACK_BLOCKS);
+    }
+
+    /** Gets the length of the packet on the wire
+     *  @return packet length with header, options and data
+     */
+    public int getEncodedLength(){
+        return HEADER_LENGTH + getOptionsLength() + getDataLength();
+    }
+
     /** Converts the packet to byte array
     *   @return byte array form of packet
     */
     public byte[] toByteArray() throws IOException{
+        ByteBuffer buffer = ByteBuffer.allocate(getEncodedLength());
+        encode(buffer);
+        return buffer.array();
+    }
+
+    /** Encodes the packet into the buffer at its position, the position is advanced past the packet. Nothing is
+     *  allocated so the buffer can be reused for every packet
+     *  @param buffer Heap or direct buffer with at least getEncodedLength() bytes remaining
+     *  @return number of bytes written
+     */
+    public int encode(ByteBuffer buffer) throws IOException{
+        int length = getDataLength();
+        int start = buffer.position();
+        int options_length = encodeHeader(buffer, length, length);
+
+        //Data
+        if(length != 0 && this.data != null) buffer.put(this.data, 0, length);
+        else if(length != 0){
+            buffer.put(buffer.position(), this.payload, this.payload_offset, length);
+            buffer.position(buffer.position() + length);
+        }
+
+        //Checksum in the buffer
+        if(this.checksum_type == CHECKSUM_CRC32C){
+            int crc = crc32c(buffer, start, buffer.position() - start) ^ senderPort;
+            buffer.putChar(start + 13, (char)(crc >>> 16));
+            buffer.putChar(start + 28, (char)crc);
+        }else{
+            int crc = CRC16.update(0, buffer, start + HEADER_LENGTH + options_length, length);
+            crc = CRC16.update(crc, buffer, start + HEADER_LENGTH, options_length);
+            buffer.putChar(start + 28, checksum(crc, seq_num, ack_num, ack_bit, fin_bit, syn_bit, window, senderPort));
+        }
+
+        return buffer.position() - start;
+    }
+
+    /** Encodes only the header and options into the buffer, the data stays where it is so the datagram can go out
+     *  with a gather write of both buffers. Checksum still covers the data
+     *  @param buffer Heap or direct buffer with at least HEADER_LENGTH + MAX_OPTIONS_LENGTH bytes remaining
+     *  @return number of bytes written
+     */
+    public int encodeHeader(ByteBuffer buffer) throws IOException{
+        int length = getDataLength();
+        int start = buffer.position();
+        int options_length = encodeHeader(buffer, length, 0);
+
+        //Checksum in the header - data is read from where it is
+        if(this.checksum_type == CHECKSUM_CRC32C){
+            CRC32C crc = crc32c.get();
+            crc.reset();
+            update(crc, buffer, start, 13);
+            update(crc, buffer, start + 15, 13);
+            update(crc, buffer, start + HEADER_LENGTH, options_length);
+            if(length != 0 && this.data != null) crc.update(this.data, 0, length);
+            else if(length != 0) update(crc, this.payload, this.payload_offset, length);
+            int value = (int)crc.getValue() ^ senderPort;
+            buffer.putChar(start + 13, (char)(value >>> 16));
+            buffer.putChar(start + 28, (char)value);
+        }else{
+            int crc = 0;
+            if(length != 0 && this.data != null) crc = CRC16.update(0, this.data, 0, length);
+            else if(length != 0) crc = CRC16.update(0, this.payload, this.payload_offset, length);
+            crc = CRC16.update(crc, buffer, start + HEADER_LENGTH, options_length);
+            buffer.putChar(start + 28, checksum(crc, seq_num, ack_num, ack_bit, fin_bit, syn_bit, window, senderPort));
+        }
+
+        return buffer.position() - start;
+    }
+
+    /** Writes the header and options at the buffer's position, checksum fields are left empty
+     *  @param buffer Buffer to write to
+     *  @param length Length of the data
+     *  @param room Bytes of data that must fit in the buffer after the options
+     *  @return options length in bytes
+     */
+    private int encodeHeader(ByteBuffer buffer, int length, int room) throws IOException{
         //Data needs to be under 548 bytes to survive the routing in the network as specified in RFC
-        if(this.data != null && this.data.length > MAX_PACKET_LENGTH) throw new IOException("Data is too large!");
-
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        int length = 0;
-        if(data != null) length = this.data.length;
-        char checksum = calculateCRC16(seq_num, ack_num, ack_bit, fin_bit, syn_bit, window, data, length, senderAddress, senderPort);
-
-        baos = new ByteArrayOutputStream();
-        dos = new DataOutputStream(baos);
-        dos.writeInt(this.seq_num);
-        dos.writeInt(this.ack_num);
-        dos.writeBoolean(this.ack_bit);
-        dos.writeBoolean(this.fin_bit);
-        dos.writeBoolean(this.syn_bit);
-        for(int i = 0; i < 13; i++) dos.writeBoolean(false); //Other 13 bits remains unused
-        if(this.data != null) dos.writeShort(this.data.length);
-        else dos.writeShort(0);
-        dos.writeShort(this.window);
-        dos.writeChar(checksum); //Checksum
-        if(this.data != null) dos.write(this.data, 0, data.length); //Data
-
-        byte[] packet = baos.toByteArray();
-
-        assert(packet.length <= 548);
-
-        return packet;
+        if(length > MAX_MSS) throw new IOException("Data is too large!");
+        int options_length = getOptionsLength();
+        if(options_length > MAX_OPTIONS_LENGTH) throw new IOException("Options are too large!");
+        if(buffer.remaining() < HEADER_LENGTH + options_length + room) throw new IOException("Buffer is too small!");
+
+        buffer.putInt(this.seq_num);
+        buffer.putInt(this.ack_num);
+        buffer.put((byte)(this.ack_bit ? 1 : 0));
+        buffer.put((byte)(this.fin_bit ? 1 : 0));
+        buffer.put((byte)(this.syn_bit ? 1 : 0));
+        buffer.put((byte)options_length); //Options length
+        buffer.put(this.checksum_type); //Checksum type
+        for(int i = 0; i < 11; i++) buffer.put((byte)0); //Checksum high bits are filled in at the end, other 9 bits remains unused
+        buffer.putShort((short)length);
+        buffer.putShort(this.window);
+        buffer.putChar((char)0); //Checksum is filled in at the end
+
+        //Options
+        if(this.checksum_option != CHECKSUM_CRC16){
+            buffer.put(OPTION_CHECKSUM);
+            buffer.put((byte)3);
+            buffer.put(this.checksum_option);
+        }
+        if(this.mss != 0){
+            buffer.put(OPTION_MSS);
+            buffer.put((byte)4);
+            buffer.putChar((char)this.mss);
+        }
+        if(this.window_scale >= 0){
+            buffer.put(OPTION_WINDOW_SCALE);
+            buffer.put((byte)3);
+            buffer.put(this.window_scale);
+        }
+        if(this.sack_permitted){
+            buffer.put(OPTION_SACK_PERMITTED);
+            buffer.put((byte)2);
+        }
+        if(this.stream_count != 0){
+            buffer.put(OPTION_STREAM);
+            buffer.put((byte)16);
+            buffer.putInt(this.stream_id);
+            buffer.put((byte)this.stream_count);
+            buffer.put((byte)this.stream_index);
+            buffer.putLong(this.stream_offset);
+        }
+        if(this.digest != null){
+            buffer.put(OPTION_DIGEST);
+            buffer.put((byte)(2 + DIGEST_LENGTH));
+            buffer.put(this.digest, 0, DIGEST_LENGTH);
+        }
+        if(this.timestamp){
+            buffer.put(OPTION_TIMESTAMP);
+            buffer.put((byte)10);
+            buffer.putInt(this.ts_val);
+            buffer.putInt(this.ts_ecr);
+        }
+        if(this.sack_blocks != null && this.sack_blocks.length != 0){
+            int blocks = getSACKBlockCount();
+            buffer.put(OPTION_SACK);
+            buffer.put((byte)(2 + blocks * 8));
+            for(int i = 0; i < blocks * 2; i++) buffer.putInt(this.sack_blocks[i]);
+        }
+
+        return options_length;
+    }
+
+    /** Fills this packet from the decoded packet, the data array is reused when it's big enough
+     *  @param view Decoded packet
+     *  @param address IP address of sender
+     *  @param port port number of sender
+     */
+    public void set(PacketView view, InetAddress address, int port){
+        this.seq_num = view.getSeqNum();
+        this.ack_num = view.getAckNum();
+        this.ack_bit = view.isAck();
+        this.fin_bit = view.isFin();
+        this.syn_bit = view.isSyn();
+        this.window = view.getWindow();
+        this.length = view.getDataLength();
+        if(this.data == null || this.data.length < this.length) this.data = new byte[Math.max(this.length, MAX_DATA_LENGTH)];
+        view.getData(this.data, 0);
+        this.senderAddress = address;
+        this.senderPort = port;
+        this.checksum_type = view.getChecksumType();
+        this.checksum_option = view.getChecksumOption();
+        this.sack_permitted = view.isSACKPermitted();
+        this.window_scale = view.getWindowScale();
+        this.mss = view.getMSS();
+        this.timestamp = view.hasTimestamp();
+        this.ts_val = view.getTSVal();
+        this.ts_ecr = view.getTSEcr();
+        this.stream_count = view.getStreamCount();
+        this.stream_id = view.getStreamId();
+        this.stream_index = view.getStreamIndex();
+        this.stream_offset = view.getStreamOffset();
+        if(!view.hasDigest()) this.digest = null;
+        else{
+            if(this.digest == null) this.digest = new byte[DIGEST_LENGTH];
+            view.getDigest(this.digest);
+        }
+        int blocks = view.getSACKBlockCount();
+        if(blocks == 0) this.sack_blocks = null;
+        else{
+            if(this.sack_blocks == null || this.sack_blocks.length != blocks * 2) this.sack_blocks = new int[blocks * 2];
+            for(int i = 0; i < blocks; i++){
+                this.sack_blocks[i * 2] = view.getSACKStart(i);
+                this.sack_blocks[i * 2 + 1] = view.getSACKEnd(i);
+            }
+        }
+    }
+
+    /** Gets the length of the largest datagram for the maximum segment size
+     *  @param mss Maximum segment size
+     *  @return datagram length with header, options and data
+     */
+    public static int getDatagramLength(int mss){
+        return HEADER_LENGTH + MAX_OPTIONS_LENGTH + mss;
     }
 
     /** Method to build packet from byte array
@@ -193,30 +516,16 @@ public class Packet{
      *  @param port port number of sender
      */
     public static Packet buildPacketFromByteArray(byte[] packet, int length, InetAddress address, int port) throws Exception{
-        if(packet.length < 16 && length < 16) throw new Exception("Corrupted Packet");
         if(packet.length < length) throw new Exception("Corrupted Packet");
 
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(packet, 0, length));
-
-        int seq_num = dis.readInt();
-        int ack_num = dis.readInt();
-        boolean ack_bit = dis.readBoolean();
-        boolean fin_bit = dis.readBoolean();
-        boolean syn_bit = dis.readBoolean();
-        for(int i = 0; i < 13; i++) dis.readBoolean(); //Skip 13 bits
-        length = dis.readShort();
-        short window = dis.readShort();
-        char checksum = dis.readChar();
-        byte[] data = new byte[length];
-        dis.read(data, 0, length);
-
-        //Checksum the packet
-        char checksum_packet = calculateCRC16(seq_num, ack_num, ack_bit, fin_bit, syn_bit, window, data, length, address, port);
-
-        Packet pkt = new Packet(seq_num, ack_num, ack_bit, fin_bit, syn_bit, window, data, address, port);
+        PacketView view = new PacketView();
+        view.wrap(ByteBuffer.wrap(packet), 0, length);
 
         //Check if packet is corrupted
-        if(checksum_packet != checksum) throw new Exception("Corrupted Packet");
+        if(!view.isChecksumValid(port)) throw new Exception("Corrupted Packet");
+
+        Packet pkt = new Packet(view.getSeqNum(), view.getAckNum(), view.isAck(), view.isFin(), view.isSyn(), view.getWindow(), new byte[view.getDataLength()], address, port);
+        pkt.set(view, address, port);
 
         return pkt;
     }
@@ -234,15 +543,40 @@ public class Packet{
      *  @param senderPort Sender's port number
      */
     public static char calculateCRC16(int seq_num, int ack_num, boolean ack_bit, boolean fin_bit, boolean syn_bit, short window, byte[] data, int length, InetAddress address, int port){
-        int j;
-        int crc = 0;
-        for(int i = 0; i < length; i++){
-            for (j = 0x80; j != 0; j >>= 1) {
-                if((crc & 0x8000) != 0)  crc = (char)((crc << 1) ^ 0x8005);
-                else crc = (char)(crc << 1);
-                if ((data[i] & j) != 0) crc ^= 0x8005;
-            }
-        }
+        return calculateCRC16(seq_num, ack_num, ack_bit, fin_bit, syn_bit, window, data, length, null, address, port);
+    }
+
+    /** Checksum function using CRC16
+     *  @param seq_num Sequence number
+     *  @param ack_num Acknowledgement number
+     *  @param ack_bit Acknowledgement bit
+     *  @param fin_bit Finish bit
+     *  @param syn_bit Synchronize bit
+     *  @param window Receiving Window value
+     *  @param data Data
+     *  @param length Data length
+     *  @param options Options, null or empty if there's no option
+     *  @param senderAddress Sender's IP address
+     *  @param senderPort Sender's port number
+     */
+    public static char calculateCRC16(int seq_num, int ack_num, boolean ack_bit, boolean fin_bit, boolean syn_bit, short window, byte[] data, int length, byte[] options, InetAddress address, int port){
+        int crc = CRC16.update(0, data, 0, length);
+        if(options != null) crc = CRC16.update(crc, options, 0, options.length);
+        return checksum(crc, seq_num, ack_num, ack_bit, fin_bit, syn_bit, window, port);
+    }
+
+    /** Mixes the header into the CRC of data and options
+     *  @param crc CRC16 of data and options
+     *  @param seq_num Sequence number
+     *  @param ack_num Acknowledgement number
+     *  @param ack_bit Acknowledgement bit
+     *  @param fin_bit Finish bit
+     *  @param syn_bit Synchronize bit
+     *  @param window Receiving Window value
+     *  @param port Sender's port number
+     *  @return checksum
+     */
+    static char checksum(int crc, int seq_num, int ack_num, boolean ack_bit, boolean fin_bit, boolean syn_bit, short window, int port){
         //System.out.println("dcrc: " + crc);
         //int hash = address.hashCode();
         int hash = 0;
@@ -258,6 +592,41 @@ public class Packet{
         return (char)crc;
     }
 
+    /** Runs CRC32C over a region of the buffer, buffer's position and limit are not changed
+     *  @param crc CRC32C to update
+     *  @param buffer buffer with the region
+     *  @param offset index of the region in the buffer
+     *  @param length length of the region
+     */
+    private static void update(CRC32C crc, ByteBuffer buffer, int offset, int length){
+        int position = buffer.position();
+        int limit = buffer.limit();
+        buffer.limit(offset + length).position(offset);
+        crc.update(buffer);
+        buffer.limit(limit).position(position);
+    }
+
+    /** Runs CRC32C over the packet in the buffer except the checksum fields, buffer's position and limit are not changed
+     *  @param buffer buffer with the packet
+     *  @param offset index of the packet in the buffer
+     *  @param length length of the packet
+     *  @return CRC32C value
+     */
+    static int crc32c(ByteBuffer buffer, int offset, int length){
+        CRC32C crc = crc32c.get();
+        crc.reset();
+        int position = buffer.position();
+        int limit = buffer.limit();
+        buffer.limit(offset + 13).position(offset);
+        crc.update(buffer);
+        buffer.limit(offset + 28).position(offset + 15);
+        crc.update(buffer);
+        buffer.limit(offset + length).position(offset + HEADER_LENGTH);
+        crc.update(buffer);
+        buffer.limit(limit).position(position);
+        return (int)crc.getValue();
+    }
+
     /** Convenience method to display byte in binary format
      *  @param byte
      *  @return String representation of byte in binary format
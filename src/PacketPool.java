@@ -0,0 +1,43 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+import java.util.concurrent.ArrayBlockingQueue;
+
+/** Bounded pool of received Packets so the receive path doesn't allocate a Packet and its data array for every
+ *  datagram. A packet is taken before the datagram is decoded into it and recycled once the application loop is
+ *  done with it. Safe to share between the thread that receives and the threads that consume */
+public class PacketPool{
+    /** Packets ready to be reused */
+    private ArrayBlockingQueue<Packet> free;
+
+    /** Constructor for PacketPool
+     *  @param capacity Max number of idle packets kept, extra recycled packets are left to the garbage collector
+     */
+    public PacketPool(int capacity){
+        this.free = new ArrayBlockingQueue<Packet>(capacity);
+    }
+
+    /** Takes a packet from the pool, a new packet is made only if the pool is empty
+     *  @return Packet to decode into
+     */
+    public Packet take(){
+        Packet pkt = free.poll();
+        if(pkt == null) pkt = new Packet(0, 0, false, false, false, (short)0, new byte[Packet.MAX_DATA_LENGTH], null, 0);
+        return pkt;
+    }
+
+    /** Gives the packet back to the pool, the packet must not be used after this
+     *  @param pkt Packet to be reused
+     */
+    public void recycle(Packet pkt){
+        if(pkt != null) free.offer(pkt);
+    }
+
+    /** Gets the number of idle packets in the pool
+     *  @return number of packets ready to be reused
+     */
+    public int size(){
+        return free.size();
+    }
+}
@@ -0,0 +1,75 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+
+/** Bounded lock-free ring of packets for exactly one producer thread and one consumer thread. The producer only
+ *  writes tail and the consumer only writes head, so the hand off needs no lock and no compare-and-set - the
+ *  volatile writes publish the slot to the other side */
+public class PacketRing{
+    /** Slots of the ring, length is a power of two */
+    private Packet[] slots;
+    /** Mask to turn a sequence into a slot index */
+    private int mask;
+    /** Sequence of the next packet to take - written only by the consumer */
+    private volatile long head = 0;
+    /** Sequence of the next packet to add - written only by the producer */
+    private volatile long tail = 0;
+
+    /** Constructor for PacketRing
+     *  @param capacity Minimum number of packets the ring holds, rounded up to a power of two
+     */
+    public PacketRing(int capacity){
+        int size = 1;
+        while(size < capacity) size <<= 1;
+        this.slots = new Packet[size];
+        this.mask = size - 1;
+    }
+
+    /** Adds the packet to the ring, called only by the producer
+     *  @param pkt Packet to be added
+     *  @return true if packet was added, false if the ring is full
+     */
+    public boolean offer(Packet pkt){
+        long t = this.tail;
+        if(t - this.head == slots.length) return false;
+        slots[(int)t & mask] = pkt;
+        this.tail = t + 1; // Publishes the slot
+        return true;
+    }
+
+    /** Takes the packet from the front of the ring, called only by the consumer
+     *  @return Packet on the front of the ring, null if the ring is empty
+     */
+    public Packet poll(){
+        long h = this.head;
+        if(h == this.tail) return null;
+        int index = (int)h & mask;
+        Packet pkt = slots[index];
+        slots[index] = null;
+        this.head = h + 1; // Frees the slot
+        return pkt;
+    }
+
+    /** Gets the number of packets in the ring, safe to call from any thread
+     *  @return number of packets
+     */
+    public int size(){
+        long h = this.head;
+        return (int)(this.tail - h);
+    }
+
+    /** Checks if the ring is empty, safe to call from any thread
+     *  @return true if nothing is in the ring
+     */
+    public boolean isEmpty(){
+        return this.head == this.tail;
+    }
+
+    /** Gets the number of packets the ring holds
+     *  @return capacity of the ring
+     */
+    public int capacity(){
+        return slots.length;
+    }
+}
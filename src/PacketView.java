@@ -0,0 +1,305 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+import java.nio.ByteBuffer;
+
+/** Flyweight decoder of a packet - reads the header, options and data straight from the buffer the packet was
+ *  received into, nothing is copied or allocated. The view is valid until the buffer is reused */
+public class PacketView{
+    /** Buffer with the packet */
+    private ByteBuffer buffer;
+    /** Index of the packet in the buffer */
+    private int offset;
+    /** Length of the options */
+    private int options_length;
+    /** Length of the data */
+    private int length;
+    /** Index of the SACK option in the buffer, -1 if there's none */
+    private int sack;
+    /** SACK permitted option */
+    private boolean sack_permitted;
+    /** Alternate checksum option */
+    private byte checksum_option;
+    /** Window scale option, -1 if there's none */
+    private byte window_scale;
+    /** Maximum segment size option, 0 if there's none */
+    private int mss;
+    /** Index of the timestamp option in the buffer, -1 if there's none */
+    private int timestamp;
+    /** Index of the stream option in the buffer, -1 if there's none */
+    private int stream;
+    /** Index of the digest option in the buffer, -1 if there's none */
+    private int digest;
+
+    /** Points the view at the packet in the buffer and checks that header, options and data fit in the packet
+     *  @param buffer Heap or direct buffer with the packet
+     *  @param offset Index of the packet in the buffer
+     *  @param length Length of the packet
+     *  @return this view
+     */
+    public PacketView wrap(ByteBuffer buffer, int offset, int length) throws Exception{
+        if(length < Packet.HEADER_LENGTH || offset + length > buffer.limit()) throw new Exception("Corrupted Packet");
+        this.buffer = buffer;
+        this.offset = offset;
+        this.options_length = buffer.get(offset + 11) & 0xFF;
+        this.length = buffer.getChar(offset + 24);
+        if(Packet.HEADER_LENGTH + this.options_length + this.length > length) throw new Exception("Corrupted Packet");
+
+        // Find the options
+        this.sack = -1;
+        this.sack_permitted = false;
+        this.checksum_option = Packet.CHECKSUM_CRC16;
+        this.window_scale = -1;
+        this.mss = 0;
+        this.timestamp = -1;
+        this.stream = -1;
+        this.digest = -1;
+        int index = offset + Packet.HEADER_LENGTH;
+        int end = index + this.options_length;
+        while(index < end){
+            if(index + 2 > end) throw new Exception("Corrupted Packet");
+            byte kind = buffer.get(index);
+            int option_length = buffer.get(index + 1) & 0xFF;
+            if(option_length < 2 || index + option_length > end) throw new Exception("Corrupted Packet");
+            if(kind == Packet.OPTION_SACK_PERMITTED) this.sack_permitted = true;
+            else if(kind == Packet.OPTION_SACK) this.sack = index;
+            else if(kind == Packet.OPTION_CHECKSUM && option_length == 3) this.checksum_option = buffer.get(index + 2);
+            else if(kind == Packet.OPTION_MSS && option_length == 4) this.mss = Math.min(buffer.getChar(index + 2), Packet.MAX_MSS);
+            else if(kind == Packet.OPTION_TIMESTAMP && option_length == 10) this.timestamp = index;
+            else if(kind == Packet.OPTION_STREAM && option_length == 16) this.stream = index;
+            else if(kind == Packet.OPTION_DIGEST && option_length == 2 + Packet.DIGEST_LENGTH) this.digest = index;
+            else if(kind == Packet.OPTION_WINDOW_SCALE && option_length == 3) this.window_scale = (byte)Math.min(buffer.get(index + 2) & 0xFF, Packet.MAX_WINDOW_SCALE);
+            //Unknown options are skipped
+            index += option_length;
+        }
+        return this;
+    }
+
+    /** Gets the sequence number
+     *  @return sequence number
+     */
+    public int getSeqNum(){
+        return buffer.getInt(offset);
+    }
+
+    /** Gets the acknowledgement number
+     *  @return acknowledgement number
+     */
+    public int getAckNum(){
+        return buffer.getInt(offset + 4);
+    }
+
+    /** Gets the acknowledgement bit
+     *  @return acknowledgement bit
+     */
+    public boolean isAck(){
+        return buffer.get(offset + 8) != 0;
+    }
+
+    /** Gets the finish bit
+     *  @return finish bit
+     */
+    public boolean isFin(){
+        return buffer.get(offset + 9) != 0;
+    }
+
+    /** Gets the synchronize bit
+     *  @return synchronize bit
+     */
+    public boolean isSyn(){
+        return buffer.get(offset + 10) != 0;
+    }
+
+    /** Gets the receiving window value
+     *  @return receiving window value
+     */
+    public short getWindow(){
+        return buffer.getShort(offset + 26);
+    }
+
+    /** Gets the checksum on the header
+     *  @return checksum
+     */
+    public char getChecksum(){
+        return buffer.getChar(offset + 28);
+    }
+
+    /** Gets the checksum type of the packet
+     *  @return checksum type
+     */
+    public byte getChecksumType(){
+        return buffer.get(offset + 12);
+    }
+
+    /** Gets the alternate checksum option
+     *  @return alternate checksum type, CHECKSUM_CRC16 if none
+     */
+    public byte getChecksumOption(){
+        return this.checksum_option;
+    }
+
+    /** Gets the maximum segment size option
+     *  @return maximum segment size, 0 if none
+     */
+    public int getMSS(){
+        return this.mss;
+    }
+
+    /** Gets the window scale option
+     *  @return window scale shift, -1 if none
+     */
+    public byte getWindowScale(){
+        return this.window_scale;
+    }
+
+    /** Gets the timestamp option
+     *  @return true if the packet carries the timestamp option
+     */
+    public boolean hasTimestamp(){
+        return this.timestamp != -1;
+    }
+
+    /** Gets the timestamp of the sender
+     *  @return time the packet was sent in microseconds of the sender's clock, 0 if none
+     */
+    public int getTSVal(){
+        if(this.timestamp == -1) return 0;
+        return buffer.getInt(this.timestamp + 2);
+    }
+
+    /** Gets the echoed timestamp
+     *  @return latest timestamp of ours the sender saw, 0 if none
+     */
+    public int getTSEcr(){
+        if(this.timestamp == -1) return 0;
+        return buffer.getInt(this.timestamp + 6);
+    }
+
+    /** Gets the number of connections the file is sent over
+     *  @return number of connections, 0 if there's no stream option
+     */
+    public int getStreamCount(){
+        if(this.stream == -1) return 0;
+        return buffer.get(this.stream + 6) & 0xFF;
+    }
+
+    /** Gets the id of the file the stream belongs to
+     *  @return transfer id, 0 if there's no stream option
+     */
+    public int getStreamId(){
+        if(this.stream == -1) return 0;
+        return buffer.getInt(this.stream + 2);
+    }
+
+    /** Gets the index of the stream
+     *  @return index of this connection, 0 if there's no stream option
+     */
+    public int getStreamIndex(){
+        if(this.stream == -1) return 0;
+        return buffer.get(this.stream + 7) & 0xFF;
+    }
+
+    /** Gets the position of the stream's byte range in the file
+     *  @return offset in bytes, 0 if there's no stream option
+     */
+    public long getStreamOffset(){
+        if(this.stream == -1) return 0;
+        return buffer.getLong(this.stream + 8);
+    }
+
+    /** Checks if the packet carries the digest option
+     *  @return true if there's a digest, otherwise false
+     */
+    public boolean hasDigest(){
+        return this.digest != -1;
+    }
+
+    /** Copies the MD5 of the whole file from the digest option
+     *  @param destination Array of at least Packet.DIGEST_LENGTH bytes
+     */
+    public void getDigest(byte[] destination){
+        for(int i = 0; i < Packet.DIGEST_LENGTH; i++) destination[i] = buffer.get(this.digest + 2 + i);
+    }
+
+    /** Gets the length of the data
+     *  @return data length
+     */
+    public int getDataLength(){
+        return this.length;
+    }
+
+    /** Gets the index of the data in the buffer - data can be read in place with getBuffer()
+     *  @return index of the data
+     */
+    public int getDataOffset(){
+        return offset + Packet.HEADER_LENGTH + options_length;
+    }
+
+    /** Gets the buffer the view reads from
+     *  @return buffer
+     */
+    public ByteBuffer getBuffer(){
+        return this.buffer;
+    }
+
+    /** Copies the data into the array
+     *  @param destination Array to copy into
+     *  @param destinationOffset Index in the array to copy to
+     */
+    public void getData(byte[] destination, int destinationOffset){
+        int index = getDataOffset();
+        if(buffer.hasArray()){
+            System.arraycopy(buffer.array(), buffer.arrayOffset() + index, destination, destinationOffset, this.length);
+        }else{
+            for(int i = 0; i < this.length; i++) destination[destinationOffset + i] = buffer.get(index + i);
+        }
+    }
+
+    /** Gets the SACK permitted option
+     *  @return true if SACK is permitted, otherwise false
+     */
+    public boolean isSACKPermitted(){
+        return this.sack_permitted;
+    }
+
+    /** Gets the number of SACK blocks
+     *  @return number of SACK blocks
+     */
+    public int getSACKBlockCount(){
+        if(this.sack == -1) return 0;
+        return ((buffer.get(this.sack + 1) & 0xFF) - 2) / 8;
+    }
+
+    /** Gets the start sequence number of the SACK block
+     *  @param block index of the block
+     *  @return start sequence number
+     */
+    public int getSACKStart(int block){
+        return buffer.getInt(this.sack + 2 + block * 8);
+    }
+
+    /** Gets the end sequence number of the SACK block
+     *  @param block index of the block
+     *  @return end sequence number
+     */
+    public int getSACKEnd(int block){
+        return buffer.getInt(this.sack + 6 + block * 8);
+    }
+
+    /** Checks the checksum in place
+     *  @param port port number of sender
+     *  @return true if checksum matches, false if the packet is corrupted
+     */
+    public boolean isChecksumValid(int port){
+        byte type = getChecksumType();
+        if(type == Packet.CHECKSUM_CRC32C){
+            int crc = Packet.crc32c(buffer, offset, Packet.HEADER_LENGTH + this.options_length + this.length) ^ port;
+            return (char)(crc >>> 16) == buffer.getChar(offset + 13) && (char)crc == getChecksum();
+        }
+        if(type != Packet.CHECKSUM_CRC16) return false;
+        int crc = CRC16.update(0, buffer, getDataOffset(), this.length);
+        crc = CRC16.update(crc, buffer, offset + Packet.HEADER_LENGTH, this.options_length);
+        return Packet.checksum(crc, getSeqNum(), getAckNum(), isAck(), isFin(), isSyn(), getWindow(), port) == getChecksum();
+    }
+}
@@ -0,0 +1,86 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+import java.io.File;
+import java.net.InetAddress;
+import java.util.Random;
+
+/** Sends one file over several connections at once - the file is split into byte ranges and each range goes over
+ *  its own Client with its own local port, congestion window and timers. The Server puts the ranges back together */
+public class ParallelClient{
+    /** File to send */
+    private File file;
+    /** Quiet flag */
+    private boolean quiet;
+    /** Client of each byte range */
+    private Client[] clients;
+
+    /** Constructor for ParallelClient
+     *  @param address  Destination address
+     *  @param port     Destination port
+     *  @param file     File to send to Destination
+     *  @param timeout  Timeout duration
+     *  @param quiet    True to quiet the verbose messages otherwise false to quiet the verbose messages
+     *  @param streams  Number of connections, fewer are used if the file has fewer segments
+     */
+    public ParallelClient(InetAddress address, int port, File file, int timeout, boolean quiet, int streams) throws Exception{
+        this.file = file;
+        this.quiet = quiet;
+
+        // Every connection gets at least a segment
+        long length = file.length();
+        int count = (int)Math.max(1, Math.min(streams, (length + Packet.MAX_DATA_LENGTH - 1) / Packet.MAX_DATA_LENGTH));
+        long range = (length + count - 1) / count;
+
+        // Random id tells this file apart from other transfers of the same address
+        int id = new Random().nextInt();
+        this.clients = new Client[count];
+        for(int i = 0; i < count; i++){
+            clients[i] = new Client(address, port, file, timeout, quiet);
+            clients[i].setStream(id, i, count, i * range, range);
+        }
+    }
+
+    /** Gets the client of each byte range - options are set on each of them before start()
+     *  @return clients
+     */
+    public Client[] getClients(){
+        return this.clients;
+    }
+
+    /** Runs every client on its own thread until all ranges are sent
+     *  @param eventLoop True to run the clients with startEventLoop(), otherwise with start()
+     */
+    public void start(boolean eventLoop) throws Exception{
+        // Publish the file's hash - the server checks the hash of the whole file once every range is in
+        String hash = Utility.getFileHash(this.file);
+        if(quiet) System.out.println("MD5 hash of the file: " + hash);
+        for(Client client : clients) client.setFileHash(hash);
+
+        Thread[] threads = new Thread[clients.length];
+        Exception[] errors = new Exception[clients.length];
+        for(int i = 0; i < clients.length; i++){
+            final int index = i;
+            threads[i] = new Thread("Stream-" + i){
+                public void run(){
+                    try{
+                        if(eventLoop) clients[index].startEventLoop();
+                        else clients[index].start();
+                    }catch(Exception e){
+                        errors[index] = e;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        // Wait for every range
+        for(int i = 0; i < clients.length; i++){
+            threads[i].join();
+            if(errors[i] != null) throw errors[i];
+        }
+
+        if(!quiet) System.out.println("\nInput MD5 Hash: " + hash);
+    }
+}
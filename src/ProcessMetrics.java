@@ -0,0 +1,239 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+/** Totals of every Client and Connection in the process - the counters of running ones are summed when they are
+ *  read, the counters of finished ones are added to striped counters once. Nothing here is touched per packet
+ *  except the drops of packets that never reach a Connection */
+public class ProcessMetrics implements ProcessMetricsMBean{
+    /** Shared instance */
+    private static final ProcessMetrics shared = new ProcessMetrics();
+
+    /** Metrics of the running Clients and Connections */
+    private Set<Metrics> active = ConcurrentHashMap.newKeySet();
+    /** Time the process started in nanoseconds */
+    private long start = System.nanoTime();
+    /** True if the metrics are registered with JMX */
+    private volatile boolean jmx = false;
+
+    // Totals of the finished Clients and Connections
+    private LongAdder total = new LongAdder();
+    private LongAdder segments_sent = new LongAdder();
+    private LongAdder segments_retransmitted = new LongAdder();
+    private LongAdder bytes_delivered = new LongAdder();
+    private LongAdder duplicate_acks = new LongAdder();
+    private LongAdder fast_retransmits = new LongAdder();
+    private LongAdder timeouts = new LongAdder();
+    private LongAdder timers_armed = new LongAdder();
+    private LongAdder timers_expired = new LongAdder();
+    private LongAdder checksum_drops = new LongAdder();
+    private LongAdder queue_full_drops = new LongAdder();
+    private LongAdder zero_window_drops = new LongAdder();
+    private AtomicLongArray rtt_histogram = new AtomicLongArray(Metrics.HISTOGRAM_BUCKETS);
+    private AtomicLongArray rto_histogram = new AtomicLongArray(Metrics.HISTOGRAM_BUCKETS);
+
+    /** Gets the shared ProcessMetrics
+     *  @return shared ProcessMetrics
+     */
+    public static ProcessMetrics getShared(){
+        return shared;
+    }
+
+    /** Registers the totals with JMX as fcntcp:type=Process, Clients and Connections created afterwards register
+     *  their own metrics too */
+    public void enableJMX() throws Exception{
+        if(this.jmx) return;
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("fcntcp:type=Process"));
+        this.jmx = true;
+    }
+
+    /** Checks if the metrics are registered with JMX
+     *  @return true if JMX is enabled, otherwise false
+     */
+    public boolean isJMXEnabled(){
+        return this.jmx;
+    }
+
+    /** Adds the metrics of a new Client or Connection
+     *  @param metrics Metrics of the Application
+     */
+    void add(Metrics metrics){
+        this.total.increment();
+        this.active.add(metrics);
+    }
+
+    /** Moves the counters of a finished Client or Connection to the totals
+     *  @param metrics Metrics of the Application
+     */
+    void retire(Metrics metrics){
+        if(!this.active.remove(metrics)) return;
+        this.segments_sent.add(metrics.segments_sent);
+        this.segments_retransmitted.add(metrics.segments_retransmitted);
+        this.bytes_delivered.add(metrics.bytes_delivered);
+        this.duplicate_acks.add(metrics.duplicate_acks);
+        this.fast_retransmits.add(metrics.fast_retransmits);
+        this.timeouts.add(metrics.timeouts);
+        this.timers_armed.add(metrics.timers_armed);
+        this.timers_expired.add(metrics.timers_expired);
+        this.checksum_drops.add(metrics.getChecksumDrops());
+        this.queue_full_drops.add(metrics.getQueueFullDrops());
+        this.zero_window_drops.add(metrics.getZeroWindowDrops());
+        for(int i = 0; i < Metrics.HISTOGRAM_BUCKETS; i++){
+            this.rtt_histogram.addAndGet(i, metrics.rtt_histogram[i]);
+            this.rto_histogram.addAndGet(i, metrics.rto_histogram[i]);
+        }
+    }
+
+    /** Counts a packet with a bad checksum that was dropped before it reached a Client or Connection */
+    public void checksumDrop(){
+        this.checksum_drops.increment();
+    }
+
+    /** Gets the number of bytes delivered
+     *  @return bytes delivered by every Client and Connection
+     */
+    public long getBytesDelivered(){
+        long sum = this.bytes_delivered.sum();
+        for(Metrics metrics : this.active) sum += metrics.getBytesDelivered();
+        return sum;
+    }
+
+    /** Gets the goodput
+     *  @return bytes delivered per second since the process started
+     */
+    public double getGoodput(){
+        long elapsed = System.nanoTime() - this.start;
+        return elapsed <= 0 ? 0 : getBytesDelivered() * 1e9 / elapsed;
+    }
+
+    /** Gets the number of packets sent
+     *  @return packets sent, including ACKs and retransmissions
+     */
+    public long getSegmentsSent(){
+        long sum = this.segments_sent.sum();
+        for(Metrics metrics : this.active) sum += metrics.getSegmentsSent();
+        return sum;
+    }
+
+    /** Gets the number of retransmitted segments
+     *  @return data segments sent again
+     */
+    public long getSegmentsRetransmitted(){
+        long sum = this.segments_retransmitted.sum();
+        for(Metrics metrics : this.active) sum += metrics.getSegmentsRetransmitted();
+        return sum;
+    }
+
+    /** Gets the number of duplicate ACKs
+     *  @return duplicate ACKs received by Clients and sent by Connections
+     */
+    public long getDuplicateAcks(){
+        long sum = this.duplicate_acks.sum();
+        for(Metrics metrics : this.active) sum += metrics.getDuplicateAcks();
+        return sum;
+    }
+
+    /** Gets the number of fast retransmits
+     *  @return fast retransmits
+     */
+    public long getFastRetransmits(){
+        long sum = this.fast_retransmits.sum();
+        for(Metrics metrics : this.active) sum += metrics.getFastRetransmits();
+        return sum;
+    }
+
+    /** Gets the number of retransmission time outs
+     *  @return retransmission time outs
+     */
+    public long getTimeouts(){
+        long sum = this.timeouts.sum();
+        for(Metrics metrics : this.active) sum += metrics.getTimeouts();
+        return sum;
+    }
+
+    /** Gets the histogram of the round trip times
+     *  @return round trip time samples, bucket i counts samples from 2^i to 2^(i+1) microseconds
+     */
+    public long[] getRttHistogram(){
+        long[] histogram = new long[Metrics.HISTOGRAM_BUCKETS];
+        for(int i = 0; i < histogram.length; i++) histogram[i] = this.rtt_histogram.get(i);
+        for(Metrics metrics : this.active) for(int i = 0; i < histogram.length; i++) histogram[i] += metrics.rtt_histogram[i];
+        return histogram;
+    }
+
+    /** Gets the histogram of the retransmission timeouts
+     *  @return retransmission timeouts, bucket i counts timeouts from 2^i to 2^(i+1) milliseconds
+     */
+    public long[] getRtoHistogram(){
+        long[] histogram = new long[Metrics.HISTOGRAM_BUCKETS];
+        for(int i = 0; i < histogram.length; i++) histogram[i] = this.rto_histogram.get(i);
+        for(Metrics metrics : this.active) for(int i = 0; i < histogram.length; i++) histogram[i] += metrics.rto_histogram[i];
+        return histogram;
+    }
+
+    /** Gets the number of packets dropped for a bad checksum
+     *  @return received packets dropped for a bad checksum, including the ones the Server drops before they reach a Connection
+     */
+    public long getChecksumDrops(){
+        long sum = this.checksum_drops.sum();
+        for(Metrics metrics : this.active) sum += metrics.getChecksumDrops();
+        return sum;
+    }
+
+    /** Gets the number of packets dropped for a full queue
+     *  @return received packets dropped because a packet queue was full
+     */
+    public long getQueueFullDrops(){
+        long sum = this.queue_full_drops.sum();
+        for(Metrics metrics : this.active) sum += metrics.getQueueFullDrops();
+        return sum;
+    }
+
+    /** Gets the number of packets dropped for a full receive buffer
+     *  @return received packets dropped because a receive buffer was full
+     */
+    public long getZeroWindowDrops(){
+        long sum = this.zero_window_drops.sum();
+        for(Metrics metrics : this.active) sum += metrics.getZeroWindowDrops();
+        return sum;
+    }
+
+    /** Gets the number of timers set
+     *  @return timers set by every Client and Connection
+     */
+    public long getTimersArmed(){
+        long sum = this.timers_armed.sum();
+        for(Metrics metrics : this.active) sum += metrics.getTimersArmed();
+        return sum;
+    }
+
+    /** Gets the number of timers that ran out
+     *  @return timers of every Client and Connection that ran out
+     */
+    public long getTimersExpired(){
+        long sum = this.timers_expired.sum();
+        for(Metrics metrics : this.active) sum += metrics.getTimersExpired();
+        return sum;
+    }
+
+    /** Gets the number of active Clients and Connections
+     *  @return Clients and Connections that are still running
+     */
+    public int getActiveConnections(){
+        return this.active.size();
+    }
+
+    /** Gets the number of Clients and Connections since the start
+     *  @return Clients and Connections since the process started
+     */
+    public long getTotalConnections(){
+        return this.total.sum();
+    }
+}
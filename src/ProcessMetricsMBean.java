@@ -0,0 +1,87 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+
+/** Management interface of the totals of every Client and Connection in the process */
+public interface ProcessMetricsMBean{
+    /** Gets the number of bytes delivered
+     *  @return bytes delivered by every Client and Connection
+     */
+    public long getBytesDelivered();
+
+    /** Gets the goodput
+     *  @return bytes delivered per second since the process started
+     */
+    public double getGoodput();
+
+    /** Gets the number of packets sent
+     *  @return packets sent, including ACKs and retransmissions
+     */
+    public long getSegmentsSent();
+
+    /** Gets the number of retransmitted segments
+     *  @return data segments sent again
+     */
+    public long getSegmentsRetransmitted();
+
+    /** Gets the number of duplicate ACKs
+     *  @return duplicate ACKs received by Clients and sent by Connections
+     */
+    public long getDuplicateAcks();
+
+    /** Gets the number of fast retransmits
+     *  @return fast retransmits
+     */
+    public long getFastRetransmits();
+
+    /** Gets the number of retransmission time outs
+     *  @return retransmission time outs
+     */
+    public long getTimeouts();
+
+    /** Gets the histogram of the round trip times
+     *  @return round trip time samples, bucket i counts samples from 2^i to 2^(i+1) microseconds
+     */
+    public long[] getRttHistogram();
+
+    /** Gets the histogram of the retransmission timeouts
+     *  @return retransmission timeouts, bucket i counts timeouts from 2^i to 2^(i+1) milliseconds
+     */
+    public long[] getRtoHistogram();
+
+    /** Gets the number of packets dropped for a bad checksum
+     *  @return received packets dropped for a bad checksum, including the ones the Server drops before they reach a Connection
+     */
+    public long getChecksumDrops();
+
+    /** Gets the number of packets dropped for a full queue
+     *  @return received packets dropped because a packet queue was full
+     */
+    public long getQueueFullDrops();
+
+    /** Gets the number of packets dropped for a full receive buffer
+     *  @return received packets dropped because a receive buffer was full
+     */
+    public long getZeroWindowDrops();
+
+    /** Gets the number of timers set
+     *  @return timers set by every Client and Connection
+     */
+    public long getTimersArmed();
+
+    /** Gets the number of timers that ran out
+     *  @return timers of every Client and Connection that ran out
+     */
+    public long getTimersExpired();
+
+    /** Gets the number of active Clients and Connections
+     *  @return Clients and Connections that are still running
+     */
+    public int getActiveConnections();
+
+    /** Gets the number of Clients and Connections since the start
+     *  @return Clients and Connections since the process started
+     */
+    public long getTotalConnections();
+}
@@ -0,0 +1,80 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+
+/** OutputSink of a connection that carries one byte range of the file - positions are relative to the range and
+ *  a write marks the end of the range, the data goes to the output of the Transfer */
+public class RangeSink implements OutputSink{
+    /** Transfer the range belongs to */
+    private Transfer transfer;
+    /** Position of the range in the file */
+    private long start;
+    /** Size of the range written so far - rewinds will shrink it */
+    private long size = 0;
+    /** True once the connection is done */
+    private boolean closed = false;
+    /** Hash of the whole file the client sent on FIN, null if none */
+    private String clientHash = null;
+
+    /** Constructor for RangeSink
+     *  @param transfer Transfer the range belongs to
+     *  @param start Position of the range in the file
+     */
+    public RangeSink(Transfer transfer, long start){
+        this.transfer = transfer;
+        this.start = start;
+    }
+
+    /** Writes data to the range at the given position, anything past position + length is discarded
+     *  @param position Position in the range
+     *  @param data Data to be written
+     *  @param offset Offset in the data array
+     *  @param length Number of bytes to write
+     */
+    public void write(long position, byte[] data, int offset, int length) throws Exception{
+        if(position < 0 || position > this.size) throw new Exception("Cannot write at " + position + ", output is " + this.size + " bytes long");
+        transfer.write(this.start + position, data, offset, length);
+        this.size = position + length;
+    }
+
+    /** Writes data to the range at any position, the end is never moved back
+     *  @param position Position in the range
+     *  @param data Data to be written
+     *  @param offset Offset in the data array
+     *  @param length Number of bytes to write
+     */
+    public void writeAt(long position, byte[] data, int offset, int length) throws Exception{
+        if(position < 0) throw new Exception("Cannot write at " + position);
+        transfer.write(this.start + position, data, offset, length);
+        this.size = Math.max(this.size, position + length);
+    }
+
+    /** Gets the size of the range
+     *  @return size of the range in bytes
+     */
+    public long size(){
+        return this.size;
+    }
+
+    /** Sets the hash of the whole file the client sent on FIN, the Transfer checks the output against it
+     *  @param clientHash MD5 hash of the file, null if the client didn't send it
+     */
+    public void setClientHash(String clientHash){
+        this.clientHash = clientHash;
+    }
+
+    /** Closes the range, the Transfer closes the output after the last one */
+    public void close() throws Exception{
+        if(this.closed) return;
+        this.closed = true;
+        transfer.closeStream(this.clientHash);
+    }
+
+    /** Gets MD5 hash of the range - the hash is published by the Transfer for the whole file
+     *  @return null
+     */
+    public String getHash(){
+        return null;
+    }
+}
@@ -0,0 +1,102 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Bounded buffer for out-of-order segments, indexed by their sequence numbers. Segments beyond a hole are held
+ *  here until the hole is filled, then they are drained in order */
+public class ReassemblyBuffer{
+    /** Segments indexed by sequence number */
+    private TreeMap<Integer, byte[]> segments = new TreeMap<Integer, byte[]>();
+    /** Max number of bytes past the acknowledgement number that can be held */
+    private int capacity;
+    /** Number of bytes held */
+    private int size = 0;
+
+    /** Constructor for ReassemblyBuffer
+     *  @param capacity Max number of bytes past the acknowledgement number that can be held
+     */
+    public ReassemblyBuffer(int capacity){
+        this.capacity = capacity;
+    }
+
+    /** Holds the segment that arrived beyond the acknowledgement number
+     *  @param ack_num Current acknowledgement number
+     *  @param seq_num Sequence number of the segment
+     *  @param data Data of the segment - it's copied since the packet may be reused
+     *  @param length Length of the data
+     *  @return true if segment is held, false if it's a duplicate or it doesn't fit in the buffer
+     */
+    public boolean add(int ack_num, int seq_num, byte[] data, int length){
+        if(seq_num <= ack_num || length == 0) return false;
+        if(seq_num + length - ack_num > this.capacity) return false;
+        if(segments.containsKey(seq_num)) return false;
+        byte[] segment = new byte[length];
+        System.arraycopy(data, 0, segment, 0, length);
+        segments.put(seq_num, segment);
+        this.size += length;
+        return true;
+    }
+
+    /** Removes the segment that continues from the acknowledgement number, segments that are already
+     *  acknowledged are discarded along the way
+     *  @param ack_num Current acknowledgement number
+     *  @return Map entry with the segment's sequence number and data, null if there's a hole at ack_num
+     */
+    public Map.Entry<Integer, byte[]> poll(int ack_num){
+        while(!segments.isEmpty()){
+            Map.Entry<Integer, byte[]> first = segments.firstEntry();
+            if(first.getKey() > ack_num) return null;
+            segments.pollFirstEntry();
+            this.size -= first.getValue().length;
+            if(first.getKey() + first.getValue().length > ack_num) return first;
+        }
+        return null;
+    }
+
+    /** Gets the ranges of held bytes for SACK blocks, adjacent segments are merged into one range
+     *  @param max Max number of ranges
+     *  @return pairs of start and end sequence numbers, null if nothing is held
+     */
+    public int[] getRanges(int max){
+        if(segments.isEmpty()) return null;
+        int[] ranges = new int[max * 2];
+        int count = 0;
+        for(Map.Entry<Integer, byte[]> segment : segments.entrySet()){
+            int start = segment.getKey();
+            int end = start + segment.getValue().length;
+            if(count != 0 && start <= ranges[count * 2 - 1]){
+                ranges[count * 2 - 1] = Math.max(end, ranges[count * 2 - 1]);
+            }else{
+                if(count == max) break;
+                ranges[count * 2] = start;
+                ranges[count * 2 + 1] = end;
+                count++;
+            }
+        }
+        return Arrays.copyOf(ranges, count * 2);
+    }
+
+    /** Gets the number of bytes held
+     *  @return number of bytes held
+     */
+    public int size(){
+        return this.size;
+    }
+
+    /** Check if buffer has anything in it
+     *  @return true if something is in the buffer, otherwise false
+     */
+    public boolean isEmpty(){
+        return segments.isEmpty();
+    }
+
+    /** Discards all segments in the buffer */
+    public void clear(){
+        segments.clear();
+        this.size = 0;
+    }
+}
@@ -2,51 +2,94 @@
  * CSCI-651-03
  * Project 2
  */
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.SocketException;
 import java.net.SocketAddress;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 
 /** Receiver class - Object that runs in its own thread and collects all uncorrupted packets */
 public class Receiver extends Thread{
-    /** Constant for Receiver buffer - I found that 2048 is a good number to handle huge file transfer like 104MB file */
-    private final static short MAX_AVAILABLE_BUFFER_SIZE = (short)2048;
+    /** Default size of Receiver buffer - I found that 2048 is a good number to handle huge file transfer like 104MB file */
+    public final static int DEFAULT_BUFFER_SIZE = 2048;
+    /** Max size of Receiver buffer - largest window that can be advertised with window scaling */
+    public final static int MAX_BUFFER_SIZE = 0xFFFF << Packet.MAX_WINDOW_SCALE;
+    /** Number of idle packets kept in the Receiver's own pool */
+    private final static int POOL_SIZE = 16;
+    /** Wait strategy - block on the CountDownLatch until a packet or a time out arrives */
+    public final static int WAIT_PARK = 0;
+    /** Wait strategy - yield the processor between checks for a packet or a time out */
+    public final static int WAIT_YIELD = 1;
+    /** Wait strategy - spin on the processor between checks for a packet or a time out */
+    public final static int WAIT_SPIN = 2;
     /** Mailbox to receive messages - can be used to send messages too */
     private DatagramSocket mailbox;
-    /** Buffer of packets */
-    private ArrayBlockingQueue<Packet> packets;
+    /** Buffer of packets - the thread that offers is the only producer, the loop that gets is the only consumer */
+    private PacketRing packets;
     /** Control bit to shut down the Receiver */
     private boolean stop = false;
     /** CountDownLatch object to inform the parent thread when a new packet was just added */
-    private CountDownLatch cdl;
+    private volatile CountDownLatch cdl;
     /** Quiet flag */
     private boolean quiet;
-    /** size of available buffer to receive */
-    private int availableBuffer = MAX_AVAILABLE_BUFFER_SIZE;
+    /** Length of the largest datagram that can be received */
+    private int datagramLength = Packet.MAX_DATAGRAM_LENGTH;
+    /** Size of the buffer in bytes */
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    /** Bytes offered so far - written only by the producer */
+    private volatile long bytesIn = 0;
+    /** Bytes taken so far - written only by the consumer */
+    private volatile long bytesOut = 0;
+    /** Packets dropped for a bad checksum - written only by the producer */
+    private volatile long checksumDrops = 0;
+    /** Packets dropped because the packet queue was full - written only by the producer */
+    private volatile long queueFullDrops = 0;
+    /** Packets dropped because the buffer was full - written only by the producer */
+    private volatile long zeroWindowDrops = 0;
+    /** How the loop waits for a packet, one of WAIT_PARK, WAIT_YIELD, WAIT_SPIN */
+    private int waitStrategy = WAIT_PARK;
+    /** Pool of packets to receive into, packets go back to it once they are processed */
+    private PacketPool pool;
+    /** Trace id of the Application the packets are for */
+    private volatile int traceId = 0;
 
     /** Constructor for Receiver
-     *  @param mailbox  Mailbox to receive packets
+     *  @param mailbox  Mailbox to receive packets - null if Receiver is only used as a buffer and packets are added with offer()
      *  @param cdl  CountDownLatch object to inform the parent thread when a packet arrives in the Receiver's buffer
      *  @param quiet Quiet flag
      */
     public Receiver(DatagramSocket mailbox, CountDownLatch cdl, boolean quiet){
+        this(mailbox, cdl, quiet, new PacketPool(POOL_SIZE));
+    }
+
+    /** Constructor for Receiver with a shared pool
+     *  @param mailbox  Mailbox to receive packets - null if Receiver is only used as a buffer and packets are added with offer()
+     *  @param cdl  CountDownLatch object to inform the parent thread when a packet arrives in the Receiver's buffer
+     *  @param quiet Quiet flag
+     *  @param pool Pool that the offered packets are recycled to
+     */
+    public Receiver(DatagramSocket mailbox, CountDownLatch cdl, boolean quiet, PacketPool pool){
         this.mailbox = mailbox;
-        this.packets = new ArrayBlockingQueue<Packet>((MAX_AVAILABLE_BUFFER_SIZE/Packet.MAX_DATA_LENGTH) + 1);
+        this.pool = pool;
+        this.packets = new PacketRing((this.bufferSize/Packet.MAX_DATA_LENGTH) + 1);
         this.cdl = cdl;
         this.quiet = quiet;
     }
 
     /** Receiver run method - continuously collecting all packets - will automatically drop corrupted packets*/
     public void run(){
+        // Accept the largest datagram - header, options and data. Buffer and decoder are reused for every datagram
+        byte[] payload = new byte[this.datagramLength];
+        DatagramPacket packet = new DatagramPacket(payload, payload.length);
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        PacketView view = new PacketView();
+
         // Run forever until stop bit is set
         while(!this.stop){
             try{
-                // Only accept 567 byte - can be changed to any value but recommended MSS is 567
-                byte[] payload = new byte[567];
-                DatagramPacket packet = new DatagramPacket(payload, payload.length);
+                packet.setLength(payload.length);
                 mailbox.receive(packet);
 
                 /*
@@ -61,58 +104,128 @@ public class Receiver extends Thread{
                 }
                 */
 
-                // Build Packet - packet may become null when they fail checksum test
-                Packet pkt = Packet.buildPacketFromByteArray(packet.getData(), packet.getLength(), packet.getAddress(), packet.getPort());
+                // Check if packet is corrupted
+                view.wrap(buffer, 0, packet.getLength());
+                if(!view.isChecksumValid(packet.getPort())) throw new Exception("Corrupted Packet");
 
-                // Check if packet is null and if Receiver has a room for the packet to be fit in
-                if(pkt != null && this.availableBuffer > 0){
-                    if(packets.offer(pkt)){
-                        this.availableBuffer -= pkt.length;
-                        cdl.countDown();
-                    }
-                }
+                // Decode into a pooled packet and put it in the buffer, it goes back to the pool if there's no room
+                Packet pkt = pool.take();
+                pkt.set(view, packet.getAddress(), packet.getPort());
+                if(!offer(pkt)) pool.recycle(pkt);
             }catch(SocketException se){
                 //do nothing
             }catch(Exception e){
+                this.checksumDrops++;
+                Trace.drop(this.traceId, Trace.DROP_CHECKSUM, null, packet.getPort());
                 if(!quiet) System.out.println("!! Packet is corrupted! !! - Dropped automatically");
             }
         }
     }
 
+    /** Adds the packet to the buffer if Receiver has a room for the packet to be fit in, otherwise drops it
+     *  @param pkt Packet to be added
+     *  @return true if packet was added, otherwise false
+     */
+    public boolean offer(Packet pkt){
+        if(this.bufferSize - (this.bytesIn - this.bytesOut) <= 0){
+            this.zeroWindowDrops++;
+            Trace.drop(this.traceId, Trace.DROP_ZERO_WINDOW, pkt, 0);
+            return false;
+        }
+        // Count the bytes before the packet is published so the window never looks bigger than it is
+        this.bytesIn += pkt.length;
+        if(!packets.offer(pkt)){
+            this.bytesIn -= pkt.length;
+            this.queueFullDrops++;
+            Trace.drop(this.traceId, Trace.DROP_QUEUE_FULL, pkt, 0);
+            return false;
+        }
+        cdl.countDown();
+        return true;
+    }
+
+    /** Sets the trace id the dropped packets are recorded under
+     *  @param traceId Trace id of the Application
+     */
+    public void setTraceId(int traceId){
+        this.traceId = traceId;
+    }
+
     /** Gets length of available buffer length
      *  @return length of available buffer
      */
-    public synchronized short getAvailableBuffer() throws InterruptedException{
-        return (short)(availableBuffer < 0 ? 0 : availableBuffer);
+    public int getAvailableBuffer() throws InterruptedException{
+        long available = this.bufferSize - (this.bytesIn - this.bytesOut);
+        return (int)(available < 0 ? 0 : available);
+    }
+
+    /** Gets the number of packets dropped for a bad checksum
+     *  @return number of packets
+     */
+    public long getChecksumDrops(){
+        return this.checksumDrops;
+    }
+
+    /** Gets the number of packets dropped because the packet queue was full
+     *  @return number of packets
+     */
+    public long getQueueFullDrops(){
+        return this.queueFullDrops;
+    }
+
+    /** Gets the number of packets dropped because the buffer was full
+     *  @return number of packets
+     */
+    public long getZeroWindowDrops(){
+        return this.zeroWindowDrops;
     }
 
     /** Gets the number of packets in the buffer
      *  @return number of packets in the buffer
      */
-    public synchronized int getSize() throws InterruptedException{
+    public int getSize() throws InterruptedException{
         return packets.size();
     }
 
     /** Gets the packet from the buffer, will remove the packet from the buffer
      *  @return Packet on the front of the buffer
      */
-    public synchronized Packet getPacket() throws InterruptedException{
+    public Packet getPacket() throws InterruptedException{
         Packet pkt = packets.poll();
-        if(pkt != null) this.availableBuffer += pkt.length;
+        if(pkt != null) this.bytesOut += pkt.length;
         return pkt;
     }
 
+    /** Waits until a packet is in the buffer or the CountDownLatch is counted down by a time out
+     *  @see #setWaitStrategy(int)
+     */
+    public void awaitPacket() throws InterruptedException{
+        CountDownLatch latch = this.cdl;
+        if(this.waitStrategy == WAIT_SPIN){
+            while(packets.isEmpty() && latch.getCount() != 0) Thread.onSpinWait();
+        }else if(this.waitStrategy == WAIT_YIELD){
+            while(packets.isEmpty() && latch.getCount() != 0) Thread.yield();
+        }else if(packets.isEmpty()) latch.await();
+    }
+
+    /** Gives a processed packet back to the pool, the packet must not be used after this
+     *  @param pkt Packet from getPacket()
+     */
+    public void recycle(Packet pkt){
+        pool.recycle(pkt);
+    }
+
     /** Check if buffer has anything in it
      *  @return true if something is in the buffer, otherwise false
      */
-    public synchronized boolean hasPacket() throws InterruptedException{
+    public boolean hasPacket() throws InterruptedException{
         return !packets.isEmpty();
     }
 
     /** Discards all packets in the buffer */
-    public synchronized void clearBuffer() throws InterruptedException{
-        this.availableBuffer = MAX_AVAILABLE_BUFFER_SIZE;
-        packets.clear();
+    public void clearBuffer() throws InterruptedException{
+        Packet pkt;
+        while((pkt = getPacket()) != null) pool.recycle(pkt);
     }
 
     /** Closes the Receiver */
@@ -120,6 +233,61 @@ public class Receiver extends Thread{
         this.stop = true;
     }
 
+    /** Sets the size of the buffer, must be called before any packet is offered
+     *  @param bufferSize Size of the buffer in bytes, up to MAX_BUFFER_SIZE
+     */
+    public void setBufferSize(int bufferSize){
+        this.bufferSize = bufferSize;
+        this.packets = new PacketRing((bufferSize/Packet.MAX_DATA_LENGTH) + 1);
+    }
+
+    /** Sets the length of the largest datagram that can be received, must be called before start()
+     *  @param datagramLength Datagram length with header, options and data
+     */
+    public void setDatagramLength(int datagramLength){
+        this.datagramLength = datagramLength;
+    }
+
+    /** Gets the size of the buffer
+     *  @return size of the buffer in bytes
+     */
+    public int getBufferSize(){
+        return this.bufferSize;
+    }
+
+    /** Parses the buffer size from the command line
+     *  @param value number of bytes, may end with 'k' or 'm'
+     *  @return buffer size in bytes
+     */
+    public static int parseBufferSize(String value) throws NumberFormatException{
+        long multiplier = 1;
+        String lower = value.toLowerCase();
+        if(lower.endsWith("k")) multiplier = 1024;
+        else if(lower.endsWith("m")) multiplier = 1024 * 1024;
+        if(multiplier != 1) lower = lower.substring(0, lower.length() - 1);
+        long size = Long.parseLong(lower) * multiplier;
+        if(size < Packet.MAX_DATA_LENGTH || size > MAX_BUFFER_SIZE) throw new NumberFormatException("Buffer size out of range");
+        return (int)size;
+    }
+
+    /** Sets how the loop waits for a packet, must be called before the loop starts
+     *  @param waitStrategy WAIT_PARK, WAIT_YIELD or WAIT_SPIN
+     */
+    public void setWaitStrategy(int waitStrategy){
+        this.waitStrategy = waitStrategy;
+    }
+
+    /** Parses the wait strategy from the command line
+     *  @param value "park", "yield" or "spin"
+     *  @return wait strategy
+     */
+    public static int parseWaitStrategy(String value) throws IllegalArgumentException{
+        if(value.equals("park")) return WAIT_PARK;
+        if(value.equals("yield")) return WAIT_YIELD;
+        if(value.equals("spin")) return WAIT_SPIN;
+        throw new IllegalArgumentException("Unknown wait strategy: " + value);
+    }
+
     /** Assign a CountDownLatch to this Receiver
      *  @param cdl CountDownLatch object
      */
@@ -0,0 +1,133 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+
+/** NewReno congestion control - slow start up to the threshold, then one segment per round trip. Duplicate ACKs
+ *  cut the window once per window of data (fast recovery lasts until everything sent before the loss is
+ *  acknowledged), a time out drops the window to one segment */
+public class RenoCongestionControl implements CongestionControl{
+    /** Maximum segment size */
+    protected int mss = Packet.MAX_DATA_LENGTH;
+    /** Congestion window in bytes */
+    protected int cwnd;
+    /** Slow start threshold in bytes */
+    protected int ssthresh = Integer.MAX_VALUE;
+    /** True while recovering from a loss found by duplicate ACKs */
+    protected boolean recovering = false;
+    /** Recovery ends when this sequence number is acknowledged */
+    protected int recover = 0;
+
+    /** Constructor for RenoCongestionControl */
+    public RenoCongestionControl(){
+        this.cwnd = getInitialWindow();
+    }
+
+    /** Gets the initial window - RFC 3390
+     *  @return initial window in bytes
+     */
+    protected int getInitialWindow(){
+        return Math.min(4 * this.mss, Math.max(2 * this.mss, 4380));
+    }
+
+    /** Sets the segment size, the window keeps the same number of segments
+     *  @param mss Maximum segment size
+     */
+    public void setMSS(int mss){
+        this.cwnd = (int)Math.max(mss, (long)this.cwnd * mss / this.mss);
+        if(this.ssthresh != Integer.MAX_VALUE) this.ssthresh = (int)Math.max(2 * mss, (long)this.ssthresh * mss / this.mss);
+        this.mss = mss;
+    }
+
+    /** Gets the congestion window
+     *  @return number of bytes that may be unacknowledged
+     */
+    public int getWindow(){
+        return this.cwnd;
+    }
+
+    /** Gets the pacing rate - a little faster than a window per round trip so the window can still grow, twice as
+     *  fast during slow start
+     *  @param rtt Smoothed round trip time in microseconds
+     *  @return bytes per second, 0 if there's no round trip time yet
+     */
+    public double getPacingRate(long rtt){
+        if(rtt <= 0) return 0;
+        double gain = this.cwnd < this.ssthresh ? 2 : 1.2;
+        return gain * this.cwnd * 1e6 / rtt;
+    }
+
+    /** Grows the window - slow start or congestion avoidance, nothing during recovery
+     *  @param ack_num Acknowledgement number
+     *  @param acked Number of newly acknowledged bytes
+     *  @param rtt Round trip time sample in microseconds, -1 if there's no sample
+     *  @param in_flight Number of bytes still unacknowledged
+     */
+    public void onAck(int ack_num, int acked, long rtt, int in_flight){
+        // Full ACK ends the recovery, partial ACK keeps the reduced window
+        if(this.recovering){
+            if(ack_num - this.recover < 0) return;
+            this.recovering = false;
+            this.cwnd = this.ssthresh;
+            return;
+        }
+        // Byte counting - one ACK may cover two segments when the server delays its ACKs (RFC 3465)
+        if(this.cwnd < this.ssthresh) this.cwnd += Math.min(acked, 2 * this.mss);
+        else increaseWindow(acked, rtt);
+    }
+
+    /** Congestion avoidance - about one segment per round trip
+     *  @param acked Number of newly acknowledged bytes
+     *  @param rtt Round trip time sample in microseconds, -1 if there's no sample
+     */
+    protected void increaseWindow(int acked, long rtt){
+        this.cwnd += Math.max(1, (int)((long)this.mss * Math.min(acked, this.cwnd) / this.cwnd));
+    }
+
+    /** Gets the slow start threshold after a loss
+     *  @param in_flight Number of bytes unacknowledged
+     *  @return new slow start threshold in bytes
+     */
+    protected int reduceWindow(int in_flight){
+        return Math.max(in_flight / 2, 2 * this.mss);
+    }
+
+    /** Cuts the window and enters fast recovery, losses during the recovery are part of the same event
+     *  @param ack_num Acknowledgement number that was duplicated
+     *  @param next_seq Sequence number of the next new segment
+     *  @param in_flight Number of bytes unacknowledged
+     */
+    public void onFastRetransmit(int ack_num, int next_seq, int in_flight){
+        if(this.recovering) return;
+        this.ssthresh = reduceWindow(in_flight);
+        this.cwnd = this.ssthresh;
+        this.recovering = true;
+        this.recover = next_seq;
+    }
+
+    /** Drops the window to one segment and starts over with slow start, duplicate ACKs of what was sent before are
+     *  not a new loss
+     *  @param next_seq Sequence number of the next new segment
+     *  @param in_flight Number of bytes unacknowledged
+     */
+    public void onTimeout(int next_seq, int in_flight){
+        this.ssthresh = reduceWindow(in_flight);
+        this.cwnd = this.mss;
+        this.recovering = false;
+        this.recover = next_seq;
+    }
+
+    /** Gets the recovery point
+     *  @return sequence number of the next new segment at the latest loss
+     */
+    public int getRecoveryPoint(){
+        return this.recover;
+    }
+
+    /** Gets the name of the algorithm
+     *  @return name of the algorithm
+     */
+    public String getName(){
+        return "reno";
+    }
+}
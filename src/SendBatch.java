@@ -0,0 +1,113 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+import java.io.IOException;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+
+/** Outgoing packets collected while a batch of events is processed and sent together afterwards. Only the header
+ *  of each packet is encoded into the batch, the data stays in its buffer (usually the mapped file) and goes out
+ *  with a gather write of both buffers, so nothing is copied and the send loop is a tight run of writes */
+public class SendBatch{
+    /** Default number of packets in a batch */
+    public static final int DEFAULT_SIZE = 64;
+
+    /** Encoded header and options of each packet */
+    private ByteBuffer[] headers;
+    /** Data of each packet - a view of the packet's buffer, null if the packet has no data */
+    private ByteBuffer[] payloads;
+    /** Buffer each view in payloads was made of, views are reused while the buffer stays the same */
+    private ByteBuffer[] sources;
+    /** Buffers of each datagram without data for the gather write */
+    private ByteBuffer[][] headerOnly;
+    /** Buffers of each datagram with data for the gather write */
+    private ByteBuffer[][] headerAndData;
+    /** Number of packets in the batch */
+    private int count = 0;
+
+    /** Constructor for SendBatch
+     *  @param size Number of packets in a batch
+     */
+    public SendBatch(int size){
+        this.headers = new ByteBuffer[size];
+        this.payloads = new ByteBuffer[size];
+        this.sources = new ByteBuffer[size];
+        this.headerOnly = new ByteBuffer[size][];
+        this.headerAndData = new ByteBuffer[size][];
+        for(int i = 0; i < size; i++){
+            headers[i] = ByteBuffer.allocateDirect(Packet.HEADER_LENGTH + Packet.MAX_OPTIONS_LENGTH);
+            headerOnly[i] = new ByteBuffer[]{ headers[i] };
+            headerAndData[i] = new ByteBuffer[]{ headers[i], null };
+        }
+    }
+
+    /** Checks if the batch has room for another packet
+     *  @return true if the batch must be flushed first, otherwise false
+     */
+    public boolean isFull(){
+        return this.count == headers.length;
+    }
+
+    /** Gets the number of packets waiting to be sent
+     *  @return number of packets in the batch
+     */
+    public int size(){
+        return this.count;
+    }
+
+    /** Encodes the header of the packet into the batch, the data is sent from where it is when the batch is flushed
+     *  @param packet Packet to be sent, its data must not change until the batch is flushed
+     */
+    public void add(Packet packet) throws IOException{
+        ByteBuffer header = headers[this.count];
+        header.clear();
+        packet.encodeHeader(header);
+        header.flip();
+
+        // Data is viewed, not copied - the view is made again only when the packet's buffer changes
+        int length = packet.getDataLength();
+        if(length == 0){
+            this.sources[this.count] = null;
+            this.payloads[this.count] = null;
+        }else if(packet.payload == null){
+            this.sources[this.count] = null;
+            this.payloads[this.count] = ByteBuffer.wrap(packet.data, 0, length);
+        }else{
+            if(this.sources[this.count] != packet.payload){
+                this.sources[this.count] = packet.payload;
+                this.payloads[this.count] = packet.payload.duplicate();
+            }
+            ByteBuffer payload = this.payloads[this.count];
+            payload.clear();
+            payload.position(packet.payload_offset);
+            payload.limit(packet.payload_offset + length);
+        }
+        this.count++;
+    }
+
+    /** Sends every packet in the batch, one gather write per datagram
+     *  @param transport Transport of a channel connected to the destination
+     */
+    public void flush(Transport transport) throws IOException{
+        for(int i = 0; i < this.count; i++){
+            ByteBuffer[] datagram = headerOnly[i];
+            if(payloads[i] != null){
+                datagram = headerAndData[i];
+                datagram[1] = payloads[i];
+            }
+
+            // Non-blocking channel drops the packet if the socket buffer is full, just like the network would. Peer
+            // that isn't listening yet is a lost packet too
+            try{
+                transport.write(datagram);
+            }catch(PortUnreachableException e){}
+        }
+        this.count = 0;
+    }
+
+    /** Discards the packets in the batch */
+    public void clear(){
+        this.count = 0;
+    }
+}
@@ -1,389 +1,312 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
-import java.net.SocketException;
+import java.net.InetSocketAddress;
 import java.net.SocketAddress;
-import java.net.InetAddress;
-import java.util.concurrent.CountDownLatch;
-public class Server extends Application{
-    /** Client's ip address */
-    private InetAddress clientAddress;
-    /** Client's port */
-    private int clientPort;
-    /** "Output" buffer */
-    StringBuffer sb = new StringBuffer();
-    /** Fast retransmit */
-    private int retransmitcount = 0;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** The Server for File Transfer Application - receives every packet on the port and hands it to the Connection
+ *  of the client that sent it. Each Connection runs in its own thread so the clients are served concurrently */
+public class Server{
+    /** Number of idle packets kept in the pool shared by the connections */
+    private static final int POOL_SIZE = 1024;
+    /** Port number */
+    private int port;
+    /** Mailbox to receive packets */
+    private DatagramSocket mailbox;
+    /** Channel behind the mailbox - shared with connections to send packets */
+    private DatagramChannel channel;
+    /** Way out for the packets of every connection, see setTransport() */
+    private Transport transport;
+    /** Event loop, null unless the Server runs with startEventLoop() */
+    private volatile EventLoop eventLoop = null;
+    /** Quiet flag */
+    private boolean quiet;
+    /** Output file, null to keep the received files in memory */
+    private File output;
+    /** Sync policy for the output file, see FileSink */
+    private long syncInterval;
+    /** Active connections indexed by client's address and port */
+    private ConcurrentHashMap<SocketAddress, Connection> connections = new ConcurrentHashMap<SocketAddress, Connection>();
+    /** Files sent over several connections indexed by client's address and transfer id, see Transfer */
+    private ConcurrentHashMap<String, Transfer> transfers = new ConcurrentHashMap<String, Transfer>();
+    /** Received packets shared by every connection, packets go back to it once the connection processed them */
+    private PacketPool pool = new PacketPool(POOL_SIZE);
+    /** Size of the receive buffer of each connection */
+    private int receiveBufferSize = Receiver.DEFAULT_BUFFER_SIZE;
+    /** True once the kernel capped the socket buffer below the windows */
+    private boolean socketBufferCapped = false;
+    /** Maximum segment size offered to clients */
+    private int mss = Packet.MAX_DATA_LENGTH;
+    /** How connections wait for packets, see Receiver */
+    private int waitStrategy = Receiver.WAIT_PARK;
+    /** Number of in-order segments each connection acknowledges together */
+    private int ackEvery = Connection.DEFAULT_ACK_EVERY;
+    /** Delayed ACK timer of each connection in milliseconds */
+    private int ackDelay = Connection.DEFAULT_ACK_DELAY;
+    /** True to run each connection on a virtual thread, otherwise on a platform thread */
+    private boolean virtualThreads = false;
+    /** Number of accepted connections - used to name the output files */
+    private int accepted = 0;
+    /** Control bit to shut down the Server */
+    private volatile boolean stop = false;
 
     /** Constructor for Server
      *  @param port Server port
      *  @param quiet True to quiet the verbose messages otherwise false to quiet the verbose messages
      */
-    public Server(int port, boolean quiet) throws SocketException{
-        this.mailbox = new DatagramSocket(port);
-        this.port = port;
-        this.quiet = quiet;
-        //this.ra = new RandomAccessFile(file, "w");
-        this.cdl = new CountDownLatch(1);
-        this.receiver = new Receiver(mailbox, cdl, quiet);
-        this.defaulttimeout = 5000;
-        this.timeout = this.defaulttimeout;
+    public Server(int port, boolean quiet) throws Exception{
+        this(port, quiet, null, FileSink.SYNC_ON_CLOSE);
     }
 
-    /** Main loop for the Server */
-    public void start() throws Exception{
-        // Start the receiver
-        receiver.start();
-
-        println("\n################### Waiting #########################\n");
-
-        // Process packets queue
-        while(true){
-
-            // Wait for anything from receiver or timeout
-            if(!receiver.hasPacket()) cdl.await();
-
-            // Reset the CDL
-            cdl = new CountDownLatch(1);
-            receiver.setCountDownLatch(cdl);
-
-            // Clean up the timeout thread
-            if(timeoutthread != null){
-                timeoutthread.interruptTime();
-                timeoutthread = null;
-            }
-
-            // Check event
-            int duration;
-            if(receiver.hasPacket()) duration = processPacket(receiver.getPacket()); // Received a packet
-            else duration = processTimeout(); // Timed out
-
-            // Verbose message
-            if(duration != -1) println("Timeout set to: " + duration + "ms");
-            else println("");
-
-            // Set timeout
-            if(duration == 0){
-                duration = processTimeout();
-                // Verbose message
-                println("Timeout set to: " + duration + "ms");
-            }else if(duration == -1L) break;
-
-            if(duration != -2L){
-                timeoutthread = new Timeout(this.cdl, duration);
-                timeoutthread.start();
-            }else{
-                println("Still waiting...");
-            }
-        }
-
-        println("Stopping the server\n");
-        //System.out.println(sb.toString());
-        if(!quiet) System.out.println("\rOutput MD5 hash: " + Utility.getHash(sb.toString()));
-        else System.out.println("MD5 hash of the file: " + Utility.getHash(sb.toString()));
-
-        // Clean up
-        this.cleanUp();
+    /** Constructor for Server
+     *  @param port Server port
+     *  @param quiet True to quiet the verbose messages otherwise false to quiet the verbose messages
+     *  @param output File to write the received file to, null to keep the received file in memory. Connections
+     *  after the first one write to the file with the connection number appended to its name
+     *  @param syncInterval Sync policy for the output file, see FileSink
+     */
+    public Server(int port, boolean quiet, File output, long syncInterval) throws Exception{
+        this.channel = DatagramChannel.open();
+        this.channel.bind(new InetSocketAddress(port));
+        this.mailbox = channel.socket();
+        this.transport = new ChannelTransport(this.channel);
+        this.port = mailbox.getLocalPort();
+        this.quiet = quiet;
+        this.output = output;
+        this.syncInterval = syncInterval;
     }
 
-    /** Convenience method to fire away TCP packet
-     *  @param ack_bit Acknowledgement Bit in packet. True if enabled, otherwise false
-     *  @param syn_bit Synchronization Bit in packet. True if enabled, otherwise false
-     *  @param fin_bit Finish Bit in packet. True if enabled, otherwise false
+    /** Sets the size of the receive buffer of each connection, must be called before start(). The socket buffer
+     *  is grown to hold a window of every connection
+     *  @param size Size of the receive buffer in bytes, up to Receiver.MAX_BUFFER_SIZE
      */
-    public void sendPacket(boolean ack_bit, boolean syn_bit, boolean fin_bit) throws Exception{
-        sendPacket(this.seq_num, this.ack_num, ack_bit, syn_bit, fin_bit);
+    public void setReceiveBufferSize(int size) throws IOException{
+        this.receiveBufferSize = size;
+        growSocketBuffer(size);
     }
 
-    /** Convenience method to fire away TCP packet
-     *  @param seq_num Sequence Number
-     *  @param ack_num Acknowledgement Number
-     *  @param ack_bit Acknowledgement Bit in packet. True if enabled, otherwise false
-     *  @param syn_bit Synchronization Bit in packet. True if enabled, otherwise false
-     *  @param fin_bit Finish Bit in packet. True if enabled, otherwise false
+    /** Grows the receive buffer of the shared socket toward the windows of the connections, otherwise full windows
+     *  are dropped by the kernel. Warns once if the kernel caps it below them
+     *  @param size Size of the windows of every connection in bytes
      */
-    public void sendPacket(int seq_num, int ack_num, boolean ack_bit, boolean syn_bit, boolean fin_bit) throws Exception{
-        // Build the packet
-        Packet packet = new Packet(seq_num, ack_num, ack_bit, fin_bit, syn_bit, receiver.getAvailableBuffer(), null, this.mailbox.getLocalAddress(), this.mailbox.getLocalPort());
-
-        // Convert the packet to byte array
-        byte[] tcp_packet = packet.toByteArray();
-
-        /*
-        // Packet dropper
-        int chance = (int)(Math.random() * 5);
-        if(chance != 1) mailbox.send(new DatagramPacket(tcp_packet, tcp_packet.length, this.clientAddress, this.clientPort));
-        //else System.out.println("&&&&& FAILURE &&&&&");
-        */
-
-        // Send the packet
-        mailbox.send(new DatagramPacket(tcp_packet, tcp_packet.length, this.clientAddress, this.clientPort));
-
-        // Verbose message
-        //print("## SENDING PACKET ##\n" + packet);
+    private void growSocketBuffer(long size) throws IOException{
+        int wanted = (int)Math.min(size, Integer.MAX_VALUE);
+        if(channel.getOption(StandardSocketOptions.SO_RCVBUF) >= wanted) return;
+        channel.setOption(StandardSocketOptions.SO_RCVBUF, wanted);
+        int socketBuffer = channel.getOption(StandardSocketOptions.SO_RCVBUF);
+        if(socketBuffer >= wanted || this.socketBufferCapped) return;
+        this.socketBufferCapped = true;
+        System.err.println("Warning: Socket receive buffer is capped at " + socketBuffer + " bytes, below the windows of " + wanted + " bytes - raise net.core.rmem_max");
     }
 
-    /** Processes the packet assuming that it passed the checksum test
-     *  @param packet Packet to be processed
-     *  @return Time out duration
+    /** Sets the maximum segment size offered to clients, must be called before start()
+     *  @param mss Maximum segment size, up to Packet.MAX_MSS
      */
-    public int processPacket(Packet packet) throws Exception{
-        //TCP control bits
-        boolean ack_bit = false;
-        boolean syn_bit = false;
-        boolean fin_bit = false;
-
-        // Verbose message
-        if(!quiet){
-            System.out.print("\n## RECEIVING PACKET ## Seq: " + packet.seq_num + " ack: " + packet.ack_num + " length: " + packet.length + " ");
-            if(packet.ack_bit) System.out.print("A ");
-            if(packet.syn_bit) System.out.print("S ");
-            if(packet.fin_bit) System.out.print("F ");
-            System.out.println("\n#");
-        }
-
-        // Check if SYN message
-        if(packet.syn_bit){
-            // Verbose message
-            println("################### Synchronization #########################\n#");
-            println("# SYN message received. Responding to ACK and sending SYN");
-
-            //if(quiet) System.out.print("Transfer in progress...");
-
-            // Record the client's address and port
-            this.clientAddress = packet.senderAddress;
-            this.clientPort = packet.senderPort;
+    public void setMSS(int mss) throws Exception{
+        this.mss = mss;
+        int socketBuffer = 4 * Packet.getDatagramLength(mss);
+        if(channel.getOption(StandardSocketOptions.SO_RCVBUF) < socketBuffer) channel.setOption(StandardSocketOptions.SO_RCVBUF, socketBuffer);
+    }
 
-            // Respond to client's SYN
-            ack_bit = true;
+    /** Sets how connections wait for packets, must be called before start()
+     *  @param waitStrategy Receiver.WAIT_PARK, Receiver.WAIT_YIELD or Receiver.WAIT_SPIN
+     */
+    public void setWaitStrategy(int waitStrategy){
+        this.waitStrategy = waitStrategy;
+    }
 
-            //Increment ack number - 1 SYN = 1 number
-            this.ack_num = this.seq_num + 1;
+    /** Sets the ACK policy of each connection, must be called before start()
+     *  @param ackEvery Number of in-order segments acknowledged together, 1 to acknowledge every segment
+     *  @param ackDelay Longest time an in-order segment waits for its ACK in milliseconds
+     */
+    public void setAckPolicy(int ackEvery, int ackDelay){
+        this.ackEvery = ackEvery;
+        this.ackDelay = ackDelay;
+    }
 
-            // Handshake client with sending SYN
-            syn_bit = true;
-            this.state = FSM.SYN;
-        }
+    /** Runs each connection on its own virtual thread instead of a platform thread, must be called before start().
+     *  Connections still block on their latches and timers, but an idle connection only costs its stack and
+     *  buffers, so thousands of them share a few carrier threads
+     *  @param virtualThreads True to use virtual threads, otherwise false
+     */
+    public void setVirtualThreads(boolean virtualThreads){
+        if(virtualThreads && !VirtualThreads.isSupported()) throw new UnsupportedOperationException("Virtual threads need Java 21 or newer");
+        this.virtualThreads = virtualThreads;
+    }
 
-        // Check if ACK message
-        if(packet.ack_bit){
-            // Verbose message
-            println("# ACK received");
+    /** Sets the transport the connections send through, must be called before start()
+     *  @param transport Transport in front of the channel, like the NetworkEmulator
+     */
+    public void setTransport(Transport transport){
+        this.transport = transport;
+    }
 
-            // Recalculate RTT
-            recalculateRTT(getTime() - this.last_time);
+    /** Gets the transport the connections send through
+     *  @return transport
+     */
+    public Transport getTransport(){
+        return this.transport;
+    }
 
-            // Check for acceptable states
-            if(this.state == FSM.SYN || this.state == FSM.ESTABLISHED || this.state == FSM.FIN){
-                // Client received N bytes so sender may advance
-                this.seq_num = packet.ack_num;
+    /** Gets the port the Server is bound to - picked by the system if the Server was created with port 0
+     *  @return port number
+     */
+    public int getPort(){
+        return this.port;
+    }
 
-                // Change states if applicable
-                if(this.state == FSM.SYN){
-                    // Verbose message
-                    println("# \n################### Established! #########################\n#");
+    /** Main loop for the Server - demultiplexes packets to connections until the Server is closed */
+    public void start() throws Exception{
+        if(!quiet) System.out.println("\n################### Waiting #########################\n");
+
+        // Accept the largest datagram - header, options and data. Buffer and decoder are reused for every datagram
+        byte[] payload = new byte[Packet.getDatagramLength(this.mss)];
+        DatagramPacket packet = new DatagramPacket(payload, payload.length);
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        PacketView view = new PacketView();
+
+        while(!this.stop){
+            try{
+                packet.setLength(payload.length);
+                mailbox.receive(packet);
+
+                // Check if packet is corrupted
+                view.wrap(buffer, 0, packet.getLength());
+                if(!view.isChecksumValid(packet.getPort())) throw new Exception("Corrupted Packet");
+            }catch(Exception e){
+                if(!this.stop) ProcessMetrics.getShared().checksumDrop();
+                if(!this.stop) Trace.drop(0, Trace.DROP_CHECKSUM, null, packet.getPort());
+                if(!this.stop && !quiet) System.out.println("!! Packet is corrupted! !! - Dropped automatically");
+                continue;
+            }
 
-                    // Mark the state as established
-                    this.state = FSM.ESTABLISHED;
+            // Decode into a pooled packet, the connection recycles it
+            Packet pkt = pool.take();
+            pkt.set(view, packet.getAddress(), packet.getPort());
 
-                    // Helper value for file pointer
-                    file_seq_offset = this.seq_num;
-                }
-                // Finish state
-                if(this.state == FSM.FIN){
-                    if(packet.ack_num == this.seq_num){
-                        // Verbose message
-                        println("# \n################### Finished! #########################\n");
-
-                        // Mark the state as finished
-                        this.state = FSM.FIN_ACK;
-                    }
-                }
-            }
-        }
+            // Find the connection of the client
+            Connection connection = connections.get(new InetSocketAddress(pkt.senderAddress, pkt.senderPort));
 
-        // Check if file message
-        if(packet.length != 0){
-            if(this.state == FSM.ESTABLISHED){
-                // Verbose message
-                print("# Data received! ack_num: " + this.ack_num + " last ack: " + last_ack);
-
-                // Recalculate RTT
-                recalculateRTT(getTime() - this.last_time);
-
-                // Check if packet is not advanced
-                if(packet.seq_num == this.ack_num){
-                    // Verbose message
-                    println("\n# Packet is in order\n#");
-
-                    // Save old ack
-                    this.last_ack = this.ack_num;
-
-                    // Write to buffer
-                    for(int i = 0; i < packet.length; i++) sb.append((char)packet.data[i]);
-
-                    // Reset flag
-                    this.retransmitcount = 0;
-
-                    // Modify numbers
-                    this.ack_num = packet.seq_num + packet.length;
-                    this.seq_num = packet.ack_num;
-
-                    // Set the bit
-                    ack_bit = true;
-                }else if(packet.seq_num <= this.ack_num){
-                    // Verbose message
-                    println("\n# Packet is older, rewrite\n#");
-
-                    // Undo the write
-                    if(packet.seq_num < this.ack_num){
-                        int pointer = sb.length() - ((this.ack_num - file_seq_offset) - (packet.seq_num - file_seq_offset));
-                        sb.delete(pointer, sb.length());
-                    }
-
-                    // Reset flag
-                    this.retransmitcount = 0;
-
-                    // Write to buffer
-                    for(int i = 0; i < packet.length; i++) sb.append((char)packet.data[i]);
-
-                    // Modify numbers
-                    this.ack_num = packet.seq_num + packet.length;
-                    this.seq_num = packet.ack_num;
-
-                    // Set the bit
-                    ack_bit = true;
-                }else{
-                    if(packet.seq_num > this.ack_num){
-                        // Verbose message
-                        println("\n# Packet is beyond the order - missing packet in between");
-                    }else{
-                        // Verbose message
-                        println("\n# Packet is behind the order - stray packet");
-                    }
-                    // Flag the retransmit - I used retransmitcount to make the transmit less spammy
-                    this.retransmitcount++;
-                    print("## retransmit: " + this.retransmitcount);
-                    if((retransmitcount % 5 == 0)){
-                        // Verbose message
-                        print("## Fast retransmit - SENDING X2 PACKETS ## ack_num: " + this.ack_num + " - ");
-
-                        // Store the last ack
-                        this.last_ack = this.ack_num;
-
-                        // Send 2 same packets
-                        sendPacket(this.seq_num, this.ack_num, true, syn_bit, fin_bit);
-                        sendPacket(this.seq_num, this.ack_num, true, syn_bit, fin_bit);
-
-                        // We're not interested in any packets stored in the receiver
-                        receiver.clearBuffer();
-
-                        // Double the timeout
-                        this.timeout += this.timeout + ((this.timeout == 0) ? 2 : 0);
-                        this.timeout = Math.min(this.timeout, this.defaulttimeout);
-                        return this.timeout;
-                    }
+            // New client must start with SYN, anything else is a stray packet from a closed connection
+            if(connection == null){
+                connection = createConnection(pkt);
+                if(connection == null){
+                    pool.recycle(pkt);
+                    continue;
                 }
+                String name = "Connection-" + connection.getClientAddress();
+                Thread thread = this.virtualThreads ? VirtualThreads.create(connection, name) : new Thread(connection, name);
+                thread.start();
             }
-        }
-
-        // Check if FIN message
-        if(packet.fin_bit){
-            // Verbose message
-            if(!quiet){
-                System.out.println("# FIN message received. Responding to ACK and sending FIN");
-                System.out.println("## SENDING PACKET ## ack_num: " + this.ack_num + 1 + " A F");
-            }
-
-            // End connection
-            fin_bit = true;
-            this.state = FSM.FIN;
-
-            // Respond to client's FIN
-            ack_bit = true;
 
-            //Increment ack number - 1 FIN = 1 number
-            this.ack_num = this.ack_num + 1;
+            connection.deliver(pkt);
         }
 
-        // Send packet where appropriate
-        if(syn_bit || ack_bit || fin_bit) sendPacket(ack_bit, syn_bit, fin_bit);
-
-        // Store RTT time
-        this.last_time = getTime();
+        // Clean up
+        this.cleanUp();
+    }
 
-        // Exit if FIN is already acked
-        if(this.state == FSM.FIN_ACK) return -1;
+    /** Event loop for the Server - every connection is processed on this thread with non-blocking channel */
+    public void startEventLoop() throws Exception{
+        if(!quiet) System.out.println("\n################### Waiting #########################\n");
+        channel.configureBlocking(false);
+        this.eventLoop = new EventLoop(this.channel, this, quiet);
+        this.eventLoop.setDatagramLength(Packet.getDatagramLength(this.mss));
+        if(!this.stop) this.eventLoop.run();
 
-        return this.timeout;
+        // Clean up
+        this.cleanUp();
     }
 
-    /** Process the time out call
-     *  @return time out duration
+    /** Creates a connection for the client who sent the packet - client must start with SYN
+     *  @param pkt First packet from the client
+     *  @return New Connection, null if the packet is not SYN
      */
-    public int processTimeout() throws Exception{
-        // Verbose message
-        println("\n##Timed out##");
-
-        // Double the timeout
-        this.timeout += this.timeout + ((this.timeout == 0) ? 2 : 0);
-        this.timeout = Math.min(this.timeout, this.defaulttimeout);
+    public Connection createConnection(Packet pkt) throws Exception{
+        if(!pkt.syn_bit) return null;
+        Connection connection = new Connection(this, this.channel, pkt.senderAddress, pkt.senderPort, createSink(pkt), quiet);
+        connection.setWaitStrategy(this.waitStrategy);
+        connection.setReceiveBufferSize(this.receiveBufferSize);
+        connection.setMSS(this.mss);
+        connection.setAckPolicy(this.ackEvery, this.ackDelay);
+        connections.put(connection.getClientAddress(), connection);
+        growSocketBuffer((long)this.receiveBufferSize * connections.size());
+        return connection;
+    }
 
-        // No ACK from the client for SYN
-        if(this.state == FSM.SYN){
-            // Verbose message
-            println("# SYN packet sent by server timed out. Resending SYN");
+    /** Creates the output for the connection - connections that carry a byte range of the same file share one output
+     *  @param pkt SYN from the client
+     *  @return OutputSink for the connection
+     */
+    private OutputSink createSink(Packet pkt) throws Exception{
+        if(pkt.stream_count == 0) return createSink();
+        String key = Transfer.getKey(pkt.senderAddress, pkt.stream_id);
+        Transfer transfer = transfers.get(key);
+        if(transfer == null){
+            transfer = new Transfer(this, pkt.senderAddress, pkt.stream_id, pkt.stream_count, createSink());
+            transfers.put(key, transfer);
+        }
+        return transfer.openStream(pkt.stream_offset);
+    }
 
-            // Send packet with SYN and ACK
-            sendPacket(true, true, false);
+    /** Creates the output for the next file
+     *  @return OutputSink for the file
+     */
+    private OutputSink createSink() throws Exception{
+        this.accepted++;
+        if(this.output == null) return new MemorySink();
+        if(this.accepted == 1) return new FileSink(this.output, this.syncInterval);
+        return new FileSink(new File(this.output.getPath() + "." + this.accepted), this.syncInterval);
+    }
 
-            // Timeout
-            return this.timeout;
-        }
+    /** Removes the finished connection, called by the connection itself
+     *  @param connection Finished connection
+     */
+    public void removeConnection(Connection connection){
+        connections.remove(connection.getClientAddress(), connection);
+    }
 
-        // Established state
-        if(this.state == FSM.ESTABLISHED){
-            // retransmitcount is used to reduce the spam from retransmit
-            this.retransmitcount++;
-            // Verbose message
-            print("## retransmit: " + this.retransmitcount);
-            if((retransmitcount % 5 == 0) && this.ack_num != this.last_ack){
-                // Verbose message
-                print("#  NO PACKETS FAST RETRANSMIT!\n#");
-                print("## SENDING X2 PACKETS ## ack_num: " + this.ack_num + " - ");
-
-                // Send 2 same packets
-                sendPacket(this.seq_num, this.ack_num, true, false, false);
-                sendPacket(this.seq_num, this.ack_num, true, false, false);
-
-                // We're not interested in any packets stored in the receiver
-                receiver.clearBuffer();
-            }
-            return this.timeout;
-        }
+    /** Removes the finished transfer, called by the transfer itself
+     *  @param transfer Finished transfer
+     */
+    public void removeTransfer(Transfer transfer){
+        transfers.remove(transfer.getKey(), transfer);
+    }
 
-        // Finish state
-        if(this.state == FSM.FIN){
-            // Verbose message
-            println("FIN packet sent by server timed out. Assuming they got the packet. Shutting down the server");
+    /** Gets the pool of received packets
+     *  @return pool shared by the connections
+     */
+    public PacketPool getPacketPool(){
+        return this.pool;
+    }
 
-            // Stop the server
-            return -1;
-        }
+    /** Gets the number of active connections
+     *  @return number of active connections
+     */
+    public int getConnectionCount(){
+        return connections.size();
+    }
 
-        println("processTimeout method ends");
-        return -1;
+    /** Closes the Server, active connections are abandoned */
+    public void close(){
+        this.stop = true;
+        if(this.eventLoop != null) this.eventLoop.close();
+        transport.close();
+        mailbox.close();
     }
 
     /** Clean up method - cleans up everything */
     public void cleanUp() throws Exception{
-        //ra.close();
-        receiver.close();
-        receiver.interrupt();
-        receiver = null;
-        timeoutthread = null;
-        cdl = null;
-        mailbox.close();
+        transport.close();
+        if(!mailbox.isClosed()) mailbox.close();
     }
 }
@@ -2,14 +2,25 @@
  *  @date November 4, 2016
  */
 import java.util.concurrent.CountDownLatch;
-/** A simple Timeout object that informs the parent thread with CountDownLatch when time is up */
-public class Timeout extends Thread{
+/** A simple Timeout object that informs the parent thread with CountDownLatch when time is up. Timeouts are
+ *  kept in the shared TimerWheel, no thread is started for a Timeout */
+public class Timeout{
     /** The countdownlatch object - used to signal the parent thread that time is up */
     private CountDownLatch cdl;
     /** The timeout duration in milliseconds */
     private int duration;
-    /** Interrupt flag */
-    private volatile boolean interrupt = false;
+
+    // TimerWheel bookkeeping
+    /** Next timeout in the same slot */
+    Timeout next;
+    /** Previous timeout in the same slot */
+    Timeout prev;
+    /** Slot of the wheel the timeout is in */
+    int slot;
+    /** Number of wheel rotations left before time is up */
+    long rounds;
+    /** True if timeout is in the wheel */
+    boolean armed = false;
 
     /** Constructor for Timeout object
      *  @param cdl  CountDownLatch object that is used to inform the parent thread that the time is up
@@ -21,23 +32,19 @@ public class Timeout extends Thread{
         else this.duration = 0;
     }
 
-    /** Thread's run method */
-    public void run(){
-        try{
-            //System.out.println("Started timeout " + this.duration);
-            //Sleep for a duration of time
-            long time = System.currentTimeMillis();
-            while(!interrupt && (System.currentTimeMillis() - time) < this.duration);
+    /** Arms the timer */
+    public void start(){
+        TimerWheel.getShared().schedule(this, this.duration);
+    }
 
-            //Count down to inform the parent thread that time out is over
-            if(!interrupt)cdl.countDown();
-        }catch(Exception e){
-            // Not supposed to happen
-            e.printStackTrace();
-        }
+    /** Called by TimerWheel when time is up */
+    void expire(){
+        //Count down to inform the parent thread that time out is over
+        cdl.countDown();
     }
+
     /** Method to interrupt the timer */
-    public synchronized void interruptTime(){
-        this.interrupt = true;
+    public void interruptTime(){
+        TimerWheel.getShared().cancel(this);
     }
 }
@@ -0,0 +1,169 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+import java.util.ArrayList;
+
+/** Hashed timing wheel shared by every timer in the process. Arming and cancelling a Timeout is O(1) and doesn't
+ *  start a thread - one daemon thread expires the timers and it sleeps while there's nothing to expire */
+public class TimerWheel implements Runnable{
+    /** Duration of one tick in nanoseconds */
+    private static final long TICK_NANOS = 1000000L;
+    /** Number of slots in the wheel, must be power of two */
+    private static final int WHEEL_SIZE = 512;
+    /** Shared instance */
+    private static final TimerWheel shared = new TimerWheel();
+
+    /** Slots of the wheel - each slot is a linked list of timeouts */
+    private Timeout[] wheel = new Timeout[WHEEL_SIZE];
+    /** Time the wheel started in nanoseconds */
+    private long start = System.nanoTime();
+    /** Next tick to be processed */
+    private long tick = 0;
+    /** Tick the worker thread is waiting for */
+    private long wakeTick = Long.MAX_VALUE;
+    /** Number of armed timeouts */
+    private int count = 0;
+    /** Number of expired timeouts */
+    private long expiredCount = 0;
+
+    /** Constructor for TimerWheel, starts the worker thread */
+    private TimerWheel(){
+        Thread worker = new Thread(this, "TimerWheel");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /** Gets the shared TimerWheel
+     *  @return shared TimerWheel
+     */
+    public static TimerWheel getShared(){
+        return shared;
+    }
+
+    /** Arms the timeout, already armed timeout is re-armed
+     *  @param timeout Timeout to be armed
+     *  @param duration Duration in milliseconds
+     */
+    public synchronized void schedule(Timeout timeout, int duration){
+        if(timeout.armed) unlink(timeout);
+
+        // Worker doesn't walk an empty wheel, skip the ticks that passed while idle - rounds count from here
+        if(this.count == 0) this.tick = Math.max(this.tick, currentTick());
+
+        // Find the tick the timeout expires on
+        long deadline = System.nanoTime() + duration * 1000000L - start;
+        long deadlineTick = (deadline + TICK_NANOS - 1) / TICK_NANOS;
+        if(deadlineTick < this.tick) deadlineTick = this.tick;
+
+        // Put in the slot
+        timeout.rounds = (deadlineTick - this.tick) / WHEEL_SIZE;
+        timeout.slot = (int)(deadlineTick & (WHEEL_SIZE - 1));
+        timeout.prev = null;
+        timeout.next = wheel[timeout.slot];
+        if(timeout.next != null) timeout.next.prev = timeout;
+        wheel[timeout.slot] = timeout;
+        timeout.armed = true;
+        this.count++;
+
+        // Wake the worker if it sleeps past this timeout
+        if(deadlineTick < this.wakeTick) notify();
+    }
+
+    /** Cancels the timeout, nothing happens if timeout is not armed
+     *  @param timeout Timeout to be cancelled
+     */
+    public synchronized void cancel(Timeout timeout){
+        if(timeout.armed) unlink(timeout);
+    }
+
+    /** Gets the number of armed timeouts
+     *  @return number of armed timeouts
+     */
+    public synchronized int getArmedCount(){
+        return this.count;
+    }
+
+    /** Gets the number of expired timeouts since the start
+     *  @return number of expired timeouts
+     */
+    public synchronized long getExpiredCount(){
+        return this.expiredCount;
+    }
+
+    /** Removes the timeout from its slot
+     *  @param timeout Armed timeout
+     */
+    private void unlink(Timeout timeout){
+        if(timeout.prev != null) timeout.prev.next = timeout.next;
+        else wheel[timeout.slot] = timeout.next;
+        if(timeout.next != null) timeout.next.prev = timeout.prev;
+        timeout.next = null;
+        timeout.prev = null;
+        timeout.armed = false;
+        this.count--;
+    }
+
+    /** Gets the current tick
+     *  @return current tick
+     */
+    private long currentTick(){
+        return (System.nanoTime() - start) / TICK_NANOS;
+    }
+
+    /** Finds the next tick with a non-empty slot
+     *  @return next tick to wake up on
+     */
+    private long nextPendingTick(){
+        for(long t = this.tick; t < this.tick + WHEEL_SIZE; t++) if(wheel[(int)(t & (WHEEL_SIZE - 1))] != null) return t;
+        return this.tick + WHEEL_SIZE;
+    }
+
+    /** Worker thread's run method - expires the timeouts */
+    public void run(){
+        ArrayList<Timeout> expired = new ArrayList<Timeout>();
+        while(true){
+            try{
+                synchronized(this){
+                    // Sleep until the next tick with anything in it
+                    while(true){
+                        if(this.count == 0){
+                            this.wakeTick = Long.MAX_VALUE;
+                            wait(); //schedule() skips the ticks that passed while idle
+                            continue;
+                        }
+                        this.wakeTick = nextPendingTick();
+                        long sleep = start + this.wakeTick * TICK_NANOS - System.nanoTime();
+                        if(sleep <= 0) break;
+                        wait(sleep / 1000000L, (int)(sleep % 1000000L));
+                    }
+                    this.wakeTick = Long.MAX_VALUE;
+
+                    // Walk every tick up to now
+                    long now = currentTick();
+                    while(this.tick <= now){
+                        Timeout timeout = wheel[(int)(this.tick & (WHEEL_SIZE - 1))];
+                        while(timeout != null){
+                            Timeout next = timeout.next;
+                            if(timeout.rounds > 0) timeout.rounds--;
+                            else{
+                                unlink(timeout);
+                                expired.add(timeout);
+                            }
+                            timeout = next;
+                        }
+                        this.tick++;
+                    }
+                    this.expiredCount += expired.size();
+                }
+
+                // Expire outside the lock so the timeouts can re-arm
+                for(int i = 0; i < expired.size(); i++) expired.get(i).expire();
+                expired.clear();
+            }catch(InterruptedException e){
+                // Not supposed to happen
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/** Binary event trace - every event is a fixed-size record written into the off-heap ring of the Client or
+ *  Connection it belongs to, so recording costs a few stores and no allocation, and nothing at all while tracing is
+ *  off. Old records are overwritten once a ring is full. A ring is written to the trace file and freed when its
+ *  Client or Connection closes and its trace id is reused, so memory only grows with the connections open at once.
+ *  The rings still open are written when the process exits and TraceDecoder turns the file into a timeline
+ *
+ *  Record layout, 32 bytes: time in nanoseconds (8), trace id (4), type (1), flags (1), drop reason (2),
+ *  sequence number (4), acknowledgement number (4), length (4), value (4)
+ *
+ *  File layout: magic (4), version (4), start time (8), then one section per ring - trace id (4), name (UTF),
+ *  number of records written (8), number kept (4) and the kept records oldest first - and -1 (4) at the end */
+public class Trace{
+    /** First bytes of a dump */
+    public static final int MAGIC = 0x46435452;
+    /** Version of the dump format */
+    public static final int VERSION = 2;
+    /** Size of a record in bytes */
+    public static final int RECORD_SIZE = 32;
+    /** Default number of records per ring */
+    public static final int DEFAULT_RECORDS = 65536;
+    /** Ring header - number of records written so far */
+    private static final int HEADER_SIZE = 8;
+    /** Marks the end of the rings in the file */
+    public static final int END = -1;
+
+    /** Packet sent - value is the window in the header */
+    public static final int SEND = 1;
+    /** Packet taken for processing - value is the peer's window in bytes */
+    public static final int RECEIVE = 2;
+    /** New data acknowledged - seq is the old ack number, length the acked bytes, value the round trip time in microseconds */
+    public static final int ACK = 3;
+    /** Retransmission time out - length is the bytes in flight, value the backed off timeout in milliseconds */
+    public static final int TIMEOUT = 4;
+    /** Congestion window changed - length is the bytes in flight, value the new window in bytes */
+    public static final int CWND = 5;
+    /** Packet dropped - reason says why */
+    public static final int DROP = 6;
+
+    /** Drop reason - bad checksum */
+    public static final int DROP_CHECKSUM = 1;
+    /** Drop reason - packet queue of the Receiver was full */
+    public static final int DROP_QUEUE_FULL = 2;
+    /** Drop reason - receive buffer was full */
+    public static final int DROP_ZERO_WINDOW = 3;
+    /** Drop reason - out-of-order segment didn't fit in the reassembly buffer */
+    public static final int DROP_NO_ROOM = 4;
+
+    /** Flag - ACK bit */
+    public static final int FLAG_ACK = 1;
+    /** Flag - SYN bit */
+    public static final int FLAG_SYN = 2;
+    /** Flag - FIN bit */
+    public static final int FLAG_FIN = 4;
+
+    /** True while tracing - checked before anything else on every event */
+    private static volatile boolean enabled = false;
+    /** File the rings are written to, null once it's closed */
+    private static DataOutputStream out;
+    /** Number of records per ring - power of two */
+    private static int records = DEFAULT_RECORDS;
+    /** Time tracing started in nanoseconds */
+    private static long start;
+    /** Rings indexed by trace id, null for ids not in use. Id 0 is for events that belong to no Client or
+     *  Connection. The array is replaced when it grows and written again after a change to publish the change */
+    private static volatile ByteBuffer[] rings = new ByteBuffer[16];
+    /** Names of the trace ids in use */
+    private static String[] names = new String[16];
+    /** Trace ids in use */
+    private static BitSet used = new BitSet();
+
+    /** Starts tracing, the rings still open are written when the process exits. Must be called before any Client
+     *  or Connection is created
+     *  @param file File the trace is written to
+     *  @param size Number of records kept per Client or Connection, rounded up to a power of two
+     */
+    public static synchronized void enable(File file, int size) throws IOException{
+        if(enabled) return;
+        Trace.records = Integer.highestOneBit(Math.max(size, 2) - 1) << 1;
+        Trace.start = System.nanoTime();
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(start);
+        open(0, "-");
+        Runtime.getRuntime().addShutdownHook(new Thread("trace-dump"){
+            public void run(){
+                try{
+                    dump();
+                }catch(IOException e){
+                    System.err.println("Error: trace was not written " + e.getMessage());
+                }
+            }
+        });
+        enabled = true;
+    }
+
+    /** Checks if tracing is on
+     *  @return true if events are recorded, otherwise false
+     */
+    public static boolean isEnabled(){
+        return enabled;
+    }
+
+    /** Gets a trace id and a ring for a Client or Connection, close() must be called once it's done
+     *  @param name Name shown in the timeline
+     *  @return trace id, 0 if tracing is off
+     */
+    public static synchronized int register(String name){
+        if(!enabled || out == null) return 0;
+        int id = used.nextClearBit(1);
+        open(id, name);
+        return id;
+    }
+
+    /** Writes the ring of a Client or Connection that is done to the file and frees the id
+     *  @param id Trace id, nothing happens for 0
+     */
+    public static synchronized void close(int id){
+        if(id <= 0 || !used.get(id)) return;
+        ByteBuffer buffer = rings[id];
+        String name = names[id];
+        rings[id] = null;
+        names[id] = null;
+        rings = rings; //Publish the change
+        used.clear(id);
+        if(out == null) return;
+        try{
+            writeRing(id, name, buffer);
+        }catch(IOException e){
+            System.err.println("Error: trace was not written " + e.getMessage());
+            out = null;
+            enabled = false;
+        }
+    }
+
+    /** Allocates the ring of a trace id
+     *  @param id Trace id
+     *  @param name Name shown in the timeline
+     */
+    private static void open(int id, String name){
+        ByteBuffer[] table = rings;
+        if(id >= table.length){
+            table = Arrays.copyOf(table, Math.max(id + 1, table.length * 2));
+            names = Arrays.copyOf(names, table.length);
+        }
+        table[id] = ByteBuffer.allocateDirect(HEADER_SIZE + records * RECORD_SIZE);
+        names[id] = name;
+        used.set(id);
+        rings = table; //Publish the ring
+    }
+
+    /** Records an event about a packet
+     *  @param id Trace id of the Client or Connection
+     *  @param type Type of the event
+     *  @param packet Packet the event is about
+     *  @param value Value of the event, see the types
+     */
+    public static void record(int id, int type, Packet packet, int value){
+        if(!enabled) return;
+        write(id, type, getFlags(packet), 0, packet.seq_num, packet.ack_num, packet.length, value);
+    }
+
+    /** Records an event that is not about a single packet
+     *  @param id Trace id of the Client or Connection
+     *  @param type Type of the event
+     *  @param seq Sequence number
+     *  @param ack Acknowledgement number
+     *  @param length Length, see the types
+     *  @param value Value of the event, see the types
+     */
+    public static void record(int id, int type, int seq, int ack, int length, int value){
+        if(!enabled) return;
+        write(id, type, 0, 0, seq, ack, length, value);
+    }
+
+    /** Records a dropped packet
+     *  @param id Trace id of the Client or Connection, 0 if the packet belongs to none
+     *  @param reason Why the packet was dropped
+     *  @param packet Dropped packet, null if it couldn't be decoded
+     *  @param value Sender's port for packets that couldn't be decoded, otherwise 0
+     */
+    public static void drop(int id, int reason, Packet packet, int value){
+        if(!enabled) return;
+        if(packet == null) write(id, DROP, 0, reason, 0, 0, 0, value);
+        else write(id, DROP, getFlags(packet), reason, packet.seq_num, packet.ack_num, packet.length, value);
+    }
+
+    /** Gets the flags of the packet
+     *  @param packet Packet
+     *  @return FLAG_ACK, FLAG_SYN and FLAG_FIN combined
+     */
+    private static int getFlags(Packet packet){
+        int flags = 0;
+        if(packet.ack_bit) flags |= FLAG_ACK;
+        if(packet.syn_bit) flags |= FLAG_SYN;
+        if(packet.fin_bit) flags |= FLAG_FIN;
+        return flags;
+    }
+
+    /** Writes a record into the ring of the trace id, overwriting the oldest one if the ring is full. Threads of one
+     *  Client or Connection - its loop and its Receiver - share the ring, so writing takes the ring's lock, which
+     *  is nearly always uncontended */
+    private static void write(int id, int type, int flags, int reason, int seq, int ack, int length, int value){
+        ByteBuffer[] table = rings;
+        if(id < 0 || id >= table.length) return;
+        ByteBuffer buffer = table[id];
+        if(buffer == null) return; //Closed already
+        synchronized(buffer){
+            long count = buffer.getLong(0);
+            int offset = HEADER_SIZE + (int)(count & (records - 1)) * RECORD_SIZE;
+            buffer.putLong(offset, System.nanoTime());
+            buffer.putInt(offset + 8, id);
+            buffer.put(offset + 12, (byte)type);
+            buffer.put(offset + 13, (byte)flags);
+            buffer.putShort(offset + 14, (short)reason);
+            buffer.putInt(offset + 16, seq);
+            buffer.putInt(offset + 20, ack);
+            buffer.putInt(offset + 24, length);
+            buffer.putInt(offset + 28, value);
+            buffer.putLong(0, count + 1);
+        }
+    }
+
+    /** Writes one ring to the file, oldest record first
+     *  @param id Trace id
+     *  @param name Name of the trace id
+     *  @param buffer Ring
+     */
+    private static void writeRing(int id, String name, ByteBuffer buffer) throws IOException{
+        byte[] record = new byte[RECORD_SIZE];
+        synchronized(buffer){
+            long count = buffer.getLong(0);
+            int kept = (int)Math.min(count, records);
+            out.writeInt(id);
+            out.writeUTF(name);
+            out.writeLong(count);
+            out.writeInt(kept);
+            for(long n = count - kept; n < count; n++){
+                buffer.position(HEADER_SIZE + (int)(n & (records - 1)) * RECORD_SIZE);
+                buffer.get(record);
+                out.write(record);
+            }
+        }
+    }
+
+    /** Writes the rings still open to the file and closes it, nothing is recorded afterwards */
+    public static synchronized void dump() throws IOException{
+        if(out == null) return;
+        DataOutputStream file = out;
+        try{
+            for(int id = used.nextSetBit(0); id >= 0; id = used.nextSetBit(id + 1)) writeRing(id, names[id], rings[id]);
+            file.writeInt(END);
+        }finally{
+            out = null;
+            enabled = false;
+            file.close();
+        }
+    }
+}
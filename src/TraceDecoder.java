@@ -0,0 +1,143 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/** Turns a trace dump into a timeline - the records of every Client and Connection are merged by time and printed one per line,
+ *  time is in milliseconds since tracing started */
+public class TraceDecoder{
+    /** Names of the event types, indexed by type */
+    private static final String[] TYPES = {"?", "SEND", "RECEIVE", "ACK", "TIMEOUT", "CWND", "DROP"};
+    /** Names of the drop reasons, indexed by reason */
+    private static final String[] REASONS = {"?", "checksum", "queue-full", "zero-window", "no-room"};
+
+    /** Prints the usage and exits */
+    private static void usage(){
+        System.err.println("Usage: java TraceDecoder <trace file>");
+        System.exit(1);
+    }
+
+    /** Main method
+     *  @param args Path of the trace dump
+     */
+    public static void main(String[] args){
+        if(args.length != 1) usage();
+        try{
+            decode(args[0]);
+        }catch(IOException e){
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Reads the dump and prints the timeline
+     *  @param path Path of the trace dump
+     */
+    public static void decode(String path) throws IOException{
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)));
+        final ByteBuffer records;
+        long start;
+        List<String> names = new ArrayList<String>();
+        int[] owner;
+        try{
+            if(in.readInt() != Trace.MAGIC) throw new IOException(path + " is not a trace");
+            int version = in.readInt();
+            if(version != Trace.VERSION) throw new IOException("Unknown trace version " + version);
+            start = in.readLong();
+
+            // Every ring goes into one buffer, the overwritten records are reported. Trace ids are reused, so the
+            // name comes from the ring a record was in
+            List<byte[]> data = new ArrayList<byte[]>();
+            int size = 0;
+            while(true){
+                int id;
+                try{
+                    id = in.readInt();
+                }catch(EOFException e){
+                    System.out.println("# Trace ends early, the process didn't exit normally");
+                    break;
+                }
+                if(id == Trace.END) break;
+                String name = in.readUTF();
+                long written = in.readLong();
+                int kept = in.readInt();
+                byte[] ring = new byte[kept * Trace.RECORD_SIZE];
+                in.readFully(ring);
+                data.add(ring);
+                names.add(name);
+                size += ring.length;
+                System.out.println("# " + name + ": " + written + " records" + (written > kept ? ", " + (written - kept) + " oldest overwritten" : ""));
+            }
+            records = ByteBuffer.allocate(size);
+            owner = new int[size / Trace.RECORD_SIZE];
+            int index = 0;
+            for(int i = 0; i < data.size(); i++){
+                records.put(data.get(i));
+                for(int n = data.get(i).length / Trace.RECORD_SIZE; n > 0; n--) owner[index++] = i;
+            }
+        }finally{
+            in.close();
+        }
+
+        // Sort by time
+        int total = records.capacity() / Trace.RECORD_SIZE;
+        Integer[] order = new Integer[total];
+        for(int i = 0; i < total; i++) order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>(){
+            public int compare(Integer a, Integer b){
+                return Long.compare(records.getLong(a * Trace.RECORD_SIZE), records.getLong(b * Trace.RECORD_SIZE));
+            }
+        });
+
+        StringBuilder line = new StringBuilder();
+        for(int i = 0; i < total; i++){
+            line.setLength(0);
+            format(line, records, order[i] * Trace.RECORD_SIZE, start, names.get(owner[order[i]]));
+            System.out.println(line);
+        }
+    }
+
+    /** Formats one record
+     *  @param line Builder the line is appended to
+     *  @param records Buffer with the records
+     *  @param offset Offset of the record
+     *  @param start Time tracing started in nanoseconds
+     *  @param name Name of the Client or Connection the record belongs to
+     */
+    private static void format(StringBuilder line, ByteBuffer records, int offset, long start, String name){
+        long time = records.getLong(offset);
+        int type = records.get(offset + 12);
+        int flags = records.get(offset + 13);
+        int reason = records.getShort(offset + 14);
+        int seq = records.getInt(offset + 16);
+        int ack = records.getInt(offset + 20);
+        int length = records.getInt(offset + 24);
+        int value = records.getInt(offset + 28);
+
+        line.append(String.format("%12.3f ms  %-28s %-8s", (time - start) / 1e6, name, type < TYPES.length ? TYPES[type] : "?"));
+        line.append(" seq: ").append(seq).append(" ack: ").append(ack).append(" length: ").append(length);
+        if((flags & Trace.FLAG_ACK) != 0) line.append(" A");
+        if((flags & Trace.FLAG_SYN) != 0) line.append(" S");
+        if((flags & Trace.FLAG_FIN) != 0) line.append(" F");
+
+        // Meaning of the value depends on the type
+        if(type == Trace.SEND || type == Trace.RECEIVE) line.append("  window: ").append(value);
+        else if(type == Trace.ACK) line.append("  rtt: ").append(value < 0 ? "-" : value + "us");
+        else if(type == Trace.TIMEOUT) line.append("  rto: ").append(value).append("ms");
+        else if(type == Trace.CWND) line.append("  cwnd: ").append(value);
+        else if(type == Trace.DROP){
+            line.append("  reason: ").append(reason > 0 && reason < REASONS.length ? REASONS[reason] : "?");
+            if(value != 0) line.append(" port: ").append(value);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+import java.net.InetAddress;
+
+/** One file sent over several connections - every connection writes its byte range into the same output with
+ *  positional writes. The output is closed and its hash published once the last connection is done */
+public class Transfer{
+    /** Server that keeps track of the transfer */
+    private Server server;
+    /** Address of the client */
+    private InetAddress clientAddress;
+    /** Identifies the file among the transfers of the client */
+    private int id;
+    /** Output of the whole file, shared by the connections */
+    private OutputSink sink;
+    /** Number of connections the file is sent over */
+    private int count;
+    /** Number of connections that are done */
+    private int closed = 0;
+    /** Hash of the whole file the client sent on FIN of any connection, null if none did */
+    private String clientHash = null;
+
+    /** Constructor for Transfer
+     *  @param server Server that keeps track of the transfer
+     *  @param clientAddress Address of the client
+     *  @param id Identifies the file among the transfers of the client
+     *  @param count Number of connections the file is sent over
+     *  @param sink Output of the whole file
+     */
+    public Transfer(Server server, InetAddress clientAddress, int id, int count, OutputSink sink){
+        this.server = server;
+        this.clientAddress = clientAddress;
+        this.id = id;
+        this.count = count;
+        this.sink = sink;
+    }
+
+    /** Gets the key of the transfer - the client's address and the id of the file
+     *  @param clientAddress Address of the client
+     *  @param id Identifies the file among the transfers of the client
+     *  @return key of the transfer
+     */
+    public static String getKey(InetAddress clientAddress, int id){
+        return clientAddress.getHostAddress() + "#" + id;
+    }
+
+    /** Gets the key of the transfer
+     *  @return key of the transfer
+     */
+    public String getKey(){
+        return getKey(this.clientAddress, this.id);
+    }
+
+    /** Creates the output of one connection
+     *  @param offset Position of the connection's byte range in the file
+     *  @return OutputSink for the connection
+     */
+    public OutputSink openStream(long offset){
+        return new RangeSink(this, offset);
+    }
+
+    /** Writes a part of the file, connections write concurrently
+     *  @param position Position in the file
+     *  @param data Data to be written
+     *  @param offset Offset in the data array
+     *  @param length Number of bytes to write
+     */
+    public synchronized void write(long position, byte[] data, int offset, int length) throws Exception{
+        sink.writeAt(position, data, offset, length);
+    }
+
+    /** Marks a connection as done, the last one closes the output, publishes the hash of the file and checks it
+     *  against the hash the client sent
+     *  @param clientHash Hash of the whole file the client sent on the connection's FIN, null if none
+     */
+    public synchronized void closeStream(String clientHash) throws Exception{
+        if(clientHash != null){
+            if(this.clientHash != null && !this.clientHash.equals(clientHash)) System.err.println("Error: Connections from " + this.clientAddress + " sent different hashes for the same file");
+            this.clientHash = clientHash;
+        }
+        if(++this.closed < this.count) return;
+        sink.close();
+        String hash = sink.getHash();
+        System.out.println("MD5 hash of the file from " + this.clientAddress + " over " + this.count + " connections: " + hash);
+        checkHash(this.clientAddress + " over " + this.count + " connections", hash, this.clientHash);
+        server.removeTransfer(this);
+    }
+
+    /** Checks the hash of the received file against the hash the client sent, a mismatch is reported as an error
+     *  @param client Who sent the file, for the message
+     *  @param hash Hash of the received file
+     *  @param clientHash Hash the client sent, null if it didn't - nothing to check against
+     *  @return true if the hashes match or there's nothing to check against, otherwise false
+     */
+    public static boolean checkHash(String client, String hash, String clientHash){
+        if(clientHash == null || clientHash.equals(hash)) return true;
+        System.err.println("Error: File from " + client + " is damaged, MD5 hash is " + hash + " but the client sent " + clientHash);
+        return false;
+    }
+}
@@ -0,0 +1,249 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/** Whole transfers from a Client to a Server in this process over the loopback, each side sending through a
+ *  NetworkEmulator - completion time, goodput and retransmission ratio for every network condition and congestion
+ *  control. Usage: TransferBenchmark [--size bytes] [--runs n] [--buffer bytes] [--congestion reno,cubic,bbr]
+ *  [-e thread|nio] [condition...] where a condition is an emulator list like "loss=1%,delay=10ms", or "clean" */
+public class TransferBenchmark{
+    /** Conditions measured when none are given */
+    private static final String[] DEFAULT_CONDITIONS = {
+        "clean",
+        "loss=1%",
+        "loss=5%",
+        "loss=2%,burst=4",
+        "delay=10ms",
+        "delay=10ms,jitter=5ms",
+        "reorder=2%",
+        "duplicate=2%",
+        "corrupt=1%",
+        "rate=1m,queue=64k",
+        "loss=1%,delay=5ms,jitter=2ms,reorder=1%,duplicate=1%"
+    };
+    /** Longest time a transfer may take in milliseconds before it counts as failed */
+    private static final long TRANSFER_LIMIT = 120000;
+    /** Longest time the Server gets to finish the connection after the Client is done in milliseconds */
+    private static final long CLOSE_LIMIT = 5000;
+
+    /** Size of the file in bytes */
+    private long size = 4 * 1024 * 1024;
+    /** Number of transfers for every condition */
+    private int runs = 3;
+    /** Size of the receive buffer of both sides in bytes */
+    private int buffer = Receiver.DEFAULT_BUFFER_SIZE;
+    /** Congestion controls to measure */
+    private String[] congestions = { "reno" };
+    /** True to run both sides with the event loop, otherwise with the Receiver thread */
+    private boolean eventLoop = false;
+    /** Conditions to measure */
+    private String[] conditions = DEFAULT_CONDITIONS;
+    /** Completion time of the latest successful transfer in milliseconds */
+    private long last_time = 0;
+    /** Console - System.out is silenced while the transfers run */
+    private PrintStream console = System.out;
+
+    /** Usage: TransferBenchmark [--size bytes] [--runs n] [--buffer bytes] [--congestion list] [-e thread|nio] [condition...]
+     *  @param args Commandline arguments
+     */
+    public static void main(String[] args){
+        TransferBenchmark benchmark = new TransferBenchmark();
+        ArrayList<String> conditions = new ArrayList<String>();
+        try{
+            for(int i = 0; i < args.length; i++){
+                if(args[i].equals("--size")) benchmark.size = Pacer.parseRate(args[++i]);
+                else if(args[i].equals("--runs")) benchmark.runs = Integer.parseInt(args[++i]);
+                else if(args[i].equals("--buffer")) benchmark.buffer = (int)Pacer.parseRate(args[++i]);
+                else if(args[i].equals("--congestion")) benchmark.congestions = args[++i].split(",");
+                else if(args[i].equals("-e") || args[i].equals("--engine")) benchmark.eventLoop = args[++i].equals("nio");
+                else conditions.add(args[i]);
+            }
+            if(benchmark.runs <= 0) throw new IllegalArgumentException("Runs must be positive");
+            for(String congestion : benchmark.congestions) CongestionControl.forName(congestion);
+            if(conditions.size() != 0) benchmark.conditions = conditions.toArray(new String[conditions.size()]);
+            for(String condition : benchmark.conditions) createEmulator(null, condition, 0);
+        }catch(Exception e){
+            System.err.println("Error: " + e.getMessage());
+            System.err.println("Usage: TransferBenchmark [--size bytes] [--runs n] [--buffer bytes] [--congestion reno,cubic,bbr] [-e thread|nio] [condition...]");
+            System.exit(1);
+        }
+
+        try{
+            benchmark.run();
+        }catch(Exception e){
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+        System.exit(0); //Transfers that timed out may have left threads behind
+    }
+
+    /** Runs every condition with every congestion control and prints a line for each */
+    public void run() throws Exception{
+        // Same file for every transfer
+        File input = File.createTempFile("fcntcp-transfer", ".bin");
+        input.deleteOnExit();
+        writeRandomFile(input, this.size);
+        String expected = Utility.getFileHash(input);
+
+        console.println("Transfer of " + this.size + " bytes, " + this.runs + " runs each, " + this.buffer + " byte buffer, " + (this.eventLoop ? "nio" : "thread") + " engine");
+        console.println(String.format("%-52s %-10s %12s %12s %10s %6s", "condition", "congestion", "median ms", "MB/s", "retx %", "ok"));
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try{
+            for(String congestion : this.congestions){
+                for(String condition : this.conditions){
+                    long[] times = new long[this.runs];
+                    double[] goodputs = new double[this.runs];
+                    double retransmitted = 0;
+                    int ok = 0;
+                    for(int run = 0; run < this.runs; run++){
+                        Client client = transfer(input, expected, condition, congestion, run);
+                        if(client == null) continue;
+                        times[ok] = this.last_time;
+                        goodputs[ok] = this.size / (this.last_time / 1000.0) / (1024 * 1024);
+                        Metrics metrics = client.getMetrics();
+                        if(metrics.getSegmentsSent() != 0) retransmitted += (double)metrics.getSegmentsRetransmitted() / metrics.getSegmentsSent();
+                        ok++;
+                    }
+                    if(ok == 0){
+                        console.println(String.format("%-52s %-10s %12s %12s %10s %3d/%-2d", condition, congestion, "-", "-", "-", ok, this.runs));
+                        continue;
+                    }
+                    console.println(String.format("%-52s %-10s %12d %12.2f %10.2f %3d/%-2d", condition, congestion,
+                            median(times, ok), median(goodputs, ok), retransmitted / ok * 100, ok, this.runs));
+                }
+            }
+        }finally{
+            System.setOut(console);
+            input.delete();
+        }
+    }
+
+    /** Sends the file once from a new Client to a new Server
+     *  @param input File to send
+     *  @param expected Hash of the file
+     *  @param condition Network condition of both directions
+     *  @param congestion Congestion control of the Client
+     *  @param run Number of the run - seeds the emulators
+     *  @return Client that sent the file, null if the transfer failed, timed out or the file arrived damaged
+     */
+    private Client transfer(File input, String expected, String condition, String congestion, int run) throws Exception{
+        File output = File.createTempFile("fcntcp-transfer", ".out");
+        output.deleteOnExit();
+        final Server server = new Server(0, true, output, FileSink.SYNC_NEVER);
+        server.setReceiveBufferSize(this.buffer);
+        server.setTransport(createEmulator(server.getTransport(), condition, 1000 + run));
+        final Client client = new Client(InetAddress.getLoopbackAddress(), server.getPort(), input, 1000, true);
+        client.setTransport(createEmulator(client.getTransport(), condition, run));
+        client.setReceiveBufferSize(this.buffer);
+        client.setCongestionControl(CongestionControl.forName(congestion));
+
+        final Exception[] errors = new Exception[2];
+        Thread serverThread = new Thread("Server"){
+            public void run(){
+                try{
+                    if(eventLoop) server.startEventLoop();
+                    else server.start();
+                }catch(Exception e){
+                    errors[0] = e;
+                }
+            }
+        };
+        Thread clientThread = new Thread("Client"){
+            public void run(){
+                try{
+                    if(eventLoop) client.startEventLoop();
+                    else client.start();
+                }catch(Exception e){
+                    errors[1] = e;
+                }
+            }
+        };
+        serverThread.setDaemon(true);
+        clientThread.setDaemon(true);
+        serverThread.start();
+
+        // Completion time is from the SYN to the Client closing
+        long start = System.nanoTime();
+        clientThread.start();
+        clientThread.join(TRANSFER_LIMIT);
+        long time = (System.nanoTime() - start) / 1000000;
+        boolean done = !clientThread.isAlive() && errors[1] == null;
+
+        // Server writes the last segments and closes the connection once the FIN is acknowledged
+        long deadline = System.currentTimeMillis() + CLOSE_LIMIT;
+        while(done && server.getConnectionCount() != 0 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        server.close();
+        serverThread.join(CLOSE_LIMIT);
+        done = done && Utility.getFileHash(output).equals(expected);
+        output.delete();
+        if(!done){
+            console.println("# " + condition + " run " + run + (clientThread.isAlive() ? " timed out" : " failed"));
+            return null;
+        }
+        this.last_time = time;
+        return client;
+    }
+
+    /** Creates the emulator of one side
+     *  @param transport Transport of the side, null to only check the condition
+     *  @param condition Network condition, "clean" for none
+     *  @param seed Seed of the emulator
+     *  @return emulator in front of the transport
+     */
+    private static Transport createEmulator(Transport transport, String condition, long seed){
+        NetworkEmulator emulator = new NetworkEmulator(transport);
+        emulator.setSeed(seed);
+        if(!condition.equals("clean")) emulator.configure(condition);
+        return emulator;
+    }
+
+    /** Fills the file with random data
+     *  @param file File to write
+     *  @param size Number of bytes
+     */
+    private static void writeRandomFile(File file, long size) throws Exception{
+        Random random = new Random(42);
+        byte[] buffer = new byte[64 * 1024];
+        FileOutputStream out = new FileOutputStream(file);
+        try{
+            for(long written = 0; written < size; written += buffer.length){
+                random.nextBytes(buffer);
+                out.write(buffer, 0, (int)Math.min(buffer.length, size - written));
+            }
+        }finally{
+            out.close();
+        }
+    }
+
+    /** Gets the median of the first values
+     *  @param values Values
+     *  @param count Number of values used
+     *  @return median
+     */
+    private static long median(long[] values, int count){
+        long[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+        return sorted[count / 2];
+    }
+
+    /** Gets the median of the first values
+     *  @param values Values
+     *  @param count Number of values used
+     *  @return median
+     */
+    private static double median(double[] values, int count){
+        double[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+        return sorted[count / 2];
+    }
+}
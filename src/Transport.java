@@ -0,0 +1,25 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/** Way out for the datagrams of a Client or Server - the channel itself, or something in front of it like the
+ *  NetworkEmulator. Datagrams are received straight from the channel, so a transport only sees what is sent */
+public interface Transport{
+    /** Sends a datagram
+     *  @param datagram Buffer with the datagram between its position and limit, the position is advanced past it
+     *  @param target Address and port the datagram is sent to
+     */
+    public void send(ByteBuffer datagram, SocketAddress target) throws IOException;
+
+    /** Sends a datagram gathered from several buffers to the address the channel is connected to
+     *  @param datagram Buffers with the parts of the datagram, in order
+     */
+    public void write(ByteBuffer[] datagram) throws IOException;
+
+    /** Stops the transport once everything it holds is sent, the channel is left open */
+    public void close();
+}
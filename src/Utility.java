@@ -3,31 +3,66 @@
  * Project 2
  */
 import java.io.File;
-import java.io.RandomAccessFile;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
-import java.io.EOFException;
-import java.io.ByteArrayOutputStream;
 
 /** Convenience class for hashing */
 public class Utility{
     final protected static char[] hexArray = "0123456789abcdef".toCharArray();
 
-    /** Gets hash from a file
+    /** Size of the file region mapped at once when hashing */
+    private static final int MAP_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    /** Size of the direct buffer used when the file cannot be mapped */
+    private static final int READ_CHUNK_SIZE = 256 * 1024;
+
+    /** Gets hash from a file - file is streamed through the digest so any size works with constant memory
      *  @param file File to get hash from
      *  @return hash digest
      */
     public static String getFileHash(File file) throws Exception{
-        //StringBuffer sb = new StringBuffer();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        RandomAccessFile ra = new RandomAccessFile(file, "r");
-
-        // Read everything from the file
+        MessageDigest digest = MessageDigest.getInstance("MD5");
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
         try{
-            while(true) baos.write(ra.readByte());
-        }catch(EOFException e){}
+            updateDigest(digest, channel, 0, channel.size());
+        }finally{
+            channel.close();
+        }
+        return byteArrayToHex(digest.digest());
+    }
 
-        ra.close();
-        return getHash(baos.toByteArray());
+    /** Feeds a region of the file to the digest, the region is mapped chunk by chunk. Falls back to reading
+     *  into a direct buffer if the file cannot be mapped
+     *  @param digest Digest to update
+     *  @param channel Channel to the file
+     *  @param position Start of the region
+     *  @param size Size of the region - can be larger than 2GB
+     */
+    public static void updateDigest(MessageDigest digest, FileChannel channel, long position, long size) throws IOException{
+        long end = position + size;
+        try{
+            for(long pos = position; pos < end; pos += MAP_CHUNK_SIZE){
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(MAP_CHUNK_SIZE, end - pos));
+                digest.update(chunk);
+                position = pos + MAP_CHUNK_SIZE;
+            }
+        }catch(UnsupportedOperationException e){
+            // Not a regular file, read the rest instead
+            ByteBuffer buffer = ByteBuffer.allocateDirect(READ_CHUNK_SIZE);
+            while(position < end){
+                buffer.clear();
+                if(end - position < buffer.capacity()) buffer.limit((int)(end - position));
+                int read = channel.read(buffer, position);
+                if(read < 0) throw new IOException("File ended before " + end);
+                buffer.flip();
+                digest.update(buffer);
+                position += read;
+            }
+        }
     }
 
     /** Converts byte array to hexidecimal string
@@ -48,6 +83,16 @@ public class Utility{
         return new String(hexChars);
     }
 
+    /** Converts a hexadecimal string back to bytes
+     *  @param hex hexadecimal string with an even number of digits
+     *  @return byte array
+     */
+    public static byte[] hexToByteArray(String hex){
+        byte[] bytes = new byte[hex.length() / 2];
+        for(int i = 0; i < bytes.length; i++) bytes[i] = (byte)Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        return bytes;
+    }
+
 
 
     /** Gets hash from a string
@@ -0,0 +1,57 @@
+/* @author Thomas Ansill
+ * CSCI-651-03
+ * Project 2
+ */
+import java.lang.reflect.Method;
+
+/** Starts virtual threads when the JVM has them (Java 21 or newer). The calls are looked up by reflection so the
+ *  rest of the code still builds and runs on older JVMs, where only platform threads are available. Java 19 and 20
+ *  have the calls as a preview that throws unless --enable-preview is given, so a thread is built once to find out */
+public class VirtualThreads{
+    /** Thread.ofVirtual(), null if virtual threads are not supported */
+    private static final Method ofVirtual;
+    /** Thread.Builder.name(String) */
+    private static final Method name;
+    /** Thread.Builder.unstarted(Runnable) */
+    private static final Method unstarted;
+
+    static{
+        Method of = null, nm = null, un = null;
+        try{
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            of = Thread.class.getMethod("ofVirtual");
+            nm = builder.getMethod("name", String.class);
+            un = builder.getMethod("unstarted", Runnable.class);
+
+            // Build a thread without starting it, a disabled preview throws here instead of for every connection
+            un.invoke(nm.invoke(of.invoke(null), "probe"), new Runnable(){
+                public void run(){
+                }
+            });
+        }catch(Exception e){
+            of = null;
+        }
+        ofVirtual = of;
+        name = nm;
+        unstarted = un;
+    }
+
+    /** Checks if the JVM has virtual threads
+     *  @return true if virtual threads can be started, otherwise false
+     */
+    public static boolean isSupported(){
+        return ofVirtual != null;
+    }
+
+    /** Creates a virtual thread - blocking on a CountDownLatch or a queue parks the virtual thread and frees its
+     *  carrier thread for other virtual threads
+     *  @param task Task to run
+     *  @param threadName Name of the thread
+     *  @return unstarted virtual thread
+     */
+    public static Thread create(Runnable task, String threadName) throws Exception{
+        if(ofVirtual == null) throw new UnsupportedOperationException("Virtual threads need Java 21 or newer");
+        Object builder = name.invoke(ofVirtual.invoke(null), threadName);
+        return (Thread)unstarted.invoke(builder, task);
+    }
+}
@@ -40,7 +40,28 @@ public class fcntcp{
         boolean quiet = false; //Defaults to false
         boolean uncaught = true; //Flag used to indicate an incorrect or leading argument parts
         File file = null;
+        File output = null;
+        long syncInterval = FileSink.SYNC_ON_CLOSE; //Default to sync the output file only when it is closed
         int timeout = 1000; //Default to 1000 milliseconds (1 second)
+        boolean sack = true; //Defaults to offer SACK
+        boolean timestamps = true; //Defaults to offer timestamps
+        boolean eventLoop = false; //Defaults to Receiver thread engine
+        boolean virtualThreads = false; //Defaults to platform threads for the connections
+        boolean jmx = false; //Defaults to not register the metrics with JMX
+        File trace = null; //Defaults to no event trace
+        String emulate = null; //Defaults to send straight through the channel
+        int waitStrategy = Receiver.WAIT_PARK; //Defaults to block until a packet arrives
+        int bufferSize = Receiver.DEFAULT_BUFFER_SIZE; //Defaults to 2048 bytes
+        int mss = Packet.MAX_DATA_LENGTH; //Defaults to 532 bytes
+        boolean probeMTU = false; //Defaults to send with the agreed segment size right away
+        String congestion = null; //Defaults to NewReno
+        int streams = 1; //Defaults to send the file over one connection
+        boolean pacing = true; //Defaults to spread the window over the round trip
+        boolean batching = true; //Defaults to send the packets of each batch of events together
+        long maxRate = 0; //Defaults to no cap
+        int ackEvery = Connection.DEFAULT_ACK_EVERY; //Defaults to ACK every second segment
+        int ackDelay = Connection.DEFAULT_ACK_DELAY; //Defaults to 5 milliseconds
+        byte checksum = Packet.CHECKSUM_CRC16; //Defaults to CRC16
         InetAddress address = null;
         for(int i = 1; i < args.length; i++){
             //Attempt File
@@ -72,6 +93,247 @@ public class fcntcp{
                 options.add("timeout"); //everything is OK, add to record that file option is defined
                 uncaught = false;
             }
+            //Attempt Output
+            if(uncaught && (args[i].equals("-o") || args[i].equals("--output"))){
+                if(client) usage();
+                if(options.contains("output")) usage("Duplicate output option");
+                i++; //Advance the args pointer
+                if(i >= args.length) usage(); //Check the bounds
+                //Check on the output file
+                output = new File(args[i]);
+                if(output.isDirectory()) usage("The specified output is a directory.");
+                if(output.exists() && !output.canWrite()) usage("The user does not have a write privilege to write the specified output.");
+                options.add("output"); //everything is OK, add to record that output option is defined
+                uncaught = false;
+            }
+            //Attempt Sync
+            if(uncaught && (args[i].equals("-y") || args[i].equals("--sync"))){
+                if(client) usage();
+                if(options.contains("sync")) usage("Duplicate sync option");
+                i++;
+                if(i >= args.length) usage(); //Check the bounds
+                try{
+                    syncInterval = FileSink.parseSyncInterval(args[i]);
+                }catch(Exception e){
+                    usage("The value for -y option must be 'never', 'close' or a positive integer!");
+                }
+                options.add("sync");
+                uncaught = false;
+            }
+            //Attempt ACK every
+            if(uncaught && (args[i].equals("-a") || args[i].equals("--ack-every"))){
+                if(client) usage();
+                if(options.contains("ackevery")) usage("Duplicate ACK every option");
+                i++;
+                if(i >= args.length) usage(); //Check the bounds
+                try{
+                    ackEvery = Integer.parseInt(args[i]);
+                    if(ackEvery < 1) throw new NumberFormatException();
+                }catch(Exception e){
+                    usage("The value for -a option must be a positive integer!");
+                }
+                options.add("ackevery");
+                uncaught = false;
+            }
+            //Attempt ACK delay
+            if(uncaught && args[i].equals("--ack-delay")){
+                if(client) usage();
+                if(options.contains("ackdelay")) usage("Duplicate ACK delay option");
+                i++;
+                if(i >= args.length) usage(); //Check the bounds
+                try{
+                    ackDelay = Integer.parseInt(args[i]);
+                    if(ackDelay < 0) throw new NumberFormatException();
+                }catch(Exception e){
+                    usage("The value for --ack-delay option must be a non-negative integer!");
+                }
+                options.add("ackdelay");
+                uncaught = false;
+            }
+            //Attempt No SACK
+            if(uncaught && args[i].equals("--no-sack")){
+                if(!client) usage();
+                if(options.contains("nosack")) usage("Duplicate no SACK option");
+                sack = false;
+                options.add("nosack");
+                uncaught = false;
+            }
+            //Attempt No timestamps
+            if(uncaught && args[i].equals("--no-timestamps")){
+                if(!client) usage();
+                if(options.contains("notimestamps")) usage("Duplicate no timestamps option");
+                timestamps = false;
+                options.add("notimestamps");
+                uncaught = false;
+            }
+            //Attempt Checksum
+            if(uncaught && (args[i].equals("-k") || args[i].equals("--checksum"))){
+                if(!client) usage();
+                if(options.contains("checksum")) usage("Duplicate checksum option");
+                i++;
+                if(i >= args.length) usage(); //Check the bounds
+                if(args[i].equals("crc16")) checksum = Packet.CHECKSUM_CRC16;
+                else if(args[i].equals("crc32c")) checksum = Packet.CHECKSUM_CRC32C;
+                else usage("The value for -k option must be 'crc16' or 'crc32c'!");
+                options.add("checksum");
+                uncaught = false;
+            }
+            //Attempt Engine
+            if(uncaught && (args[i].equals("-e") || args[i].equals("--engine"))){
+                if(options.contains("engine")) usage("Duplicate engine option");
+                i++;
+                if(i >= args.length) usage(); //Check the bounds
+                if(args[i].equals("nio")) eventLoop = true;
+                else if(args[i].equals("thread")) eventLoop = false;
+                else if(args[i].equals("virtual") && !client){
+                    if(!VirtualThreads.isSupported()) usage("The 'virtual' engine needs Java 21 or newer, please choose 'thread' or 'nio'.");
+                    virtualThreads = true;
+                }
+                else usage("The value for -e option must be 'thread', 'nio' or 'virtual' (server only)!");
+                options.add("engine");
+                uncaught = false;
+            }
+            //Attempt JMX
+            if(uncaught && args[i].equals("--jmx")){
+                if(options.contains("jmx")) usage("Duplicate JMX option");
+                jmx = true;
+                options.add("jmx");
+                uncaught = false;
+            }
+            //Attempt Trace
+            if(uncaught && args[i].equals("--trace")){
+                if(options.contains("trace")) usage("Duplicate trace option");
+                i++; //Advance the args pointer
+                if(i >= args.length) usage(); //Check the bounds
+                //Check on the trace file
+                trace = new File(args[i]);
+                if(trace.isDirectory()) usage("The specified trace file is a directory.");
+                if(trace.exists() && !trace.canWrite()) usage("The user does not have a write privilege to write the specified trace file.");
+                options.add("trace");
+                uncaught = false;
+            }
+            //Attempt Network emulation
+            if(uncaught && args[i].equals("--emulate")){
+                if(options.contains("emulate")) usage("Duplicate emulate option");
+                i++;
+                if(i >= args.length) usage(); //Check the bounds
+                try{
+                    new NetworkEmulator(null).configure(args[i]); //Check the conditions
+                }catch(Exception e){
+                    usage("The value for --emulate option must be a list like 'loss=1%,delay=20ms'! " + e.getMessage());
+                }
+                emulate = args[i];
+                options.add("emulate");
+                uncaught = false;
+            }
+            //Attempt Wait strategy
+            if(uncaught && (args[i].equals("-w") || args[i].equals("--wait"))){
+                if(options.contains("wait")) usage("Duplicate wait option");
+                i++;
+                if(i >= args.length) usage(); //Check the bounds
+                try{
+                    waitStrategy = Receiver.parseWaitStrategy(args[i]);
+                }catch(Exception e){
+                    usage("The value for -w option must be 'park', 'yield' or 'spin'!");
+                }
+                options.add("wait");
+                uncaught = false;
+            }
+            //Attempt Buffer size
+            if(uncaught && (args[i].equals("-b") || args[i].equals("--buffer"))){
+                if(options.contains("buffer")) usage("Duplicate buffer option");
+                i++;
+                if(i >= args.length) usage(); //Check the bounds
+                try{
+                    bufferSize = Receiver.parseBufferSize(args[i]);
+                }catch(Exception e){
+                    usage("The value for -b option must be a number of bytes between " + Packet.MAX_DATA_LENGTH + " and " + Receiver.MAX_BUFFER_SIZE + ", 'k' or 'm' suffix allowed!");
+                }
+                options.add("buffer");
+                uncaught = false;
+            }
+            //Attempt MSS
+            if(uncaught && (args[i].equals("-m") || args[i].equals("--mss"))){
+                if(options.contains("mss")) usage("Duplicate mss option");
+                i++;
+                if(i >= args.length) usage(); //Check the bounds
+                try{
+                    mss = Integer.parseInt(args[i]);
+                    if(mss < 1 || mss > Packet.MAX_MSS) throw new NumberFormatException();
+                }catch(Exception e){
+                    usage("The value for -m option must be an integer between 1 and " + Packet.MAX_MSS + "!");
+                }
+                options.add("mss");
+                uncaught = false;
+            }
+            //Attempt Probe MTU
+            if(uncaught && args[i].equals("--probe-mtu")){
+                if(!client) usage();
+                if(options.contains("probemtu")) usage("Duplicate probe MTU option");
+                probeMTU = true;
+                options.add("probemtu");
+                uncaught = false;
+            }
+            //Attempt Congestion control
+            if(uncaught && (args[i].equals("-g") || args[i].equals("--congestion"))){
+                if(!client) usage();
+                if(options.contains("congestion")) usage("Duplicate congestion control option");
+                i++;
+                if(i >= args.length) usage(); //Check the bounds
+                try{
+                    CongestionControl.forName(args[i]);
+                    congestion = args[i];
+                }catch(Exception e){
+                    usage("The value for -g option must be 'reno', 'cubic' or 'bbr'!");
+                }
+                options.add("congestion");
+                uncaught = false;
+            }
+            //Attempt No pacing
+            if(uncaught && args[i].equals("--no-pacing")){
+                if(!client) usage();
+                if(options.contains("nopacing")) usage("Duplicate no pacing option");
+                pacing = false;
+                options.add("nopacing");
+                uncaught = false;
+            }
+            //Attempt No batching
+            if(uncaught && args[i].equals("--no-batch")){
+                if(!client) usage();
+                if(options.contains("nobatch")) usage("Duplicate no batch option");
+                batching = false;
+                options.add("nobatch");
+                uncaught = false;
+            }
+            //Attempt Rate cap
+            if(uncaught && (args[i].equals("-r") || args[i].equals("--rate"))){
+                if(!client) usage();
+                if(options.contains("rate")) usage("Duplicate rate option");
+                i++;
+                if(i >= args.length) usage(); //Check the bounds
+                try{
+                    maxRate = Pacer.parseRate(args[i]);
+                }catch(Exception e){
+                    usage("The value for -r option must be a positive number of bytes per second, 'k', 'm' or 'g' suffix allowed!");
+                }
+                options.add("rate");
+                uncaught = false;
+            }
+            //Attempt Streams
+            if(uncaught && (args[i].equals("-n") || args[i].equals("--streams"))){
+                if(!client) usage();
+                if(options.contains("streams")) usage("Duplicate streams option");
+                i++;
+                if(i >= args.length) usage(); //Check the bounds
+                try{
+                    streams = Integer.parseInt(args[i]);
+                    if(streams < 1 || streams > Packet.MAX_STREAMS) throw new NumberFormatException("Streams out of range");
+                }catch(Exception e){
+                    usage("The value for -n option must be an integer between 1 and " + Packet.MAX_STREAMS + "!");
+                }
+                options.add("streams");
+                uncaught = false;
+            }
             //Attempt Quiet
             if(uncaught && (args[i].contains("-q") | args[i].contains("--quiet"))){
                 if(options.contains("quiet")) usage("Duplicate quiet option");
@@ -114,7 +376,38 @@ public class fcntcp{
             if(address == null) usage("Server Address input required.");
             if(port == -1) usage("Server Port required.");
             try{
-                new Client(address, port, file, timeout, quiet).start();
+                if(jmx) ProcessMetrics.getShared().enableJMX();
+                if(trace != null) Trace.enable(trace, Trace.DEFAULT_RECORDS);
+
+                // Several streams split the file between them, each with its own congestion control
+                ParallelClient parallel = null;
+                Client[] clients;
+                if(streams > 1){
+                    parallel = new ParallelClient(address, port, file, timeout, quiet, streams);
+                    clients = parallel.getClients();
+                }else clients = new Client[]{ new Client(address, port, file, timeout, quiet) };
+                long streamRate = maxRate == 0 ? 0 : Math.max(1, maxRate / clients.length); //Rate cap is shared by the streams
+                for(Client c : clients){
+                    c.setSACKPermitted(sack);
+                    c.setTimestampsPermitted(timestamps);
+                    c.setChecksumType(checksum);
+                    c.setWaitStrategy(waitStrategy);
+                    c.setReceiveBufferSize(bufferSize);
+                    c.setMSS(mss);
+                    c.setMTUProbing(probeMTU);
+                    if(congestion != null) c.setCongestionControl(CongestionControl.forName(congestion));
+                    c.setPacing(pacing);
+                    c.setBatching(batching);
+                    c.setMaxRate(streamRate);
+                    if(emulate != null){
+                        NetworkEmulator emulator = new NetworkEmulator(c.getTransport());
+                        emulator.configure(emulate);
+                        c.setTransport(emulator);
+                    }
+                }
+                if(parallel != null) parallel.start(eventLoop);
+                else if(eventLoop) clients[0].startEventLoop();
+                else clients[0].start();
             }catch(Exception se){
                 System.err.println("Error: " + se.getMessage());
                 se.printStackTrace();
@@ -127,8 +420,23 @@ public class fcntcp{
             System.out.println("Quiet: " + quiet);
             */
             if(port == -1) usage("Port required.");
+            if(options.contains("sync") && output == null) usage("Sync option requires an output file.");
             try{
-                new Server(port, quiet).start();
+                if(jmx) ProcessMetrics.getShared().enableJMX();
+                if(trace != null) Trace.enable(trace, Trace.DEFAULT_RECORDS);
+                Server s = new Server(port, quiet, output, syncInterval);
+                s.setWaitStrategy(waitStrategy);
+                s.setReceiveBufferSize(bufferSize);
+                s.setMSS(mss);
+                s.setAckPolicy(ackEvery, ackDelay);
+                s.setVirtualThreads(virtualThreads);
+                if(emulate != null){
+                    NetworkEmulator emulator = new NetworkEmulator(s.getTransport());
+                    emulator.configure(emulate);
+                    s.setTransport(emulator);
+                }
+                if(eventLoop) s.startEventLoop();
+                else s.start();
             }catch(Exception e){
                 System.err.println("Error: " + e.getMessage());
                 e.printStackTrace();